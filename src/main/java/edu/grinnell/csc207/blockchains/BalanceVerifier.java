@@ -0,0 +1,208 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KeyNotFoundException;
+
+/**
+ * Checks that the balances of a chain are legal at every step, using
+ * every core. Whether an account ever goes negative depends only on
+ * that account's own transactions, in chain order, so we split the
+ * changes to balances into shards by account and replay each shard on
+ * its own.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BalanceVerifier {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of shards for each core. More shards than cores evens
+   * out the work when some accounts are much busier than others.
+   */
+  static final int SHARDS_PER_CORE = 4;
+
+  /**
+   * The number of changes a shard has room for at first.
+   */
+  static final int INITIAL_CHANGES = 64;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * The changes to the balances of some accounts, in chain order.
+   */
+  static class Shard {
+    /**
+     * The account each change is to.
+     */
+    String[] users = new String[INITIAL_CHANGES];
+
+    /**
+     * The height of the block that makes each change.
+     */
+    int[] heights = new int[INITIAL_CHANGES];
+
+    /**
+     * The amount of each change.
+     */
+    int[] deltas = new int[INITIAL_CHANGES];
+
+    /**
+     * The number of changes.
+     */
+    int size = 0;
+
+    /**
+     * Add a change.
+     *
+     * @param user
+     *   The account.
+     * @param height
+     *   The height of the block that makes the change.
+     * @param delta
+     *   The amount.
+     */
+    void add(String user, int height, int delta) {
+      if (this.size == this.users.length) {
+        this.users = Arrays.copyOf(this.users, this.size * 2);
+        this.heights = Arrays.copyOf(this.heights, this.size * 2);
+        this.deltas = Arrays.copyOf(this.deltas, this.size * 2);
+      } // if
+      this.users[this.size] = user;
+      this.heights[this.size] = height;
+      this.deltas[this.size] = delta;
+      this.size++;
+    } // add(String, int, int)
+
+    /**
+     * Replay the changes, looking for a balance that goes negative.
+     *
+     * @param baseline
+     *   The balances before the first change.
+     *
+     * @return the height of the first block that makes a balance
+     *   negative (or -1, if none does).
+     */
+    int firstIllegal(AssociativeArray<String, Integer> baseline) {
+      HashMap<String, Integer> balances = new HashMap<String, Integer>();
+      for (int i = 0; i < this.size; i++) {
+        Integer balance = balances.get(this.users[i]);
+        if (balance == null) {
+          try {
+            balance = baseline.hasKey(this.users[i]) ? baseline.get(this.users[i]) : 0;
+          } catch (KeyNotFoundException e) {
+            balance = 0;
+          } // try/catch
+        } // if
+        balance += this.deltas[i];
+        if (balance < 0) {
+          return this.heights[i];
+        } // if
+        balances.put(this.users[i], balance);
+      } // for
+      return -1;
+    } // firstIllegal(AssociativeArray)
+  } // class Shard
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of shards we split accounts into.
+   */
+  int shardCount;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a verifier that uses every core.
+   */
+  public BalanceVerifier() {
+    this(Runtime.getRuntime().availableProcessors() * SHARDS_PER_CORE);
+  } // BalanceVerifier()
+
+  /**
+   * Create a verifier that splits accounts into some number of shards.
+   *
+   * @param shards
+   *   The number of shards.
+   */
+  public BalanceVerifier(int shards) {
+    this.shardCount = Math.max(1, shards);
+  } // BalanceVerifier(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Find the first block, after any pruned blocks, that moves a
+   * negative amount or leaves a balance negative.
+   *
+   * @param blocks
+   *   The blocks to check.
+   *
+   * @return the height of that block (or -1, if every block is legal).
+   */
+  int firstIllegal(BlockHistory blocks) {
+    Shard[] shards = new Shard[this.shardCount];
+    for (int i = 0; i < shards.length; i++) {
+      shards[i] = new Shard();
+    } // for
+
+    // Split the changes by account, stopping at any negative amount,
+    // since nothing after it can be the first illegal block
+    int negative = -1;
+    for (int i = Math.max(1, blocks.first()); i < blocks.size() && negative < 0; i++) {
+      Transaction tran = blocks.get(i).getTransaction();
+      String source = tran.getSource();
+      String target = tran.getTarget();
+      int amount = tran.getAmount();
+      if (source != null && !source.equals("")) {
+        shards[Math.floorMod(source.hashCode(), shards.length)].add(source, i, -amount);
+      } // if
+      if (target != null && !target.equals("")) {
+        shards[Math.floorMod(target.hashCode(), shards.length)].add(target, i, amount);
+      } // if
+      boolean moves = (source != null && !source.equals(""))
+          || (target != null && !target.equals(""));
+      if (amount < 0 && moves) {
+        negative = i;
+      } // if
+    } // for
+
+    // Replay the shards in parallel, keeping the earliest failure
+    int overdrawn = IntStream.range(0, shards.length).parallel()
+        .map((i) -> shards[i].firstIllegal(blocks.baseline))
+        .filter((height) -> height >= 0)
+        .min().orElse(-1);
+    if (negative >= 0 && (overdrawn < 0 || negative < overdrawn)) {
+      return negative;
+    } // if
+    return overdrawn;
+  } // firstIllegal(BlockHistory)
+
+  /**
+   * Find the first block, after any pruned blocks, that moves a
+   * negative amount or leaves a balance negative.
+   *
+   * @param snap
+   *   A snapshot of the chain to check.
+   *
+   * @return the height of that block (or -1, if every block is legal).
+   */
+  public int firstIllegal(ChainSnapshot snap) {
+    return this.firstIllegal(snap.history);
+  } // firstIllegal(ChainSnapshot)
+} // class BalanceVerifier
@@ -2,6 +2,7 @@ package edu.grinnell.csc207.blockchains;
 
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.time.Instant;
 
 /**
  * Blocks to be stored in blockchains.
@@ -39,6 +40,12 @@ public class Block {
    */
   long nonce;
 
+  /**
+   * When the block was mined, in milliseconds since the epoch (or 0, for
+   * blocks without a time).
+   */
+  long timestamp;
+
   // +--------------+------------------------------------------------
   // | Constructors |
   // +--------------+
@@ -59,11 +66,33 @@ public class Block {
    */
   public Block(int num1, Transaction transaction1, Hash prevHash1,
       HashValidator check) {
+    this(num1, transaction1, prevHash1, 0, check);
+  } // Block(int, Transaction, Hash, HashValidator)
+
+  /**
+   * Create a new block with a time, mining to choose a nonce that meets
+   * the requirements of the validator.
+   *
+   * @param num1
+   *   The number of the block.
+   * @param transaction1
+   *   The transaction for the block.
+   * @param prevHash1
+   *   The hash of the previous block.
+   * @param timestamp1
+   *   When the block was mined, in milliseconds since the epoch (or 0,
+   *   for no time).
+   * @param check
+   *   The validator used to check the block.
+   */
+  public Block(int num1, Transaction transaction1, Hash prevHash1, long timestamp1,
+      HashValidator check) {
     this.blockNum = num1;
     this.transaction = transaction1;
     this.prevHash = prevHash1;
+    this.timestamp = timestamp1;
     this.computeNonceAndHash(check);
-  } // Block(int, Transaction, Hash, HashValidator)
+  } // Block(int, Transaction, Hash, long, HashValidator)
 
   /**
    * Create a new block, computing the hash for the block.
@@ -78,12 +107,60 @@ public class Block {
    *   The nonce of the block.
    */
   public Block(int num1, Transaction transaction1, Hash prevHash1, long nonce1) {
+    this(num1, transaction1, prevHash1, nonce1, 0L);
+  } // Block(int, Transaction, Hash, long)
+
+  /**
+   * Create a new block with a time, computing the hash for the block.
+   *
+   * @param num1
+   *   The number of the block.
+   * @param transaction1
+   *   The transaction for the block.
+   * @param prevHash1
+   *   The hash of the previous block.
+   * @param nonce1
+   *   The nonce of the block.
+   * @param timestamp1
+   *   When the block was mined, in milliseconds since the epoch (or 0,
+   *   for no time).
+   */
+  public Block(int num1, Transaction transaction1, Hash prevHash1, long nonce1,
+      long timestamp1) {
     this.blockNum = num1;
     this.transaction = transaction1;
     this.prevHash = prevHash1;
     this.nonce = nonce1;
+    this.timestamp = timestamp1;
     computeHash();
-  } // Block(int, Transaction, Hash, long)
+  } // Block(int, Transaction, Hash, long, long)
+
+  /**
+   * Create a block that was read back from storage we trust, using its
+   * stored hash rather than computing it again.
+   *
+   * @param num1
+   *   The number of the block.
+   * @param transaction1
+   *   The transaction for the block.
+   * @param prevHash1
+   *   The hash of the previous block.
+   * @param nonce1
+   *   The nonce of the block.
+   * @param timestamp1
+   *   The time of the block (or 0, for no time).
+   * @param hash1
+   *   The stored hash of the block.
+   */
+  Block(int num1, Transaction transaction1, Hash prevHash1, long nonce1, long timestamp1,
+      Hash hash1) {
+    this.blockNum = num1;
+    this.transaction = transaction1;
+    this.prevHash = prevHash1;
+    this.nonce = nonce1;
+    this.timestamp = timestamp1;
+    this.hash = hash1;
+  } // Block(int, Transaction, Hash, long, long, Hash)
 
   // +---------+-----------------------------------------------------
   // | Helpers |
@@ -119,6 +196,12 @@ public class Block {
       // Nonce of cube
       hashCreator.update(ByteBuffer.allocate(Long.BYTES).putLong(this.nonce).array());
 
+      // Timestamp of cube, left out when there is none so that older
+      // blocks keep their hashes
+      if (this.timestamp != 0) {
+        hashCreator.update(ByteBuffer.allocate(Long.BYTES).putLong(this.timestamp).array());
+      } // if
+
 
       byte[] hashBytes = hashCreator.digest();
       this.hash = new Hash(hashBytes);
@@ -180,6 +263,16 @@ public class Block {
     return this.nonce;
   } // getNonce()
 
+  /**
+   * Get the time of this block.
+   *
+   * @return when the block was mined, in milliseconds since the epoch
+   *   (or 0, if the block has no time).
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  } // getTimestamp()
+
   /**
    * Get the hash of the previous block.
    *
@@ -199,14 +292,31 @@ public class Block {
   } // getHash
 
   /**
-   * Get a string representation of the block.
+   * Get a string representation of the block. Includes the time of the
+   * block, if it has one, both in milliseconds and as a date.
    *
    * @return a string representation of the block.
    */
   public String toString() {
-
-    return String.format("Block %d" + "(Transaction: %s, Nonce: %d, prevHash: %s, hash: %s)",
+    return String.format("Block %d" + "(Transaction: %s, Nonce: %d%s, prevHash: %s, hash: %s)",
         this.getNum(), this.getTransaction().toString(), this.getNonce(),
-        this.getPrevHash().toString(), this.getHash().toString());
+        describeTime(this.getTimestamp()), this.getPrevHash().toString(),
+        this.getHash().toString());
   } // toString()
+
+  /**
+   * Describe the time of a block for toString.
+   *
+   * @param timestamp
+   *   The time of the block (or 0, for no time).
+   *
+   * @return the time in milliseconds and as a date, after a comma, or
+   *   the empty string if there is no time.
+   */
+  static String describeTime(long timestamp) {
+    if (timestamp == 0) {
+      return "";
+    } // if
+    return String.format(", Time: %d (%s)", timestamp, Instant.ofEpochMilli(timestamp));
+  } // describeTime(long)
 } // class Block
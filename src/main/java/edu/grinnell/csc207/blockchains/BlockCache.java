@@ -0,0 +1,249 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cold store that keeps recently read blocks of another cold store in
+ * memory, so that repeated reads of the same blocks do not go back to
+ * the disk or decode the blocks again. The cache holds blocks up to a
+ * budget in bytes, evicting the least recently read blocks first.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockCache implements ColdStore {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The approximate number of bytes a cached block takes beyond its
+   * strings and hashes: the objects themselves and the cache entry.
+   */
+  static final int BLOCK_OVERHEAD = 200;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The store we cache.
+   */
+  ColdStore store;
+
+  /**
+   * The cached blocks, least recently read first, keyed by segment and
+   * index (see key).
+   */
+  LinkedHashMap<Long, Block> blocks;
+
+  /**
+   * The most bytes we let the cached blocks take.
+   */
+  long budget;
+
+  /**
+   * The approximate number of bytes the cached blocks take.
+   */
+  long bytes;
+
+  /**
+   * The number of reads we answered from the cache.
+   */
+  long hits;
+
+  /**
+   * The number of reads we passed on to the store.
+   */
+  long misses;
+
+  /**
+   * The number of blocks we evicted to stay within the budget.
+   */
+  long evictions;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a cache in front of a store.
+   *
+   * @param underlying
+   *   The store to cache.
+   * @param budgetBytes
+   *   The most bytes the cached blocks may take.
+   */
+  public BlockCache(ColdStore underlying, long budgetBytes) {
+    this.store = underlying;
+    this.blocks = new LinkedHashMap<Long, Block>(16, 0.75f, true);
+    this.budget = budgetBytes;
+    this.bytes = 0;
+    this.hits = 0;
+    this.misses = 0;
+    this.evictions = 0;
+  } // BlockCache(ColdStore, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the key for a block.
+   *
+   * @param segment
+   *   The identifier of its segment.
+   * @param index
+   *   Its position within the segment.
+   *
+   * @return the key.
+   */
+  static long key(int segment, int index) {
+    return ((long) segment << Integer.SIZE) | Integer.toUnsignedLong(index);
+  } // key(int, int)
+
+  /**
+   * Estimate the number of bytes a block takes in memory.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the estimate.
+   */
+  static long weigh(Block blk) {
+    Transaction tran = blk.getTransaction();
+    return BLOCK_OVERHEAD + 2L * (tran.getSource().length() + tran.getTarget().length())
+        + blk.getPrevHash().length() + blk.getHash().length();
+  } // weigh(Block)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Seal blocks into a new segment of the underlying store.
+   *
+   * @param blks
+   *   The blocks, in order.
+   *
+   * @return an identifier for the segment.
+   *
+   * @throws IOException
+   *   If the segment cannot be stored.
+   */
+  public int seal(List<Block> blks) throws IOException {
+    return this.store.seal(blks);
+  } // seal(List<Block>)
+
+  /**
+   * Read a block, from the cache if we can.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   * @param index
+   *   The position of the block within the segment.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the block is not cached and cannot be read.
+   */
+  public Block read(int segment, int index) throws IOException {
+    long key = key(segment, index);
+    synchronized (this) {
+      Block blk = this.blocks.get(key);
+      if (blk != null) {
+        this.hits++;
+        return blk;
+      } // if
+      this.misses++;
+    } // synchronized
+    Block blk = this.store.read(segment, index);
+    long weight = weigh(blk);
+    synchronized (this) {
+      if (weight <= this.budget && this.blocks.put(key, blk) == null) {
+        this.bytes += weight;
+        Iterator<Block> eldest = this.blocks.values().iterator();
+        while (this.bytes > this.budget) {
+          this.bytes -= weigh(eldest.next());
+          eldest.remove();
+          this.evictions++;
+        } // while
+      } // if
+    } // synchronized
+    return blk;
+  } // read(int, int)
+
+  /**
+   * Release a segment of the underlying store, forgetting its cached
+   * blocks.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   *
+   * @throws IOException
+   *   If the underlying store cannot free the segment.
+   */
+  public void release(int segment) throws IOException {
+    synchronized (this) {
+      Iterator<Map.Entry<Long, Block>> entries = this.blocks.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<Long, Block> entry = entries.next();
+        if ((int) (entry.getKey() >>> Integer.SIZE) == segment) {
+          this.bytes -= weigh(entry.getValue());
+          entries.remove();
+        } // if
+      } // while
+    } // synchronized
+    this.store.release(segment);
+  } // release(int)
+
+  /**
+   * Get the number of reads answered from the cache.
+   *
+   * @return the number of hits.
+   */
+  public synchronized long hits() {
+    return this.hits;
+  } // hits()
+
+  /**
+   * Get the number of reads passed on to the underlying store.
+   *
+   * @return the number of misses.
+   */
+  public synchronized long misses() {
+    return this.misses;
+  } // misses()
+
+  /**
+   * Get the number of blocks evicted to stay within the budget.
+   *
+   * @return the number of evictions.
+   */
+  public synchronized long evictions() {
+    return this.evictions;
+  } // evictions()
+
+  /**
+   * Get the approximate number of bytes the cached blocks take.
+   *
+   * @return the number of bytes.
+   */
+  public synchronized long bytes() {
+    return this.bytes;
+  } // bytes()
+
+  /**
+   * Summarize the counters.
+   *
+   * @return the summary.
+   */
+  public synchronized String toString() {
+    return String.format("[hits: %d, misses: %d, evictions: %d, bytes: %d/%d]", this.hits,
+        this.misses, this.evictions, this.bytes, this.budget);
+  } // toString()
+} // class BlockCache
@@ -1,11 +1,19 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.stream.Stream;
 
 import edu.grinnell.csc207.util.AssociativeArray;
 import edu.grinnell.csc207.util.KeyNotFoundException;
-import edu.grinnell.csc207.util.Node2;
+import edu.grinnell.csc207.util.NullKeyException;
 
 /**
  * A full blockchain.
@@ -13,6 +21,37 @@ import edu.grinnell.csc207.util.Node2;
  * @author Richard Lin, Maral Bat-Erdene
  */
 public class BlockChain implements Iterable<Transaction> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of events we buffer for each subscriber. Once a
+   * subscriber falls this far behind, further events to it are dropped
+   * rather than making append wait, leaving a gap in the sequence
+   * numbers it sees.
+   */
+  static final int EVENT_BUFFER = 256;
+
+  /**
+   * The number of blocks a pruning chain lets pass the prune depth
+   * before it prunes again, so that it does not prune on every append.
+   */
+  static final int PRUNE_BATCH = 64;
+
+  /**
+   * The number of recently mined blocks whose nonces we remember, so
+   * that appending them does not mine them again.
+   */
+  static final int MINE_CACHE_SIZE = 64;
+
+  /**
+   * How far past our clock a block's time may be, in milliseconds. Any
+   * further, and one block could push the latest time so far ahead that
+   * no honest block after it would be accepted.
+   */
+  static final long MAX_DRIFT_MILLIS = 2 * 60 * 60 * 1000L;
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
@@ -27,24 +66,77 @@ public class BlockChain implements Iterable<Transaction> {
   Hash prevHash;
 
   /**
-   * The first node in the blockchain. It holds the first block in the chain.
+   * The blocks in the blockchain, indexed by block number.
    */
-  Node2 first;
+  BlockHistory history;
 
   /**
-   * The last node in the blockchain. It holds the most recent block in the chain.
+   * An associative array that tracks the balances of users in the
+   * blockchain. Snapshots share its nodes (see AssociativeArray.clone).
    */
-  Node2 last;
+  AssociativeArray<String, Integer> balances;
 
   /**
-   * The number of blocks in the blockchain.
+   * For each block, a record of how to undo its changes to the balances
+   * (or null, for blocks restored from a ledger snapshot or sealed into
+   * the cold store).
    */
-  int size;
+  ArrayList<LedgerUndo> journal;
 
   /**
-   * An associative array that tracks the balances of users in the blockchain.
+   * For each user in the ledger, the height of the block that added the
+   * user, so that removing a block without an undo record still drops
+   * the users it added, as LedgerUndo.undo does.
    */
-  AssociativeArray<String, Integer> balances;
+  AssociativeArray<String, Integer> joined;
+
+  /**
+   * Publishes appends and removals to subscribers. Created on first use.
+   */
+  SubmissionPublisher<ChainEvent> publisher;
+
+  /**
+   * The number of changes published so far, which is the sequence
+   * number of the next event.
+   */
+  long published;
+
+  /**
+   * The log we record changes in (or null, if we don't).
+   */
+  BlockLog log;
+
+  /**
+   * The position in the log just past the last record we wrote.
+   */
+  long logEnd;
+
+  /**
+   * The number of recent blocks we keep whole (or 0, to never prune).
+   */
+  int pruneDepth;
+
+  /**
+   * The nonces of blocks we recently mined.
+   */
+  MineCache mined;
+
+  /**
+   * Whether or not we accept blocks whose transactions overdraw their
+   * source or move a negative amount. Such blocks make the chain
+   * incorrect (see isCorrect).
+   */
+  boolean permissive;
+
+  /**
+   * A sparse index from times to heights.
+   */
+  TimeIndex times;
+
+  /**
+   * Totals over the transactions, kept up to date as blocks come and go.
+   */
+  ChainStats stats;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -57,55 +149,316 @@ public class BlockChain implements Iterable<Transaction> {
    *   The validator used to check elements.
    */
   public BlockChain(HashValidator check) {
+    this(check, null, 0);
+  } // BlockChain(HashValidator)
+
+  /**
+   * Create a new blockchain that keeps only its most recent blocks in
+   * memory, sealing older ones into a cold store and reading them back
+   * when asked for.
+   *
+   * @param check
+   *   The validator used to check elements.
+   * @param store
+   *   Where to keep older blocks (or null, to keep every block in
+   *   memory).
+   * @param hotBlocks
+   *   The number of recent blocks to keep in memory. The chain holds at
+   *   most twice this many blocks in memory, and seals this many at a
+   *   time.
+   */
+  public BlockChain(HashValidator check, ColdStore store, int hotBlocks) {
     this.checker = check;
-    this.prevHash = new Hash(new byte[] {});
-    Block firstB = new Block(0, new Transaction("", "", 0), this.prevHash, this.checker);
+    Block firstB = GenesisCache.genesis(this.checker);
     this.prevHash = firstB.getHash();
-    this.first = new Node2(firstB);
-    this.last = this.first;
-    this.size = 1;
+    this.history = new BlockHistory(store, hotBlocks);
+    this.history.add(firstB);
+    this.times = new TimeIndex();
+    this.times.add(firstB);
     this.balances = new AssociativeArray<>();
-  } // BlockChain(HashValidator)
+    this.journal = new ArrayList<LedgerUndo>();
+    this.journal.add(new LedgerUndo());
+    this.joined = new AssociativeArray<String, Integer>();
+    this.mined = new MineCache(MINE_CACHE_SIZE);
+    this.permissive = false;
+    this.published = 0;
+    this.stats = new ChainStats();
+  } // BlockChain(HashValidator, ColdStore, int)
 
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
   /**
-   * Update the balance for a user, initializing it to 0 if not present.
+   * Apply a transaction to a ledger, returning a record of how to undo
+   * it.
+   *
+   * @param tran
+   *   The transaction to apply.
+   * @param ledger
+   *   The ledger to update.
+   * @param base
+   *   Where to find the balances of users that the ledger does not have
+   *   (or null, if the ledger has everyone).
+   *
+   * @return a record of the balances the transaction changed.
+   *
+   * @throws IllegalArgumentException
+   *   If the source or target is null.
+   */
+  static LedgerUndo applyTransaction(Transaction tran, AssociativeArray<String, Integer> ledger,
+      AssociativeArray<String, Integer> base) throws IllegalArgumentException {
+    LedgerUndo undo = new LedgerUndo();
+    String[] users = {tran.getSource(), tran.getTarget()};
+    int[] amounts = {-tran.getAmount(), tran.getAmount()};
+    for (int i = 0; i < users.length; i++) {
+      if (users[i] == null) {
+        throw new IllegalArgumentException();
+      } // if
+      // Do not count deposits
+      if (users[i].equals("")) {
+        continue;
+      } // if
+      try {
+        Integer prev = null;
+        if (ledger.hasKey(users[i])) {
+          prev = ledger.get(users[i]);
+        } else if (base != null && base.hasKey(users[i])) {
+          prev = base.get(users[i]);
+        } // if/else
+        undo.record(users[i], prev);
+        ledger.set(users[i], ((prev == null) ? 0 : prev) + amounts[i]);
+      } catch (KeyNotFoundException | NullKeyException e) {
+        throw new IllegalArgumentException();
+      } // try/catch
+    } // for
+    return undo;
+  } // applyTransaction(Transaction, AssociativeArray, AssociativeArray)
+
+  /**
+   * Determine if a transaction is legal given the current balances: it
+   * moves no negative amount and its source can afford it. Deposits
+   * need no funds.
    *
-   * @param user The user whose balance will be updated.
-   * @param amount The amount to add to the user's balance (can be negative).
-   * @param balances Stores the balances of each user
-   * @throws IllegalArgumentException if the user's key is null or the update fails.
+   * @param tran
+   *   The transaction to check.
+   * @param ledger
+   *   The balances.
+   * @param base
+   *   Where to find the balances of users that the ledger does not have
+   *   (or null, if the ledger has everyone).
+   *
+   * @return true if the transaction is legal and false otherwise.
    */
-  private static void updateBalance(String user, int amount,
-      AssociativeArray<String, Integer> balances) throws IllegalArgumentException {
-    // Check if user key is valid
-    if (user == null) {
-      throw new IllegalArgumentException();
+  static boolean isLegal(Transaction tran, AssociativeArray<String, Integer> ledger,
+      AssociativeArray<String, Integer> base) {
+    String source = tran.getSource();
+    int amount = tran.getAmount();
+    if (source == null || source.equals("")) {
+      return amount >= 0 || "".equals(tran.getTarget());
     } // if
+    try {
+      int balance = 0;
+      if (ledger.hasKey(source)) {
+        balance = ledger.get(source);
+      } else if (base != null && base.hasKey(source)) {
+        balance = base.get(source);
+      } // if/else
+      return amount >= 0 && balance >= amount;
+    } catch (KeyNotFoundException e) {
+      return false;
+    } // try/catch
+  } // isLegal(Transaction, AssociativeArray, AssociativeArray)
 
-    // Do not count
-    if (user.equals("")) {
-      return;
+  /**
+   * Drop the undo records of blocks that the history has sealed, so that
+   * memory does not grow with the chain. Removing those blocks runs
+   * their transactions backwards instead.
+   */
+  private void trimJournal() {
+    for (int i = this.history.offset - 1; i >= 0 && this.journal.get(i) != null; i--) {
+      this.journal.set(i, null);
+    } // for
+  } // trimJournal()
+
+  /**
+   * Note which users a block adds to the ledger.
+   *
+   * @param tran
+   *   The transaction of the block.
+   * @param height
+   *   The height of the block.
+   */
+  private void noteJoined(Transaction tran, int height) {
+    for (String user : new String[] {tran.getSource(), tran.getTarget()}) {
+      // Deposits come from no one
+      if (!user.equals("") && !this.joined.hasKey(user)) {
+        try {
+          this.joined.set(user, height);
+        } catch (NullKeyException e) {
+          // Cannot happen: the user is not null
+        } // try/catch
+      } // if
+    } // for
+  } // noteJoined(Transaction, int)
+
+  /**
+   * Drop the users that a block added to the ledger, once the block is
+   * gone.
+   *
+   * @param tran
+   *   The transaction of the block.
+   * @param height
+   *   The height of the block.
+   */
+  private void dropJoined(Transaction tran, int height) {
+    for (String user : new String[] {tran.getSource(), tran.getTarget()}) {
+      try {
+        if (this.joined.hasKey(user) && this.joined.get(user) == height) {
+          this.joined.remove(user);
+          this.balances.remove(user);
+        } // if
+      } catch (KeyNotFoundException e) {
+        // Cannot happen: we just checked for the key
+      } // try/catch
+    } // for
+  } // dropJoined(Transaction, int)
+
+  /**
+   * Prune old blocks if enough have gone past the prune depth.
+   */
+  private void autoPrune() {
+    int height = this.history.size() - this.pruneDepth;
+    if (this.pruneDepth > 0 && height >= this.history.first() + PRUNE_BATCH) {
+      this.prune(height);
     } // if
+  } // autoPrune()
 
-    // Default the balance to 0 if key is not found
-    int prevBalance = 0;
-    try {
-      prevBalance = balances.get(user);
-    } catch (Exception ex) {
-      // Do Nothing
-    } // try/catch
+  /**
+   * Tell any subscribers about a change to the chain. Never blocks:
+   * subscribers whose buffers are full miss the event, which they can
+   * tell from the gap in sequence numbers.
+   *
+   * @param blk
+   *   The block that was appended or removed.
+   * @param removed
+   *   True if the block was removed and false if it was appended.
+   */
+  private void publish(Block blk, boolean removed) {
+    long seq = this.published++;
+    if (this.publisher != null) {
+      this.publisher.offer(new ChainEvent(blk, removed, seq), (subscriber, event) -> false);
+    } // if
+  } // publish(Block, boolean)
 
-    // Attempt to set the new balance and the user
-    try {
-      balances.set(user, prevBalance + amount);
-    } catch (Exception ex) {
-      throw new IllegalArgumentException();
-    } // try/catch
-  } // updateBalance(String, int)
+  /**
+   * Wait until the changes logged so far are on the disk, if the log is
+   * durable, or sync a lazy log whose group is full. Call without holding
+   * the lock on the chain, so that no fsync blocks other threads and
+   * threads that change the chain at about the same time share one fsync.
+   *
+   * @throws UncheckedIOException
+   *   If the changes cannot be synced. They stay in the chain, but the
+   *   log accepts no more changes.
+   */
+  void settleLog() throws UncheckedIOException {
+    BlockLog changes;
+    long end;
+    synchronized (this) {
+      changes = this.log;
+      end = this.logEnd;
+    } // synchronized
+    if (changes != null) {
+      try {
+        changes.settle(end);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } // try/catch
+    } // if
+  } // settleLog()
+
+  /**
+   * Get a read-only view of the blocks currently in the chain.
+   *
+   * @return the view.
+   */
+  private synchronized BlockHistory frozenHistory() {
+    return this.history.freeze();
+  } // frozenHistory()
+
+  /**
+   * Determine if a sequence of blocks is correct in that (a) the balances
+   * are legal/correct at every step, (b) that every block has a correct
+   * previous hash field, (c) that every block has a hash that is correct
+   * for its contents, (d) that every block has a valid hash, and (e)
+   * that no block is earlier than the one before it, and no block
+   * after a block with a time lacks one. Only (b), (d), and (e) can be
+   * checked for pruned blocks.
+   *
+   * @param blocks
+   *   The blocks to check, starting with the initial block.
+   * @param checker
+   *   The validator for hashes.
+   *
+   * @return true if the blocks are correct and false otherwise.
+   */
+  static boolean isCorrect(BlockHistory blocks, HashValidator checker) {
+    // Return true since the first block is always valid
+    if (blocks.size() <= 1) {
+      return true;
+    } // if
+
+    // Initial previous hash.
+    int start = Math.max(1, blocks.first());
+    Hash pHash = (start > 1) ? blocks.header(1).getPrevHash() : blocks.get(1).prevHash;
+    Transaction currentTran;
+    long latest = 0;
+
+    // Pruned blocks have only their headers, so check what we can
+    for (int i = 1; i < start; i++) {
+      BlockHeader header = blocks.header(i);
+      if (!header.getPrevHash().equals(pHash) || !checker.isValid(header.getHash())
+          || (latest != 0 && header.getTimestamp() < latest)) {
+        return false;
+      } // if
+      latest = Math.max(latest, header.getTimestamp());
+      pHash = header.getHash();
+    } // for
+
+    // Iterate over the chain to validate each block.
+    for (int i = start; i < blocks.size(); i++) {
+      Block currentBlock = blocks.get(i);
+      // every block has a correct previous hash field
+      if (!currentBlock.getPrevHash().equals(pHash)) {
+        return false;
+      } // if
+
+      // that every block has a hash that is correct for its contents
+      currentTran = currentBlock.getTransaction();
+      Block validBlock = new Block(i, currentTran, pHash, currentBlock.getTimestamp(), checker);
+      if (!validBlock.getHash().equals(currentBlock.getHash())) {
+        return false;
+      } // if
+
+      // that every block has a valid hash
+      if (!checker.isValid(currentBlock.getHash())) {
+        return false;
+      } // if
+
+      // that no block is earlier than the one before it
+      long time = currentBlock.getTimestamp();
+      if (latest != 0 && time < latest) {
+        return false;
+      } // if
+      latest = Math.max(latest, time);
+
+      // Travel to the next block
+      pHash = currentBlock.getHash();
+    } // for
+
+    // the balances are legal/correct at every step
+    return new BalanceVerifier().firstIllegal(blocks) < 0;
+  } // isCorrect(BlockHistory, HashValidator)
 
   // +---------+-----------------------------------------------------
   // | Methods |
@@ -113,26 +466,196 @@ public class BlockChain implements Iterable<Transaction> {
 
   /**
    * Mine for a new valid block for the end of the chain, returning that
-   * block.
+   * block. The block has the current time, or the time of the latest
+   * block if the clock is behind it.
    *
    * @param t
    *   The transaction that goes in the block.
    *
-   * @return a new block with correct number, hashes, and such.
+   * @return a new block with correct number, hashes, time, and such.
    */
   public Block mine(Transaction t) {
-    return new Block(this.size, t, this.prevHash, this.checker);
+    int num;
+    Hash prev;
+    long time;
+    synchronized (this) {
+      num = this.history.size();
+      prev = this.prevHash;
+      time = Math.max(System.currentTimeMillis(), this.times.latest);
+    } // synchronized
+    Block blk = new Block(num, t, prev, time, this.checker);
+    this.mined.add(blk);
+    return blk;
   } // mine(Transaction)
 
+  /**
+   * Mine a new block for the end of the chain and add it, mining only
+   * once.
+   *
+   * @param t
+   *   The transaction that goes in the block.
+   *
+   * @return the block we added.
+   *
+   * @throws IllegalArgumentException
+   *   If another thread added a block while we were mining.
+   */
+  public Block mineAndAppend(Transaction t) throws IllegalArgumentException {
+    Block blk = this.mine(t);
+    this.append(blk);
+    return blk;
+  } // mineAndAppend(Transaction)
+
   /**
    * Get the number of blocks curently in the chain.
    *
    * @return the number of blocks in the chain, including the initial block.
    */
-  public int getSize() {
-    return this.size;
+  public synchronized int getSize() {
+    return this.history.size();
   } // getSize()
 
+  /**
+   * Determine if a block's contents are valid on their own: its hash is
+   * valid, is correct for its contents, and uses the nonce that mining
+   * would choose. Does not look at the chain, so may be called from any
+   * thread.
+   *
+   * @param blk
+   *   The block to check.
+   *
+   * @return true if the contents are valid and false otherwise.
+   */
+  boolean hasValidContents(Block blk) {
+    if (this.mined.wasMined(blk)) {
+      // We chose the nonce ourselves, so one hash checks the rest
+      Block hashed = new Block(blk.getNum(), blk.getTransaction(), blk.getPrevHash(),
+          blk.getNonce(), blk.getTimestamp());
+      return checker.isValid(blk.getHash()) && blk.getHash().equals(hashed.getHash());
+    } // if
+    Block validationBlock = new Block(blk.getNum(), blk.getTransaction(), blk.getPrevHash(),
+        blk.getTimestamp(), this.checker);
+    return checker.isValid(blk.getHash())
+        && blk.getHash().equals(validationBlock.getHash())
+        && blk.getNonce() == validationBlock.getNonce();
+  } // hasValidContents(Block)
+
+  /**
+   * Make sure that a block's time can follow the blocks before it. Once
+   * some block has a time, every later block needs one that is no
+   * earlier, and no block may be more than MAX_DRIFT_MILLIS past our
+   * clock. Blocks before the first timed block may lack times.
+   *
+   * @param blk
+   *   The block.
+   * @param latest
+   *   The latest time of the blocks before it (or 0, if none has a
+   *   time).
+   *
+   * @throws IllegalArgumentException
+   *   If the block's time cannot follow them.
+   */
+  static void checkTime(Block blk, long latest) throws IllegalArgumentException {
+    long time = blk.getTimestamp();
+    if (latest != 0 && time == 0) {
+      throw new IllegalArgumentException("block " + blk.getNum() + " has no time");
+    } else if (time < latest) {
+      throw new IllegalArgumentException("block " + blk.getNum() + " is earlier than the last");
+    } else if (time > System.currentTimeMillis() + MAX_DRIFT_MILLIS) {
+      throw new IllegalArgumentException("block " + blk.getNum() + " is too far in the future");
+    } // if/else
+  } // checkTime(Block, long)
+
+  /**
+   * Add a block whose contents have already been validated to the end of
+   * the chain.
+   *
+   * @param blk
+   *   The block to add to the end of the chain.
+   *
+   * @throws IllegalArgumentException if the block number, previous
+   *   hash, or time is incorrect (see checkTime), or if the chain is not
+   *   permissive and the transaction is not legal (see isLegal).
+   * @throws UncheckedIOException if the chain can no longer move older
+   *   blocks out of memory.
+   */
+  synchronized void commit(Block blk) throws IllegalArgumentException {
+    this.history.checkCold();
+    if (blk.getNum() != this.history.size()
+        || !blk.getPrevHash().equals(this.prevHash)) {
+      throw new IllegalArgumentException();
+    } // if
+    checkTime(blk, this.times.latest);
+    if (!this.permissive && !isLegal(blk.getTransaction(), this.balances, null)) {
+      throw new IllegalArgumentException("illegal transaction in block " + blk.getNum());
+    } // if
+
+    // Update the balances
+    LedgerUndo undo = applyTransaction(blk.getTransaction(), this.balances, null);
+
+    // Log the block before anyone can see it
+    if (this.log != null) {
+      try {
+        this.logEnd = this.log.log(blk);
+      } catch (IOException e) {
+        undo.undo(this.balances);
+        throw new UncheckedIOException(e);
+      } // try/catch
+    } // if
+    this.journal.add(undo);
+    this.noteJoined(blk.getTransaction(), blk.getNum());
+
+    // Insert the new block
+    this.history.add(blk);
+    this.times.add(blk);
+    this.stats.apply(blk.getTransaction(), 1);
+    this.trimJournal();
+    this.prevHash = blk.getHash();
+    this.publish(blk, false);
+    this.autoPrune();
+  } // commit(Block)
+
+  /**
+   * Add blocks covered by a ledger snapshot to the end of the chain,
+   * taking the balances from the snapshot rather than from the
+   * transactions. Trusts that the blocks have valid contents.
+   *
+   * @param blks
+   *   The blocks to add, in order, ending with the block at the height
+   *   of the snapshot.
+   * @param snap
+   *   The snapshot.
+   *
+   * @throws IllegalArgumentException
+   *   If the blocks do not follow the chain or do not end at the
+   *   snapshot.
+   */
+  synchronized void restore(List<Block> blks, LedgerSnapshot snap)
+      throws IllegalArgumentException {
+    this.history.checkCold();
+    Hash pHash = this.prevHash;
+    int num = this.history.size();
+    for (Block blk : blks) {
+      if (blk.getNum() != num++ || !blk.getPrevHash().equals(pHash)) {
+        throw new IllegalArgumentException("misplaced block " + blk.getNum());
+      } // if
+      pHash = blk.getHash();
+    } // for
+    if (num - 1 != snap.getHeight() || !pHash.equals(snap.getHash())) {
+      throw new IllegalArgumentException("blocks do not end at the snapshot");
+    } // if
+    for (Block blk : blks) {
+      this.history.add(blk);
+      this.times.add(blk);
+      this.stats.apply(blk.getTransaction(), 1);
+      this.journal.add(null);
+      this.noteJoined(blk.getTransaction(), blk.getNum());
+      this.publish(blk, false);
+    } // for
+    this.prevHash = pHash;
+    this.balances = snap.balances.clone();
+  } // restore(List<Block>, LedgerSnapshot)
+
   /**
    * Add a block to the end of the chain.
    *
@@ -140,156 +663,417 @@ public class BlockChain implements Iterable<Transaction> {
    *   The block to add to the end of the chain.
    *
    * @throws IllegalArgumentException if (a) the hash is not valid, (b)
-   *   the hash is not appropriate for the contents, or (c) the previous
-   *   hash is incorrect.
+   *   the hash is not appropriate for the contents, (c) the previous
+   *   hash is incorrect, or (d) the transaction is not legal and the
+   *   chain is not permissive.
    */
   public void append(Block blk) throws IllegalArgumentException {
     // Validate the block
-    Block validationBlock = mine(blk.getTransaction());
-    if (!checker.isValid(blk.getHash())
-        || !blk.getHash().equals(validationBlock.getHash())
-        || !blk.getPrevHash().equals(this.prevHash)
-        || blk.getNonce() != validationBlock.getNonce()) {
+    if (!this.hasValidContents(blk)) {
       throw new IllegalArgumentException();
     } // if
+    this.commit(blk);
+    this.settleLog();
+  } // append()
 
-    Transaction newTran = blk.getTransaction();
-    try {
-      // Update source balance
-      updateBalance(newTran.getSource(), -1 * newTran.getAmount(), this.balances);
-      // Update target balance
-      updateBalance(newTran.getTarget(), newTran.getAmount(), this.balances);
-    } catch (Exception ex) {
-      throw new IllegalArgumentException();
-    } // try/catch
+  /**
+   * Add several blocks to the end of the chain, all at once. Either every
+   * block is added or, if any block is invalid, none are. Other threads
+   * never see the chain with only some of the blocks added.
+   *
+   * @param blks
+   *   The blocks to add, in order.
+   *
+   * @throws IllegalArgumentException if any block is invalid (see
+   *   append) or does not follow the block before it.
+   */
+  public void appendAll(List<Block> blks) throws IllegalArgumentException {
+    // Validate the contents of every block before touching the chain
+    for (Block blk : blks) {
+      if (!this.hasValidContents(blk)) {
+        throw new IllegalArgumentException("invalid block " + blk.getNum());
+      } // if
+    } // for
 
-    // Insert the new block with the Node2 function
-    this.last = this.last.insertAfter(blk);
-    this.prevHash = blk.getHash();
-    this.size++;
-  } // append()
+    synchronized (this) {
+      this.history.checkCold();
+      // Check the links and stage the balances on a scratch ledger
+      AssociativeArray<String, Integer> scratch = new AssociativeArray<>();
+      ArrayList<LedgerUndo> undos = new ArrayList<LedgerUndo>();
+      Hash pHash = this.prevHash;
+      int num = this.history.size();
+      long latest = this.times.latest;
+      for (Block blk : blks) {
+        if (blk.getNum() != num++ || !blk.getPrevHash().equals(pHash)) {
+          throw new IllegalArgumentException("misplaced block " + blk.getNum());
+        } // if
+        checkTime(blk, latest);
+        latest = Math.max(latest, blk.getTimestamp());
+        if (!this.permissive && !isLegal(blk.getTransaction(), scratch, this.balances)) {
+          throw new IllegalArgumentException("illegal transaction in block " + blk.getNum());
+        } // if
+        undos.add(applyTransaction(blk.getTransaction(), scratch, this.balances));
+        pHash = blk.getHash();
+      } // for
+
+      // Log the blocks before anyone can see them
+      if (this.log != null) {
+        try {
+          this.logEnd = this.log.logAll(blks);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } // try/catch
+      } // if
+
+      // Publish everything at once
+      AssociativeArray<String, Integer> ledger = this.balances;
+      Iterator<String> users = scratch.keyIterator();
+      try {
+        while (users.hasNext()) {
+          String user = users.next();
+          ledger.set(user, scratch.get(user));
+        } // while
+      } catch (KeyNotFoundException | NullKeyException e) {
+        // Cannot happen: every key in scratch has a value and none are null
+      } // try/catch
+      this.journal.addAll(undos);
+      for (Block blk : blks) {
+        this.noteJoined(blk.getTransaction(), blk.getNum());
+        this.history.add(blk);
+        this.times.add(blk);
+        this.stats.apply(blk.getTransaction(), 1);
+        this.publish(blk, false);
+      } // for
+      this.trimJournal();
+      this.prevHash = pHash;
+      this.autoPrune();
+    } // synchronized
+    this.settleLog();
+  } // appendAll(List<Block>)
 
   /**
-   * Attempt to remove the last block from the chain.
+   * Remove blocks from the end of the chain, restoring the balances from
+   * the journal. We read every block we remove before logging the
+   * removal, so that a block we cannot read leaves both the chain and
+   * the log as they were.
    *
-   * @return false if the chain has only one block (in which case it's
-   *   not removed) or true otherwise (in which case the last block
-   *   is removed).
+   * @param count
+   *   The number of blocks to remove.
+   *
+   * @throws IllegalStateException
+   *   If one of the blocks has been pruned.
    */
-  public boolean removeLast() {
-    if (this.size <= 1) {
-      return false;
+  private void removeBlocks(int count) throws IllegalStateException {
+    if (count == 0) {
+      return;
     } // if
-    // Retrieve the transaction to be removed
-    Transaction lastTransaction = this.last.block.getTransaction();
-
-    // Rollback balances to reverse the effects of the last transaction
-    try {
-      updateBalance(lastTransaction.getSource(), lastTransaction.getAmount(), this.balances);
-      updateBalance(lastTransaction.getTarget(), -lastTransaction.getAmount(), this.balances);
-    } catch (Exception ex) {
-      return false;
-    } // try/catch
+    int newSize = this.history.size() - count;
+    if (newSize < this.history.first()) {
+      throw new IllegalStateException("block " + (this.history.first() - 1)
+          + " has been pruned");
+    } // if
+    Block[] removed = new Block[count];
+    for (int i = 0; i < count; i++) {
+      removed[i] = this.history.get(newSize + i);
+    } // for
+    if (this.log != null) {
+      try {
+        this.logEnd = this.log.logTruncate(newSize);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } // try/catch
+    } // if
+    AssociativeArray<String, Integer> ledger = this.balances;
+    for (int height = this.history.size() - 1; height >= newSize; height--) {
+      Block lastBlock = removed[height - newSize];
+      LedgerUndo undo = this.journal.remove(height);
+      if (undo == null) {
+        // Restored from a snapshot or sealed, so run the transaction
+        // backwards and then drop the users it added
+        Transaction tran = lastBlock.getTransaction();
+        applyTransaction(new Transaction(tran.getTarget(), tran.getSource(), tran.getAmount()),
+            ledger, null);
+      } else {
+        undo.undo(ledger);
+      } // if/else
+      this.dropJoined(lastBlock.getTransaction(), height);
+      this.stats.apply(lastBlock.getTransaction(), -1);
+      this.history.truncate(height);
+      this.prevHash = lastBlock.getPrevHash();
+      this.publish(lastBlock, true);
+    } // for
+    this.times.truncate(this.history, this.history.size());
+  } // removeBlocks(int)
 
-    // Remove the last block
-    this.prevHash = this.last.block.getPrevHash();
-    this.last = this.last.prev;
-    this.last.next.remove();
-    this.size--;
+  /**
+   * Attempt to remove the last block from the chain.
+   *
+   * @return false if the chain has only one block or its last block has
+   *   been pruned (in which case it's not removed) or true otherwise (in
+   *   which case the last block is removed).
+   */
+  public boolean removeLast() {
+    synchronized (this) {
+      if (this.history.size() <= Math.max(1, this.history.first())) {
+        return false;
+      } // if
+      this.removeBlocks(1);
+    } // synchronized
+    this.settleLog();
     return true;
   } // removeLast()
 
   /**
-   * Get the hash of the last block in the chain.
+   * Remove every block after a particular height, restoring the balances
+   * to what they were at that height. Takes time proportional to the
+   * number of blocks removed.
    *
-   * @return the hash of the last sblock in the chain.
+   * @param height
+   *   The number of the block that should end the chain.
+   *
+   * @return the number of blocks removed (0 if the chain already ends at
+   *   or before that height).
+   *
+   * @throws IllegalArgumentException
+   *   If the height is negative or the block after it has been pruned.
    */
-  public Hash getHash() {
-    return this.last.block.getHash();
-  } // getHash()
+  public int rollbackTo(int height) throws IllegalArgumentException {
+    int count;
+    synchronized (this) {
+      if (height < 0) {
+        throw new IllegalArgumentException("negative height " + height);
+      } else if (height < this.history.first() - 1) {
+        throw new IllegalArgumentException("block " + (height + 1) + " has been pruned");
+      } // if/else
+      count = Math.max(0, this.history.size() - 1 - height);
+      this.removeBlocks(count);
+    } // synchronized
+    this.settleLog();
+    return count;
+  } // rollbackTo(int)
 
   /**
-   * Determine if the blockchain is correct in that (a) the balances are
-   * legal/correct at every step, (b) that every block has a correct
-   * previous hash field, (c) that every block has a hash that is correct
-   * for its contents, and (d) that every block has a valid hash.
+   * Keep only the headers of the blocks before a height, along with the
+   * balances after those blocks. Pruned blocks can no longer be read or
+   * removed, but the chain can still check them against each other and
+   * compute balances.
    *
-   * @return true if the blockchain is correct and false otherwise.
+   * @param height
+   *   The height of the first block to keep whole.
+   *
+   * @throws IllegalArgumentException
+   *   If the chain has no block at that height.
+   * @throws IllegalStateException
+   *   If the chain seals its blocks into a cold store.
    */
-  public boolean isCorrect() {
-    // Temporary array to track balances during validation.
-    AssociativeArray<String, Integer> tempBalances = new AssociativeArray<>();
-    // Return true since the first block is always valid
-    if (this.first.next == null) {
-      return true;
+  public synchronized void prune(int height)
+      throws IllegalArgumentException, IllegalStateException {
+    if (this.history.cold != null) {
+      throw new IllegalStateException("cannot prune a chain that seals its blocks");
+    } else if (height < 0 || height >= this.history.size()) {
+      throw new IllegalArgumentException("no block " + height);
+    } // if/else
+    int from = this.history.first();
+    if (height <= from) {
+      return;
     } // if
-    Node2 currentNode = this.first.next;
+    AssociativeArray<String, Integer> ledger = this.history.baseline.clone();
+    for (int i = Math.max(1, from); i < height; i++) {
+      applyTransaction(this.history.get(i).getTransaction(), ledger, null);
+    } // for
+    this.history.prune(height, ledger);
+    for (int i = from; i < height; i++) {
+      this.journal.set(i, null);
+    } // for
+  } // prune(int)
 
-    // Initial previous hash.
-    Hash pHash = currentNode.block.prevHash;
-    Transaction currentTran;
+  /**
+   * Prune automatically as the chain grows, keeping some number of the
+   * most recent blocks whole (see prune).
+   *
+   * @param depth
+   *   The number of recent blocks to keep whole (or 0, to stop pruning).
+   *
+   * @throws IllegalStateException
+   *   If the chain seals its blocks into a cold store.
+   */
+  public synchronized void setPruneDepth(int depth) throws IllegalStateException {
+    if (depth > 0 && this.history.cold != null) {
+      throw new IllegalStateException("cannot prune a chain that seals its blocks");
+    } // if
+    this.pruneDepth = Math.max(0, depth);
+    this.autoPrune();
+  } // setPruneDepth(int)
 
-    // Iterate over the chain to validate each block.
-    for (int i = 1; i < this.size; i++) {
-      Block currentBlock = currentNode.block;
-      // every block has a correct previous hash field
-      if (!currentBlock.getPrevHash().equals(pHash)) {
-        return false;
-      } // if
+  /**
+   * Choose whether or not to accept blocks whose transactions are not
+   * legal (see isLegal). Chains start out rejecting them.
+   *
+   * @param accept
+   *   True to accept such blocks, leaving them for isCorrect to find,
+   *   and false to reject them.
+   */
+  public synchronized void setPermissive(boolean accept) {
+    this.permissive = accept;
+  } // setPermissive(boolean)
 
-      // that every block has a hash that is correct for its contents
-      currentTran = currentBlock.getTransaction();
-      Block validBlock = new Block(i, currentTran, pHash, this.checker);
-      if (!validBlock.getHash().equals(currentBlock.getHash())) {
-        return false;
-      } // if
+  /**
+   * Get the block at a particular height.
+   *
+   * @param height
+   *   The number of the block.
+   *
+   * @return the block.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the chain has no block at that height.
+   * @throws IllegalStateException
+   *   If the block has been pruned.
+   */
+  public synchronized Block getBlock(int height) {
+    return this.history.get(height);
+  } // getBlock(int)
 
-      // that every block has a valid hash
-      if (!this.checker.isValid(currentBlock.getHash())) {
-        return false;
-      } // if
+  /**
+   * Get the header of the block at a particular height, which is
+   * available even if the block has been pruned.
+   *
+   * @param height
+   *   The number of the block.
+   *
+   * @return the header.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the chain has no block at that height.
+   */
+  public synchronized BlockHeader getHeader(int height) {
+    return this.history.header(height);
+  } // getHeader(int)
 
-      // the balances are legal/correct at every step
-      String source = currentTran.getSource();
-      String target = currentTran.getTarget();
-      int amount = currentTran.getAmount();
+  /**
+   * Get the hash of the block at a particular height, whether or not it
+   * has been pruned.
+   *
+   * @param height
+   *   The number of the block.
+   *
+   * @return the hash.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the chain has no block at that height.
+   */
+  synchronized Hash hashAt(int height) {
+    if (height < this.history.first()) {
+      return this.history.header(height).getHash();
+    } // if
+    return this.history.get(height).getHash();
+  } // hashAt(int)
 
-      try {
-        // Update source balance
-        if (source != null && !source.equals("")) {
-          updateBalance(source, -amount, tempBalances);
-          int curBalance = tempBalances.get(source);
-          if (amount < 0 || (!source.equals("") && curBalance < 0)) {
-            return false;
-          } // if
-        } // if
+  /**
+   * Get the height of the first block that has not been pruned.
+   *
+   * @return the height.
+   */
+  synchronized int firstWhole() {
+    return this.history.first();
+  } // firstWhole()
 
-        // Update target balance
-        if (target != null && !target.equals("")) {
-          updateBalance(target, amount, tempBalances);
-          int curBalance = tempBalances.get(target);
-          if (amount < 0 || (!target.equals("") && curBalance < 0)) {
-            return false;
-          } // if
-        } // if
-      } catch (Exception e) {
-        return false;
-      } // try/catch
+  /**
+   * Get the hash of the last block in the chain.
+   *
+   * @return the hash of the last sblock in the chain.
+   */
+  public synchronized Hash getHash() {
+    return this.history.lastHash();
+  } // getHash()
 
-      // Travel to the next node
-      pHash = currentBlock.getHash();
-      if (currentNode.next != null) {
-        currentNode = currentNode.next;
+  /**
+   * Get an immutable view of the chain and its balances as they stand
+   * right now. The snapshot shares storage with the chain, so it is
+   * cheap to create, and later changes to the chain do not affect it.
+   *
+   * @return the snapshot.
+   */
+  public synchronized ChainSnapshot snapshot() {
+    return new ChainSnapshot(this.history.freeze(), this.balances.clone(), this.checker);
+  } // snapshot()
+
+  /**
+   * Record every later change to the chain in a log. If the log is empty,
+   * first records the blocks already in the chain. Otherwise, call only
+   * after replaying the log into the chain (see BlockLog.replay), so that
+   * the two agree.
+   *
+   * @param changes
+   *   The log (or null, to stop logging).
+   *
+   * @throws UncheckedIOException
+   *   If the existing blocks cannot be logged.
+   */
+  public synchronized void setLog(BlockLog changes) throws UncheckedIOException {
+    try {
+      if (changes != null && changes.isEmpty()) {
+        ArrayList<Block> existing = new ArrayList<Block>();
+        this.history.iterator(0, this.history.size()).forEachRemaining(existing::add);
+        changes.appendAll(existing);
       } // if
-    } // for
-    return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+    this.log = changes;
+  } // setLog(BlockLog)
+
+  /**
+   * Get a publisher of changes to the chain. Each subscriber receives an
+   * event for every block appended and every block removed after it
+   * subscribes, in order, as it requests them. A subscriber that falls
+   * more than EVENT_BUFFER events behind misses events rather than
+   * slowing down the chain; it can detect that from the gap in the
+   * sequence numbers of the events (see ChainEvent.getSequence) and
+   * resynchronize from a snapshot.
+   *
+   * @return the publisher.
+   */
+  public synchronized Flow.Publisher<ChainEvent> events() {
+    if (this.publisher == null) {
+      this.publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), EVENT_BUFFER);
+    } // if
+    return this.publisher;
+  } // events()
+
+  /**
+   * Determine if the blockchain is correct in that (a) the balances are
+   * legal/correct at every step, (b) that every block has a correct
+   * previous hash field, (c) that every block has a hash that is correct
+   * for its contents, (d) that every block has a valid hash, (e) that
+   * no block is earlier than the one before it, and (f) that the
+   * balances the chain keeps match those its blocks call for.
+   *
+   * @return true if the blockchain is correct and false otherwise.
+   */
+  public boolean isCorrect() {
+    ChainSnapshot snap = this.snapshot();
+    return isCorrect(snap.history, this.checker)
+        && new LedgerRebuilder().matches(snap.history, snap.balances);
   } // isCorrect()
 
+  /**
+   * Find the first block whose transaction is not legal given the
+   * balances before it (see isLegal), checking accounts in parallel.
+   * Only blocks after any pruned blocks are checked.
+   *
+   * @return the height of that block (or -1, if every block is legal).
+   */
+  public int firstIllegalHeight() {
+    return new BalanceVerifier().firstIllegal(this.frozenHistory());
+  } // firstIllegalHeight()
+
   /**
    * Determine if the blockchain is correct in that (a) the balances are
    * legal/correct at every step, (b) that every block has a correct
    * previous hash field, (c) that every block has a hash that is correct
-   * for its contents, and (d) that every block has a valid hash.
+   * for its contents, (d) that every block has a valid hash, and (e)
+   * that no block is earlier than the one before it.
    *
    * @throws Exception
    *   If things are wrong at any block.
@@ -307,8 +1091,7 @@ public class BlockChain implements Iterable<Transaction> {
    * @return an iterator of all the people in the system.
    */
   public Iterator<String> users() {
-    Iterator<String> userIterator = balances.keyIterator();
-    return userIterator;
+    return this.snapshot().users();
   } // users()
 
   /**
@@ -320,84 +1103,229 @@ public class BlockChain implements Iterable<Transaction> {
    * @return that user's balance (or 0, if the user is not in the system).
    */
   public int balance(String user) {
-    int balance = 0;
-    Node2 currentNode = this.first.next;
-    Transaction currentTran;
-    AssociativeArray<String, Integer> tempBalances = new AssociativeArray<>();
-    // Iterate over the chain to validate each block.
-    for (int i = 1; i < this.size; i++) {
-      Block currentBlock = currentNode.block;
-      currentTran = currentBlock.getTransaction();
-      // the balances are legal/correct at every step
-      String source = currentTran.getSource();
-      String target = currentTran.getTarget();
-      int amount = currentTran.getAmount();
-
-      try {
-        // Update source balance
-        if (source != null && !source.equals("")) {
-          updateBalance(source, -amount, tempBalances);
-        } // if
-
-        // Update target balance
-        if (target != null && !target.equals("")) {
-          updateBalance(target, amount, tempBalances);
-        } // if
-      } catch (Exception e) {
-        return balance;
-      } // try/catch
-      currentNode = currentNode.next;
-    } // for
-
+    // Sum the blocks again, rather than trusting the live balances
+    AssociativeArray<String, Integer> ledger = new LedgerRebuilder().rebuild(this.frozenHistory());
     try {
-      return tempBalances.get(user);
+      return ledger.get(user);
     } catch (KeyNotFoundException e) {
-      return balance;
+      return 0;
     } // try/catch
   } // balance()
 
   /**
-   * Get an interator for all the blocks in the chain.
+   * Get the total of all deposits ever made, including those in pruned
+   * blocks.
+   *
+   * @return the supply.
+   */
+  public synchronized long supply() {
+    return this.stats.supply();
+  } // supply()
+
+  /**
+   * Get the total a user has ever sent, including in pruned blocks.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the total (or 0, if the user has sent nothing).
+   */
+  public synchronized long sent(String user) {
+    return this.stats.sent(user);
+  } // sent(String)
+
+  /**
+   * Get the total a user has ever received, including in pruned blocks.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the total (or 0, if the user has received nothing).
+   */
+  public synchronized long received(String user) {
+    return this.stats.received(user);
+  } // received(String)
+
+  /**
+   * Get the users with the largest balances, without summing the
+   * blocks again. Users whose balance is 0 are left out. Takes time
+   * proportional to the number of users returned plus the log of the
+   * number of users.
+   *
+   * @param count
+   *   The most users to return.
+   *
+   * @return the users and their balances, largest first (and by name
+   *   among equal balances).
+   */
+  public synchronized List<Map.Entry<String, Integer>> richest(int count) {
+    return this.stats.richest(count);
+  } // richest(int)
+
+  /**
+   * Get an interator for all the blocks in the chain that have not been
+   * pruned. The iterator is unaffected by later changes to the chain.
    *
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Block> blocks() {
-    return new Iterator<Block>() {
-      private Node2 currentNode = first;
-      public boolean hasNext() {
-        return currentNode != null && currentNode.block.getNum() < size;
-      } // hasNext()
-
-      public Block next() {
-        Block currentBlock = currentNode.block;
-        currentNode = currentNode.next;
-        return currentBlock;
-      } // next()
-    };
+    BlockHistory blocks = this.frozenHistory();
+    return blocks.iterator(blocks.first(), blocks.size());
   } // blocks()
 
   /**
-   * Get an interator for all the transactions in the chain.
+   * Get a frozen history of the chain, after making sure that it holds
+   * every block in a range.
+   *
+   * @param fromHeight
+   *   The height of the first block.
+   * @param toHeight
+   *   The height just past the last block.
+   *
+   * @return the history.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the range is backwards or goes past the end of the chain.
+   * @throws IllegalStateException
+   *   If the range includes pruned blocks.
+   */
+  private BlockHistory rangeHistory(int fromHeight, int toHeight) {
+    BlockHistory blocks = this.frozenHistory();
+    if (fromHeight < 0 || fromHeight > toHeight || toHeight > blocks.size()) {
+      throw new IndexOutOfBoundsException("no blocks from " + fromHeight + " to " + toHeight);
+    } // if
+    if (fromHeight < blocks.first() && fromHeight < toHeight) {
+      throw new IllegalStateException("block " + fromHeight + " has been pruned");
+    } // if
+    return blocks;
+  } // rangeHistory(int, int)
+
+  /**
+   * Get an iterator for the blocks from one height (inclusive) to another
+   * (exclusive), starting directly at the first. The iterator is
+   * unaffected by later changes to the chain.
+   *
+   * @param fromHeight
+   *   The height of the first block.
+   * @param toHeight
+   *   The height just past the last block.
+   *
+   * @return an iterator for those blocks.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the range is backwards or goes past the end of the chain.
+   * @throws IllegalStateException
+   *   If the range includes pruned blocks.
+   */
+  public Iterator<Block> blocks(int fromHeight, int toHeight) {
+    return this.rangeHistory(fromHeight, toHeight).iterator(fromHeight, toHeight);
+  } // blocks(int, int)
+
+  /**
+   * Get an iterator for the transactions in the blocks from one height
+   * (inclusive) to another (exclusive), starting directly at the first.
+   * The iterator is unaffected by later changes to the chain.
+   *
+   * @param fromHeight
+   *   The height of the first block.
+   * @param toHeight
+   *   The height just past the last block.
+   *
+   * @return an iterator for those transactions.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the range is backwards or goes past the end of the chain.
+   * @throws IllegalStateException
+   *   If the range includes pruned blocks.
+   */
+  public Iterator<Transaction> transactions(int fromHeight, int toHeight) {
+    return this.rangeHistory(fromHeight, toHeight).transactions(fromHeight, toHeight);
+  } // transactions(int, int)
+
+  /**
+   * Get the blocks mined from one time (inclusive) to another
+   * (exclusive) that have not been pruned. Blocks without a time are
+   * left out. Only the blocks near the range are read.
+   *
+   * @param fromMillis
+   *   The earliest time, in milliseconds since the epoch.
+   * @param toMillis
+   *   The time just past the latest time.
+   *
+   * @return the blocks, in order.
+   */
+  public List<Block> blocksBetween(long fromMillis, long toMillis) {
+    BlockHistory blocks;
+    int start;
+    synchronized (this) {
+      blocks = this.frozenHistory();
+      start = Math.max(Math.max(1, blocks.first()), this.times.start(fromMillis));
+    } // synchronized
+    ArrayList<Block> found = new ArrayList<Block>();
+    for (int i = start; i < blocks.size(); i++) {
+      Block blk = blocks.get(i);
+      long time = blk.getTimestamp();
+      if (time >= toMillis) {
+        break;
+      } else if (time != 0 && time >= fromMillis) {
+        found.add(blk);
+      } // if/else
+    } // for
+    return found;
+  } // blocksBetween(long, long)
+
+  /**
+   * Get the transactions in the blocks mined from one time (inclusive)
+   * to another (exclusive) that have not been pruned (see
+   * blocksBetween).
+   *
+   * @param fromMillis
+   *   The earliest time, in milliseconds since the epoch.
+   * @param toMillis
+   *   The time just past the latest time.
+   *
+   * @return the transactions, in order.
+   */
+  public List<Transaction> transactionsBetween(long fromMillis, long toMillis) {
+    ArrayList<Transaction> found = new ArrayList<Transaction>();
+    for (Block blk : this.blocksBetween(fromMillis, toMillis)) {
+      found.add(blk.getTransaction());
+    } // for
+    return found;
+  } // transactionsBetween(long, long)
+
+  /**
+   * Get an interator for all the transactions in the chain that have not
+   * been pruned. The iterator is unaffected by later changes to the
+   * chain.
    *
    * @return an iterator for all the transactions in the chain.
    */
   public Iterator<Transaction> iterator() {
-    return new Iterator<Transaction>() {
-      private Node2 currentNode = first;
+    BlockHistory blocks = this.frozenHistory();
+    return blocks.transactions(blocks.first(), blocks.size());
+  } // iterator()
 
-      public boolean hasNext() {
-        return currentNode != null && currentNode.block.getNum() < size;
-      } // hasNext()
+  /**
+   * Get a stream of all the blocks in the chain that have not been
+   * pruned. The stream is unaffected by later changes to the chain, and
+   * splits evenly by height when run in parallel.
+   *
+   * @return a stream of the blocks.
+   */
+  public Stream<Block> blockStream() {
+    return this.frozenHistory().stream();
+  } // blockStream()
 
-      public Transaction next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        Transaction currentTran = currentNode.block.getTransaction();
-        currentNode = currentNode.next;
-        return currentTran;
-      } // next()
-    };
-  } // iterator()
+  /**
+   * Get a stream of all the transactions in the chain that have not been
+   * pruned. The stream is unaffected by later changes to the chain, and
+   * splits evenly by height when run in parallel.
+   *
+   * @return a stream of the transactions.
+   */
+  public Stream<Transaction> transactionStream() {
+    return this.blockStream().map(Block::getTransaction);
+  } // transactionStream()
 
 } // class BlockChain
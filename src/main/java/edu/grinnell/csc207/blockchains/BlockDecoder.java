@@ -0,0 +1,254 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes blocks written by BlockEncoder. A decoder reuses its buffers
+ * from block to block. Decoded blocks keep their stored hash; callers
+ * that do not trust the source should check it.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockDecoder {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The largest encoding we accept from a stream.
+   */
+  static final int MAX_BLOCK_BYTES = 1 << 20;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * Scratch space for reading from the stream.
+   */
+  byte[] scratch;
+
+  /**
+   * Where read gets blocks (or null, if we only decode).
+   */
+  InputStream in;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a decoder for use with decode.
+   */
+  public BlockDecoder() {
+    this(null);
+  } // BlockDecoder()
+
+  /**
+   * Create a decoder that reads a stream of blocks written by
+   * BlockEncoder.write.
+   *
+   * @param input
+   *   Where to read the blocks.
+   */
+  public BlockDecoder(InputStream input) {
+    this.scratch = new byte[BlockEncoder.INITIAL_CAPACITY];
+    this.in = input;
+  } // BlockDecoder(InputStream)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get an unsigned varint.
+   *
+   * @param src
+   *   Where to get it.
+   *
+   * @return the value.
+   *
+   * @throws IOException
+   *   If the varint is too long.
+   */
+  static long getVarint(ByteBuffer src) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = src.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      } // if
+    } // for
+    throw new IOException("malformed varint");
+  } // getVarint(ByteBuffer)
+
+  /**
+   * Get a zigzag varint.
+   *
+   * @param src
+   *   Where to get it.
+   *
+   * @return the value.
+   *
+   * @throws IOException
+   *   If the varint is too long.
+   */
+  static long getSigned(ByteBuffer src) throws IOException {
+    long zigzag = getVarint(src);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  } // getSigned(ByteBuffer)
+
+  /**
+   * Get a length that must fit in what remains of a buffer.
+   *
+   * @param src
+   *   Where to get it.
+   *
+   * @return the length.
+   *
+   * @throws IOException
+   *   If the length is impossible.
+   */
+  static int getLength(ByteBuffer src) throws IOException {
+    long length = getVarint(src);
+    if (length < 0 || length > src.remaining()) {
+      throw new IOException("malformed length");
+    } // if
+    return (int) length;
+  } // getLength(ByteBuffer)
+
+  /**
+   * Get a string preceded by its length.
+   *
+   * @param src
+   *   Where to get it.
+   *
+   * @return the string.
+   *
+   * @throws IOException
+   *   If the length is impossible.
+   */
+  private String getString(ByteBuffer src) throws IOException {
+    int length = getLength(src);
+    if (src.hasArray()) {
+      String str = new String(src.array(), src.arrayOffset() + src.position(), length,
+          StandardCharsets.UTF_8);
+      src.position(src.position() + length);
+      return str;
+    } // if
+    if (this.scratch.length < length) {
+      this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+    } // if
+    src.get(this.scratch, 0, length);
+    return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+  } // getString(ByteBuffer)
+
+  /**
+   * Get a hash preceded by its length.
+   *
+   * @param src
+   *   Where to get it.
+   *
+   * @return the hash.
+   *
+   * @throws IOException
+   *   If the length is impossible.
+   */
+  private static Hash getHash(ByteBuffer src) throws IOException {
+    byte[] bytes = new byte[getLength(src)];
+    src.get(bytes);
+    return new Hash(bytes);
+  } // getHash(ByteBuffer)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Decode a block.
+   *
+   * @param src
+   *   A buffer whose next bytes are an encoded block. We advance its
+   *   position past the block.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the bytes are not an encoded block.
+   */
+  public Block decode(ByteBuffer src) throws IOException {
+    try {
+      byte version = src.get();
+      if (version != 1 && version != BlockEncoder.VERSION) {
+        throw new IOException("unknown block format " + version);
+      } // if
+      long num = getVarint(src);
+      if (num < 0 || num > Integer.MAX_VALUE) {
+        throw new IOException("malformed block number");
+      } // if
+      String source = this.getString(src);
+      String target = this.getString(src);
+      long amount = getSigned(src);
+      if (amount != (int) amount) {
+        throw new IOException("malformed amount");
+      } // if
+      long nonce = getSigned(src);
+      long timestamp = (version == 1) ? 0 : getSigned(src);
+      Hash prevHash = getHash(src);
+      Hash hash = getHash(src);
+      return new Block((int) num, new Transaction(source, target, (int) amount), prevHash,
+          nonce, timestamp, hash);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("truncated block");
+    } // try/catch
+  } // decode(ByteBuffer)
+
+  /**
+   * Read the next block from the stream.
+   *
+   * @return the block, or null at the end of the stream.
+   *
+   * @throws IOException
+   *   If the stream holds something other than a block or ends in the
+   *   middle of one.
+   */
+  public Block read() throws IOException {
+    long length = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = this.in.read();
+      if (b < 0) {
+        if (shift == 0) {
+          return null;
+        } // if
+        throw new EOFException();
+      } // if
+      length |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        break;
+      } else if (shift > 28) {
+        throw new IOException("malformed length");
+      } // if/else
+    } // for
+    if (length > MAX_BLOCK_BYTES) {
+      throw new IOException("block too long");
+    } // if
+    if (this.scratch.length < length) {
+      this.scratch = new byte[(int) Math.max(length, this.scratch.length * 2)];
+    } // if
+    int done = 0;
+    while (done < length) {
+      int count = this.in.read(this.scratch, done, (int) length - done);
+      if (count < 0) {
+        throw new EOFException();
+      } // if
+      done += count;
+    } // while
+    return this.decode(ByteBuffer.wrap(this.scratch, 0, (int) length));
+  } // read()
+} // class BlockDecoder
@@ -0,0 +1,203 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes blocks in our compact binary format, for storage and for
+ * sending to peers. An encoding is
+ *
+ * <pre>
+ *   version    1 byte (currently 2)
+ *   number     varint
+ *   source     varint length, then UTF-8 bytes
+ *   target     varint length, then UTF-8 bytes
+ *   amount     zigzag varint
+ *   nonce      zigzag varint
+ *   timestamp  zigzag varint (not in version 1, whose blocks have none)
+ *   prevHash   varint length, then bytes
+ *   hash       varint length, then bytes
+ * </pre>
+ *
+ * where a varint stores seven bits per byte, low bits first, with the
+ * high bit set on every byte but the last. An encoder reuses one buffer
+ * for every block, so each encoding is only good until the next one.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockEncoder {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The version of the format we write.
+   */
+  static final byte VERSION = 2;
+
+  /**
+   * The initial size of the buffer.
+   */
+  static final int INITIAL_CAPACITY = 128;
+
+  /**
+   * The most bytes a varint can take.
+   */
+  static final int MAX_VARINT_BYTES = 10;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The buffer we encode into.
+   */
+  ByteBuffer buffer;
+
+  /**
+   * Where write sends blocks (or null, if we only encode).
+   */
+  OutputStream out;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an encoder for use with encode.
+   */
+  public BlockEncoder() {
+    this(null);
+  } // BlockEncoder()
+
+  /**
+   * Create an encoder that writes a stream of blocks.
+   *
+   * @param output
+   *   Where to write the blocks.
+   */
+  public BlockEncoder(OutputStream output) {
+    this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    this.out = output;
+  } // BlockEncoder(OutputStream)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make sure the buffer has room for more bytes.
+   *
+   * @param count
+   *   The number of bytes we are about to put.
+   */
+  private void reserve(int count) {
+    if (this.buffer.remaining() < count) {
+      int capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + count);
+      ByteBuffer bigger = ByteBuffer.allocate(capacity);
+      this.buffer.flip();
+      bigger.put(this.buffer);
+      this.buffer = bigger;
+    } // if
+  } // reserve(int)
+
+  /**
+   * Put an unsigned varint.
+   *
+   * @param value
+   *   The value, treated as unsigned.
+   */
+  private void putVarint(long value) {
+    this.reserve(MAX_VARINT_BYTES);
+    while ((value & ~0x7FL) != 0) {
+      this.buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    } // while
+    this.buffer.put((byte) value);
+  } // putVarint(long)
+
+  /**
+   * Put a signed varint, in zigzag form so that small negative numbers
+   * stay small.
+   *
+   * @param value
+   *   The value.
+   */
+  private void putSigned(long value) {
+    this.putVarint((value << 1) ^ (value >> 63));
+  } // putSigned(long)
+
+  /**
+   * Put bytes preceded by their length.
+   *
+   * @param bytes
+   *   The bytes.
+   */
+  private void putBytes(byte[] bytes) {
+    this.putVarint(bytes.length);
+    this.reserve(bytes.length);
+    this.buffer.put(bytes);
+  } // putBytes(byte[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Encode a block.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return a buffer holding the encoding, between its position and its
+   *   limit. The buffer is reused by the next call.
+   */
+  public ByteBuffer encode(Block blk) {
+    Transaction tran = blk.getTransaction();
+    this.buffer.clear();
+    this.reserve(1);
+    this.buffer.put(VERSION);
+    this.putVarint(blk.getNum());
+    this.putBytes(tran.getSource().getBytes(StandardCharsets.UTF_8));
+    this.putBytes(tran.getTarget().getBytes(StandardCharsets.UTF_8));
+    this.putSigned(tran.getAmount());
+    this.putSigned(blk.getNonce());
+    this.putSigned(blk.getTimestamp());
+    this.putBytes(blk.getPrevHash().dataArr);
+    this.putBytes(blk.getHash().dataArr);
+    return this.buffer.flip();
+  } // encode(Block)
+
+  /**
+   * Write a block to the stream, preceded by the length of its encoding.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @throws IOException
+   *   If the block cannot be written.
+   */
+  public void write(Block blk) throws IOException {
+    ByteBuffer encoded = this.encode(blk);
+    int length = encoded.remaining();
+    // Write the length by hand, since the buffer holds the encoding
+    while ((length & ~0x7F) != 0) {
+      this.out.write((length & 0x7F) | 0x80);
+      length >>>= 7;
+    } // while
+    this.out.write(length);
+    this.out.write(encoded.array(), encoded.arrayOffset(), encoded.remaining());
+  } // write(Block)
+
+  /**
+   * Flush the stream.
+   *
+   * @throws IOException
+   *   If the stream cannot be flushed.
+   */
+  public void flush() throws IOException {
+    this.out.flush();
+  } // flush()
+} // class BlockEncoder
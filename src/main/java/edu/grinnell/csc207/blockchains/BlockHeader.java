@@ -0,0 +1,205 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Everything about a block except its transaction, which a pruned chain
+ * no longer keeps. In place of the transaction, a header keeps a digest
+ * of it, so that a transaction obtained elsewhere can still be checked
+ * against the block.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockHeader {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of the block.
+   */
+  int blockNum;
+
+  /**
+   * The hash of the block before this block.
+   */
+  Hash prevHash;
+
+  /**
+   * The hash of this block.
+   */
+  Hash hash;
+
+  /**
+   * The nonce of this block.
+   */
+  long nonce;
+
+  /**
+   * The time of this block (or 0, for no time).
+   */
+  long timestamp;
+
+  /**
+   * The digest of the transaction of this block.
+   */
+  Hash digest;
+
+  /**
+   * Whether the chain has dropped the transaction of this block.
+   */
+  boolean pruned;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create the header of a block whose transaction is still available.
+   *
+   * @param blk
+   *   The block.
+   */
+  public BlockHeader(Block blk) {
+    this(blk, false);
+  } // BlockHeader(Block)
+
+  /**
+   * Create the header of a block.
+   *
+   * @param blk
+   *   The block.
+   * @param isPruned
+   *   Whether the chain is about to drop the transaction of the block.
+   */
+  BlockHeader(Block blk, boolean isPruned) {
+    this.blockNum = blk.getNum();
+    this.prevHash = blk.getPrevHash();
+    this.hash = blk.getHash();
+    this.nonce = blk.getNonce();
+    this.timestamp = blk.getTimestamp();
+    this.digest = digest(blk.getTransaction());
+    this.pruned = isPruned;
+  } // BlockHeader(Block, boolean)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Compute the digest of a transaction.
+   *
+   * @param tran
+   *   The transaction.
+   *
+   * @return the SHA-256 digest of its source, target, and amount.
+   */
+  static Hash digest(Transaction tran) {
+    byte[] source = tran.getSource().getBytes(StandardCharsets.UTF_8);
+    byte[] target = tran.getTarget().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer bytes = ByteBuffer.allocate(3 * Integer.BYTES + source.length + target.length);
+    bytes.putInt(source.length).put(source).putInt(target.length).put(target);
+    bytes.putInt(tran.getAmount());
+    try {
+      return new Hash(MessageDigest.getInstance("sha-256").digest(bytes.array()));
+    } catch (NoSuchAlgorithmException e) {
+      // Cannot happen: every JVM supports SHA-256
+      throw new IllegalStateException(e);
+    } // try/catch
+  } // digest(Transaction)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of the block.
+   *
+   * @return the number of the block.
+   */
+  public int getNum() {
+    return this.blockNum;
+  } // getNum()
+
+  /**
+   * Get the nonce of the block.
+   *
+   * @return the nonce.
+   */
+  public long getNonce() {
+    return this.nonce;
+  } // getNonce()
+
+  /**
+   * Get the time of the block.
+   *
+   * @return the time, in milliseconds since the epoch (or 0, if the
+   *   block has no time).
+   */
+  public long getTimestamp() {
+    return this.timestamp;
+  } // getTimestamp()
+
+  /**
+   * Get the hash of the previous block.
+   *
+   * @return the hash of the previous block.
+   */
+  public Hash getPrevHash() {
+    return this.prevHash;
+  } // getPrevHash()
+
+  /**
+   * Get the hash of the block.
+   *
+   * @return the hash of the block.
+   */
+  public Hash getHash() {
+    return this.hash;
+  } // getHash()
+
+  /**
+   * Get the digest of the transaction of the block.
+   *
+   * @return the digest.
+   */
+  public Hash getDigest() {
+    return this.digest;
+  } // getDigest()
+
+  /**
+   * Determine if the chain has dropped the transaction of the block.
+   *
+   * @return true if the block was pruned and false otherwise.
+   */
+  public boolean isPruned() {
+    return this.pruned;
+  } // isPruned()
+
+  /**
+   * Determine if a transaction is the one in the block.
+   *
+   * @param tran
+   *   The transaction.
+   *
+   * @return true if the transaction matches the digest and false
+   *   otherwise.
+   */
+  public boolean matches(Transaction tran) {
+    return this.digest.equals(digest(tran));
+  } // matches(Transaction)
+
+  /**
+   * Get a string representation of the header.
+   *
+   * @return a string representation of the header.
+   */
+  public String toString() {
+    return String.format("Block %d (%sDigest: %s, Nonce: %d%s, prevHash: %s, hash: %s)",
+        this.blockNum, this.pruned ? "pruned, " : "", this.digest, this.nonce,
+        Block.describeTime(this.timestamp), this.prevHash, this.hash);
+  } // toString()
+} // class BlockHeader
@@ -0,0 +1,558 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+
+/**
+ * The blocks of a chain, indexed by height. Histories can be frozen into
+ * read-only views that share the underlying array with the live history;
+ * the live history copies the array only when it would otherwise
+ * overwrite a slot that some frozen view can still see.
+ *
+ * A history may also move its older blocks out of memory into a cold
+ * store. It keeps at least `hotBlocks` of the most recent blocks in
+ * memory, and once it has `hotBlocks` more than that, seals the oldest
+ * `hotBlocks` into a segment. Sealed segments never change, so frozen
+ * views can share them, too. When a rollback drops a segment that no
+ * frozen view has seen, we release it from the store at once. A segment
+ * that some view may still see is released once every history that
+ * shared it is gone.
+ *
+ * If the cold store fails to seal a segment, the history stops sealing
+ * and keeps every later block in memory; the chain then refuses new
+ * blocks (see checkCold) rather than grow without bound.
+ *
+ * Alternatively, a history may be pruned: it then keeps only the headers
+ * of the blocks before some height, along with the balances after those
+ * blocks. A history cannot both seal and prune.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class BlockHistory {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default capacity of the initial array.
+   */
+  static final int DEFAULT_CAPACITY = 16;
+
+  /**
+   * Releases segments that no history can see any more.
+   */
+  static final Cleaner RELEASER = Cleaner.create();
+
+  // +---------------+-----------------------------------------------
+  // | Local classes |
+  // +---------------+
+
+  /**
+   * A sealed segment. The histories that can see the segment share one
+   * of these, and we release the segment once it is unreachable, if not
+   * before (see release).
+   */
+  static class Segment {
+    /**
+     * The identifier of the segment in the cold store.
+     */
+    final int id;
+
+    /**
+     * Releases the segment, at most once.
+     */
+    final Cleaner.Cleanable releaser;
+
+    /**
+     * Note a newly sealed segment.
+     *
+     * @param store
+     *   The store that holds it.
+     * @param segment
+     *   Its identifier.
+     */
+    Segment(ColdStore store, int segment) {
+      this.id = segment;
+      // The action must not refer to this object, or it would never run
+      this.releaser = RELEASER.register(this, () -> {
+        try {
+          store.release(segment);
+        } catch (IOException e) {
+          // Nothing to tell; the store keeps the segment until it closes
+        } // try/catch
+      });
+    } // Segment(ColdStore, int)
+
+    /**
+     * Release the segment now, since no history will read it again.
+     */
+    void release() {
+      this.releaser.clean();
+    } // release()
+  } // class Segment
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The blocks in memory, with block i stored at index i - offset.
+   */
+  Block[] blocks;
+
+  /**
+   * The height of the first block in memory. Every block before it is in
+   * the cold store.
+   */
+  int offset;
+
+  /**
+   * Where we seal older blocks (or null, to keep every block in memory).
+   */
+  ColdStore cold;
+
+  /**
+   * The sealed segments. Segment i holds the blocks from height
+   * i * hotBlocks to height (i + 1) * hotBlocks.
+   */
+  Segment[] segments;
+
+  /**
+   * The number of leading segments that some frozen view may still see.
+   * We release the others as soon as a rollback drops them.
+   */
+  int sharedSegments;
+
+  /**
+   * Why the cold store last failed to seal a segment (or null, if it
+   * never has). Once set, we stop sealing.
+   */
+  IOException coldFailure;
+
+  /**
+   * The number of recent blocks we keep in memory, which is also the
+   * number of blocks in a segment.
+   */
+  int hotBlocks;
+
+  /**
+   * The headers of pruned blocks, with block i at index i. Only the first
+   * `pruned` are used; the rest of the array is free.
+   */
+  BlockHeader[] headers;
+
+  /**
+   * The number of blocks that have been pruned.
+   */
+  int pruned;
+
+  /**
+   * The balances after the pruned blocks (empty if no blocks have been
+   * pruned). Never updated.
+   */
+  AssociativeArray<String, Integer> baseline;
+
+  /**
+   * The number of blocks in the history.
+   */
+  int size;
+
+  /**
+   * The number of leading slots of `blocks` that are visible to some
+   * frozen view. Those slots must never be overwritten in place.
+   */
+  int frozen;
+
+  /**
+   * Whether or not this history is a read-only view.
+   */
+  boolean readOnly;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty history.
+   */
+  BlockHistory() {
+    this(null, 0);
+  } // BlockHistory()
+
+  /**
+   * Create a new, empty history that seals older blocks into a cold
+   * store.
+   *
+   * @param store
+   *   The cold store (or null, to keep every block in memory).
+   * @param hot
+   *   The number of recent blocks to keep in memory.
+   */
+  BlockHistory(ColdStore store, int hot) {
+    this.blocks = new Block[DEFAULT_CAPACITY];
+    this.offset = 0;
+    this.cold = store;
+    this.segments = new Segment[0];
+    this.sharedSegments = 0;
+    this.coldFailure = null;
+    this.hotBlocks = Math.max(1, hot);
+    this.headers = new BlockHeader[0];
+    this.pruned = 0;
+    this.baseline = new AssociativeArray<String, Integer>();
+    this.size = 0;
+    this.frozen = 0;
+    this.readOnly = false;
+  } // BlockHistory(ColdStore, int)
+
+  /**
+   * Create a read-only view of a history.
+   *
+   * @param live
+   *   The history, whose array and segments the view shares.
+   */
+  private BlockHistory(BlockHistory live) {
+    this.blocks = live.blocks;
+    this.offset = live.offset;
+    this.cold = live.cold;
+    this.segments = live.segments;
+    this.sharedSegments = live.segments.length;
+    this.coldFailure = live.coldFailure;
+    this.hotBlocks = live.hotBlocks;
+    this.headers = live.headers;
+    this.pruned = live.pruned;
+    this.baseline = live.baseline;
+    this.size = live.size;
+    this.frozen = live.size - live.offset;
+    this.readOnly = true;
+  } // BlockHistory(BlockHistory)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Seal the oldest blocks in memory into a new segment. If the cold
+   * store fails, leaves the blocks in memory and notes the failure, so
+   * that we stop sealing and checkCold reports it.
+   */
+  private void seal() {
+    int id;
+    try {
+      id = this.cold.seal(Arrays.asList(this.blocks).subList(0, this.hotBlocks));
+    } catch (IOException e) {
+      this.coldFailure = e;
+      return;
+    } // try/catch
+    this.segments = Arrays.copyOf(this.segments, this.segments.length + 1);
+    this.segments[this.segments.length - 1] = new Segment(this.cold, id);
+    // Frozen views may still use the old array, so move the rest to a new one
+    int remaining = this.size - this.offset - this.hotBlocks;
+    Block[] rest = new Block[Math.max(DEFAULT_CAPACITY, 2 * this.hotBlocks)];
+    System.arraycopy(this.blocks, this.hotBlocks, rest, 0, remaining);
+    this.blocks = rest;
+    this.offset += this.hotBlocks;
+    this.frozen = 0;
+  } // seal()
+
+  /**
+   * Bring the blocks of the last few segments back into memory, so that
+   * the history can shrink to a height before the first block in
+   * memory. We release the segments we drop at once, unless some frozen
+   * view may still use them, in which case they are released once those
+   * views are gone.
+   *
+   * @param newSize
+   *   The number of blocks the history will keep.
+   */
+  private void unseal(int newSize) {
+    int keep = newSize / this.hotBlocks;
+    int start = keep * this.hotBlocks;
+    Block[] hot = new Block[Math.max(DEFAULT_CAPACITY, 2 * this.hotBlocks)];
+    for (int height = start; height < newSize; height++) {
+      hot[height - start] = this.get(height);
+    } // for
+    this.blocks = hot;
+    this.offset = start;
+    for (int i = Math.max(keep, this.sharedSegments); i < this.segments.length; i++) {
+      this.segments[i].release();
+    } // for
+    this.segments = Arrays.copyOf(this.segments, keep);
+    this.sharedSegments = Math.min(this.sharedSegments, keep);
+    this.frozen = 0;
+  } // unseal(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks in the history.
+   *
+   * @return the number of blocks.
+   */
+  int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Get the block at a particular height.
+   *
+   * @param height
+   *   The height of the block, between 0 (inclusive) and size()
+   *   (exclusive).
+   *
+   * @return the block at that height.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If there is no block at that height.
+   * @throws IllegalStateException
+   *   If the block has been pruned.
+   * @throws UncheckedIOException
+   *   If the block is sealed and cannot be read back.
+   */
+  Block get(int height) {
+    if (height < 0 || height >= this.size) {
+      throw new IndexOutOfBoundsException(height);
+    } // if
+    if (height >= this.offset) {
+      return this.blocks[height - this.offset];
+    } else if (this.cold == null) {
+      throw new IllegalStateException("block " + height + " has been pruned");
+    } // if/else
+    try {
+      return this.cold.read(this.segments[height / this.hotBlocks].id,
+          height % this.hotBlocks);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+  } // get(int)
+
+  /**
+   * Get the header of the block at a particular height, even if the
+   * block has been pruned.
+   *
+   * @param height
+   *   The height of the block.
+   *
+   * @return the header.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If there is no block at that height.
+   */
+  BlockHeader header(int height) {
+    if (height >= 0 && height < this.pruned) {
+      return this.headers[height];
+    } // if
+    return new BlockHeader(this.get(height));
+  } // header(int)
+
+  /**
+   * Get the height of the first block whose transaction we still have.
+   *
+   * @return the height.
+   */
+  int first() {
+    return this.pruned;
+  } // first()
+
+  /**
+   * Get the hash of the last block in the history, which is available
+   * even if the block has been pruned.
+   *
+   * @return the hash of the last block.
+   */
+  Hash lastHash() {
+    int height = this.size - 1;
+    if (height >= 0 && height < this.pruned) {
+      return this.headers[height].getHash();
+    } // if
+    return this.get(height).getHash();
+  } // lastHash()
+
+  /**
+   * Make sure that the cold store has not failed, so that the history
+   * can take more blocks without keeping them all in memory.
+   *
+   * @throws UncheckedIOException
+   *   If the cold store failed to seal a segment.
+   */
+  void checkCold() {
+    if (this.coldFailure != null) {
+      throw new UncheckedIOException("cannot seal older blocks", this.coldFailure);
+    } // if
+  } // checkCold()
+
+  /**
+   * Add a block to the end of the history.
+   *
+   * @param blk
+   *   The block to add.
+   */
+  void add(Block blk) {
+    if (this.readOnly) {
+      throw new UnsupportedOperationException();
+    } // if
+    int index = this.size - this.offset;
+    if (index < this.frozen) {
+      // Some view still sees this slot, so stop sharing the array.
+      Block[] copy = new Block[Math.max(this.blocks.length, index + 1)];
+      System.arraycopy(this.blocks, 0, copy, 0, index);
+      this.blocks = copy;
+      this.frozen = 0;
+    } else if (index == this.blocks.length) {
+      this.blocks = Arrays.copyOf(this.blocks, this.blocks.length * 2);
+      this.frozen = 0;
+    } // if/else
+    this.blocks[index] = blk;
+    this.size++;
+    if (this.cold != null && this.coldFailure == null && index + 1 >= 2 * this.hotBlocks) {
+      this.seal();
+    } // if
+  } // add(Block)
+
+  /**
+   * Shrink the history to the first `newSize` blocks.
+   *
+   * @param newSize
+   *   The number of blocks to keep.
+   */
+  void truncate(int newSize) {
+    if (this.readOnly) {
+      throw new UnsupportedOperationException();
+    } // if
+    if (newSize >= this.size) {
+      return;
+    } // if
+    if (newSize < this.offset) {
+      this.unseal(newSize);
+    } else {
+      for (int i = Math.max(newSize - this.offset, this.frozen); i < this.size - this.offset;
+          i++) {
+        this.blocks[i] = null;
+      } // for
+    } // if/else
+    this.size = newSize;
+  } // truncate(int)
+
+  /**
+   * Keep only the headers of the blocks before a height.
+   *
+   * @param height
+   *   The height of the first block to keep whole.
+   * @param ledger
+   *   The balances after the blocks before that height.
+   *
+   * @throws UnsupportedOperationException
+   *   If the history seals blocks into a cold store.
+   */
+  void prune(int height, AssociativeArray<String, Integer> ledger) {
+    if (this.readOnly || this.cold != null) {
+      throw new UnsupportedOperationException();
+    } // if
+    if (height <= this.pruned) {
+      return;
+    } // if
+    if (height > this.headers.length) {
+      this.headers = Arrays.copyOf(this.headers,
+          Math.max(height, Math.max(DEFAULT_CAPACITY, 2 * this.headers.length)));
+    } // if
+    for (int i = this.pruned; i < height; i++) {
+      this.headers[i] = new BlockHeader(this.blocks[i - this.offset], true);
+    } // for
+    // Frozen views may still use the old array, so move the rest to a new one
+    int remaining = this.size - height;
+    Block[] rest = new Block[Math.max(DEFAULT_CAPACITY, 2 * remaining)];
+    System.arraycopy(this.blocks, height - this.offset, rest, 0, remaining);
+    this.blocks = rest;
+    this.offset = height;
+    this.frozen = 0;
+    this.pruned = height;
+    this.baseline = ledger;
+  } // prune(int, AssociativeArray)
+
+  /**
+   * Get a read-only view of the history as it currently stands. The
+   * view shares storage with this history and costs O(1) to create.
+   *
+   * @return the view.
+   */
+  BlockHistory freeze() {
+    if (this.readOnly) {
+      return this;
+    } // if
+    this.frozen = Math.max(this.frozen, this.size - this.offset);
+    this.sharedSegments = this.segments.length;
+    return new BlockHistory(this);
+  } // freeze()
+
+  /**
+   * Get an iterator for the blocks from one height (inclusive) to another
+   * (exclusive).
+   *
+   * @param from
+   *   The height of the first block.
+   * @param to
+   *   The height just past the last block.
+   *
+   * @return the iterator.
+   */
+  Iterator<Block> iterator(int from, int to) {
+    return new Iterator<Block>() {
+      private int current = from;
+
+      public boolean hasNext() {
+        return current < to;
+      } // hasNext()
+
+      public Block next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return get(current++);
+      } // next()
+    };
+  } // iterator(int, int)
+
+  /**
+   * Get an iterator for the transactions in the blocks from one height
+   * (inclusive) to another (exclusive).
+   *
+   * @param from
+   *   The height of the first block.
+   * @param to
+   *   The height just past the last block.
+   *
+   * @return the iterator.
+   */
+  Iterator<Transaction> transactions(int from, int to) {
+    return new Iterator<Transaction>() {
+      private Iterator<Block> blocks = iterator(from, to);
+
+      public boolean hasNext() {
+        return blocks.hasNext();
+      } // hasNext()
+
+      public Transaction next() {
+        return blocks.next().getTransaction();
+      } // next()
+    };
+  } // transactions(int, int)
+
+  /**
+   * Get a stream of the blocks that have not been pruned. Only frozen
+   * histories should be streamed.
+   *
+   * @return the stream.
+   */
+  Stream<Block> stream() {
+    return StreamSupport.stream(new BlockSpliterator(this, this.first(), this.size()), false);
+  } // stream()
+} // class BlockHistory
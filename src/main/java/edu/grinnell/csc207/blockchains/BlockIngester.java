@@ -0,0 +1,143 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Adds batches of already-mined blocks to a chain in two stages. The
+ * first stage checks the contents of each block (the expensive part)
+ * in parallel on a pool of workers. The second stage commits the blocks
+ * in order on the calling thread, checking that each one links to the
+ * previous one.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockIngester {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * How many blocks per worker we validate ahead of the next commit.
+   */
+  static final int BLOCKS_AHEAD = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we add blocks to.
+   */
+  BlockChain chain;
+
+  /**
+   * The workers that validate block contents.
+   */
+  ExecutorService workers;
+
+  /**
+   * The number of workers.
+   */
+  int threads;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new ingester with one worker per available processor.
+   *
+   * @param target
+   *   The chain to add blocks to.
+   */
+  public BlockIngester(BlockChain target) {
+    this(target, Runtime.getRuntime().availableProcessors());
+  } // BlockIngester(BlockChain)
+
+  /**
+   * Create a new ingester.
+   *
+   * @param target
+   *   The chain to add blocks to.
+   * @param numThreads
+   *   The number of workers that validate blocks.
+   */
+  public BlockIngester(BlockChain target, int numThreads) {
+    this.chain = target;
+    this.threads = Math.max(1, numThreads);
+    this.workers = Executors.newFixedThreadPool(this.threads, (task) -> {
+      Thread worker = new Thread(task, "block-ingester");
+      worker.setDaemon(true);
+      return worker;
+    });
+  } // BlockIngester(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add blocks to the end of the chain, in order. Stops at the first
+   * invalid block; the blocks before it stay in the chain. If the chain
+   * has a durable log, returns (or throws) once the blocks that were
+   * added are on the disk. The chain's validator must be safe to call
+   * from several threads at once.
+   *
+   * @param blocks
+   *   The blocks to add.
+   *
+   * @return the number of blocks added.
+   *
+   * @throws IllegalArgumentException
+   *   If some block is invalid or does not follow the block before it.
+   */
+  public int ingest(List<Block> blocks) throws IllegalArgumentException {
+    Iterator<Block> remaining = blocks.iterator();
+    ArrayDeque<Block> pending = new ArrayDeque<Block>();
+    ArrayDeque<Future<Boolean>> checks = new ArrayDeque<Future<Boolean>>();
+    int committed = 0;
+
+    try {
+      while (remaining.hasNext() || !pending.isEmpty()) {
+        // Keep the workers busy validating blocks ahead of the commits
+        while (remaining.hasNext() && pending.size() < this.threads * BLOCKS_AHEAD) {
+          Block blk = remaining.next();
+          pending.add(blk);
+          checks.add(this.workers.submit(() -> this.chain.hasValidContents(blk)));
+        } // while
+
+        // Commit the oldest block once its check is done
+        Block blk = pending.remove();
+        if (!checks.remove().get()) {
+          throw new IllegalArgumentException("invalid block " + blk.getNum());
+        } // if
+        this.chain.commit(blk);
+        committed++;
+      } // while
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted after " + committed + " blocks");
+    } catch (ExecutionException e) {
+      throw new IllegalArgumentException(e.getCause());
+    } finally {
+      for (Future<Boolean> check : checks) {
+        check.cancel(true);
+      } // for
+      this.chain.settleLog();
+    } // try/catch/finally
+    return committed;
+  } // ingest(List<Block>)
+
+  /**
+   * Stop the workers. The ingester may not be used afterwards.
+   */
+  public void shutdown() {
+    this.workers.shutdownNow();
+  } // shutdown()
+} // class BlockIngester
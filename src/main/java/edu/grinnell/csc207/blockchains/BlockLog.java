@@ -0,0 +1,893 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable, append-only log of the changes to a blockchain. Each record
+ * holds either an appended block or the new size of the chain after
+ * blocks were removed, and carries a CRC32C checksum.
+ *
+ * A durable log (see BlockLog(Path)) commits in groups: each change
+ * returns only once an fsync has covered its record, but a thread that
+ * finds another thread's fsync under way waits for it rather than
+ * starting its own, so changes made around the same time share one
+ * fsync. A lazy log (see BlockLog(Path, int, long)) instead returns
+ * before the fsync and syncs once every `groupSize` records and, in the
+ * background, at least every `syncMillis` milliseconds. It is faster,
+ * but a crash loses the changes it has not yet synced.
+ *
+ * If an fsync ever fails, the log can no longer tell what reached the
+ * disk, so every later change and sync fails too.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockLog implements AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every log file ("BLOG").
+   */
+  static final int MAGIC = 0x424C4F47;
+
+  /**
+   * The version of the file format.
+   */
+  static final int VERSION = 2;
+
+  /**
+   * The oldest version of the file format that we can still read. We
+   * upgrade logs in older versions when we open them.
+   */
+  static final int OLDEST_VERSION = 1;
+
+  /**
+   * The number of bytes in the file header.
+   */
+  static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+  /**
+   * The number of bytes before the body of each record: the length of
+   * the body, its checksum, and its type.
+   */
+  static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES + 1;
+
+  /**
+   * The largest body we accept. Anything longer is a torn or corrupt
+   * record.
+   */
+  static final int MAX_RECORD_BYTES = 1 << 20;
+
+  /**
+   * The type of records that hold an appended block.
+   */
+  static final byte BLOCK_RECORD = 1;
+
+  /**
+   * The type of records that hold the size of the chain after blocks
+   * were removed.
+   */
+  static final byte TRUNCATE_RECORD = 2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The file we log to.
+   */
+  Path file;
+
+  /**
+   * The open file.
+   */
+  FileChannel channel;
+
+  /**
+   * Whether each change waits for the fsync that covers it.
+   */
+  boolean durable;
+
+  /**
+   * For a lazy log, the number of unsynced records after which we fsync
+   * immediately.
+   */
+  int groupSize;
+
+  /**
+   * The number of records written.
+   */
+  long records;
+
+  /**
+   * The number of records known to be on the disk.
+   */
+  long syncedRecords;
+
+  /**
+   * The position in the file up to which everything is known to be on
+   * the disk.
+   */
+  long syncedBytes;
+
+  /**
+   * Whether some thread is calling fsync.
+   */
+  boolean syncing;
+
+  /**
+   * The number of fsyncs so far.
+   */
+  long syncs;
+
+  /**
+   * Why an fsync failed (or null, if none has).
+   */
+  IOException failure;
+
+  /**
+   * Calls fsync in the background (or null, if we only sync by count).
+   */
+  ScheduledExecutorService syncer;
+
+  /**
+   * Encodes the blocks we log.
+   */
+  BlockEncoder encoder;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a durable log, creating it if necessary. Each change returns
+   * only once it is on the disk.
+   *
+   * @param logFile
+   *   The file that holds the log.
+   *
+   * @throws IOException
+   *   If the file cannot be opened or is not a log.
+   */
+  public BlockLog(Path logFile) throws IOException {
+    this(logFile, Integer.MAX_VALUE, 0);
+    this.durable = true;
+  } // BlockLog(Path)
+
+  /**
+   * Open a lazy log, creating it if necessary. Changes return before
+   * they reach the disk, so a crash can lose up to `group - 1` records,
+   * or `syncMillis` milliseconds of records, whichever is less.
+   *
+   * @param logFile
+   *   The file that holds the log.
+   * @param group
+   *   The most records we write before calling fsync (1 to sync every
+   *   record).
+   * @param syncMillis
+   *   The longest we let records wait for an fsync, in milliseconds (0
+   *   to sync only by count).
+   *
+   * @throws IOException
+   *   If the file cannot be opened or is not a log.
+   */
+  public BlockLog(Path logFile, int group, long syncMillis) throws IOException {
+    this.file = logFile;
+    this.durable = false;
+    this.groupSize = Math.max(1, group);
+    this.records = 0;
+    this.syncedRecords = 0;
+    this.syncing = false;
+    this.syncs = 0;
+    this.failure = null;
+    this.encoder = new BlockEncoder();
+    this.channel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (this.channel.size() < HEADER_BYTES) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+      this.channel.truncate(0);
+      this.channel.write(header.flip(), 0);
+      this.channel.force(true);
+    } else {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      this.channel.read(header, 0);
+      header.flip();
+      int magic = header.getInt();
+      int version = header.getInt();
+      if (magic != MAGIC || version < OLDEST_VERSION || version > VERSION) {
+        this.channel.close();
+        throw new IOException(logFile + " is not a block log");
+      } else if (version < VERSION) {
+        try {
+          upgrade(logFile, this.channel);
+        } finally {
+          this.channel.close();
+        } // try/finally
+        this.channel = FileChannel.open(logFile, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+      } // if/else
+    } // if/else
+    this.channel.position(this.channel.size());
+    this.syncedBytes = this.channel.size();
+    if (syncMillis > 0) {
+      this.syncer = Executors.newSingleThreadScheduledExecutor((task) -> {
+        Thread thread = new Thread(task, "block-log-sync");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.syncer.scheduleWithFixedDelay(this::syncInBackground, syncMillis, syncMillis,
+          TimeUnit.MILLISECONDS);
+    } // if
+  } // BlockLog(Path, int, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build a complete record.
+   *
+   * @param type
+   *   The type of the record.
+   * @param body
+   *   The body of the record, between its position and limit.
+   *
+   * @return the record, ready to write.
+   */
+  static ByteBuffer record(byte type, ByteBuffer body) {
+    CRC32C crc = new CRC32C();
+    crc.update(type);
+    crc.update(body.duplicate());
+    ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER_BYTES + body.remaining());
+    rec.putInt(body.remaining()).putInt((int) crc.getValue()).put(type).put(body);
+    return rec.flip();
+  } // record(byte, ByteBuffer)
+
+  /**
+   * Determine if a block read back from the log has the hash its
+   * contents call for.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return true if the stored hash is correct and false otherwise.
+   */
+  static boolean hasCorrectHash(Block blk) {
+    Block check = new Block(blk.getNum(), blk.getTransaction(), blk.getPrevHash(),
+        blk.getNonce(), blk.getTimestamp());
+    return check.getHash().equals(blk.getHash());
+  } // hasCorrectHash(Block)
+
+  /**
+   * Read the record at a position in the file.
+   *
+   * @param in
+   *   The file.
+   * @param position
+   *   The position of the record.
+   *
+   * @return the type of the record followed by its body, or null if
+   *   there is no complete, correct record at that position.
+   *
+   * @throws IOException
+   *   If the file cannot be read.
+   */
+  static ByteBuffer readRecord(FileChannel in, long position) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+    if (in.read(header, position) < RECORD_HEADER_BYTES) {
+      return null;
+    } // if
+    header.flip();
+    int length = header.getInt();
+    int checksum = header.getInt();
+    byte type = header.get();
+    if (length < 0 || length > MAX_RECORD_BYTES) {
+      return null;
+    } // if
+    ByteBuffer rec = ByteBuffer.allocate(1 + length).put(type);
+    while (rec.hasRemaining()) {
+      if (in.read(rec, position + RECORD_HEADER_BYTES + rec.position() - 1) < 0) {
+        return null;
+      } // if
+    } // while
+    CRC32C crc = new CRC32C();
+    crc.update(rec.array());
+    return ((int) crc.getValue() == checksum) ? rec.flip() : null;
+  } // readRecord(FileChannel, long)
+
+  /**
+   * Read the body of a block record in a version 1 log, which stored
+   * blocks with a DataOutputStream and without times.
+   *
+   * @param body
+   *   The body of the record.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the body is not a block.
+   */
+  static Block readVersionOne(ByteBuffer body) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(body.array(), body.position(), body.remaining()));
+    int num = in.readInt();
+    Transaction tran = new Transaction(in.readUTF(), in.readUTF(), in.readInt());
+    long nonce = in.readLong();
+    byte[] prev = new byte[in.readUnsignedShort()];
+    in.readFully(prev);
+    byte[] hash = new byte[in.readUnsignedShort()];
+    in.readFully(hash);
+    if (num < 0) {
+      throw new IOException("malformed block number");
+    } // if
+    return new Block(num, tran, new Hash(prev), nonce, 0, new Hash(hash));
+  } // readVersionOne(ByteBuffer)
+
+  /**
+   * Rewrite a log in an older version of the file format in the current
+   * one. We write the new log beside the old one and then move it into
+   * place, so a crash leaves one or the other. A torn record at the end
+   * of the old log is dropped, as replay would drop it.
+   *
+   * @param logFile
+   *   The file that holds the log.
+   * @param in
+   *   The old log, open for reading.
+   *
+   * @throws IOException
+   *   If the log cannot be rewritten or holds a record we cannot read.
+   */
+  static void upgrade(Path logFile, FileChannel in) throws IOException {
+    Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+    BlockEncoder encoder = new BlockEncoder();
+    try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+      out.write(header.flip());
+      long position = HEADER_BYTES;
+      ByteBuffer rec;
+      while ((rec = readRecord(in, position)) != null) {
+        position += RECORD_HEADER_BYTES + rec.limit() - 1;
+        byte type = rec.get();
+        ByteBuffer body = (type == BLOCK_RECORD) ? encoder.encode(readVersionOne(rec)) : rec;
+        ByteBuffer upgraded = record(type, body);
+        while (upgraded.hasRemaining()) {
+          out.write(upgraded);
+        } // while
+      } // while
+      out.force(true);
+    } // try
+    Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  } // upgrade(Path, FileChannel)
+
+  /**
+   * Make sure that no fsync has failed.
+   *
+   * @throws IOException
+   *   If one has.
+   */
+  private void checkFailure() throws IOException {
+    if (this.failure != null) {
+      throw new IOException("an earlier sync of " + this.file + " failed", this.failure);
+    } // if
+  } // checkFailure()
+
+  /**
+   * Write a record. Never syncs, so that no fsync runs while we (or the
+   * chain that logs through us) hold a lock; see settle.
+   *
+   * @param rec
+   *   The record.
+   * @param count
+   *   The number of changes in the record.
+   *
+   * @return the position just past the record.
+   *
+   * @throws IOException
+   *   If the record cannot be written.
+   */
+  private synchronized long write(ByteBuffer rec, int count) throws IOException {
+    this.checkFailure();
+    long start = this.channel.position();
+    try {
+      while (rec.hasRemaining()) {
+        this.channel.write(rec);
+      } // while
+    } catch (IOException e) {
+      // Do not leave part of a record behind
+      this.channel.truncate(start);
+      this.channel.position(start);
+      throw e;
+    } // try/catch
+    this.records += count;
+    return this.channel.position();
+  } // write(ByteBuffer, int)
+
+  /**
+   * Wait until everything before a position is on the disk. If another
+   * thread is already calling fsync, waits for it and then calls fsync
+   * only if that one did not cover the position, so that threads that
+   * write at about the same time share one fsync.
+   *
+   * @param position
+   *   The position.
+   *
+   * @throws IOException
+   *   If the fsync fails, now or earlier.
+   */
+  private void awaitSync(long position) throws IOException {
+    long bytes;
+    long recs;
+    synchronized (this) {
+      while (this.syncing && this.syncedBytes < position) {
+        try {
+          this.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("interrupted while syncing " + this.file);
+        } // try/catch
+      } // while
+      this.checkFailure();
+      if (this.syncedBytes >= position) {
+        return;
+      } // if
+      this.syncing = true;
+      bytes = this.channel.position();
+      recs = this.records;
+    } // synchronized
+
+    IOException error = null;
+    try {
+      this.channel.force(false);
+    } catch (IOException e) {
+      error = e;
+    } // try/catch
+    synchronized (this) {
+      this.syncing = false;
+      this.syncs++;
+      if (error == null) {
+        this.syncedBytes = Math.max(this.syncedBytes, bytes);
+        this.syncedRecords = Math.max(this.syncedRecords, recs);
+      } else {
+        this.failure = error;
+      } // if/else
+      this.notifyAll();
+    } // synchronized
+    if (error != null) {
+      throw error;
+    } // if
+  } // awaitSync(long)
+
+  /**
+   * Sync in the background. A failure needs no handling here, since it
+   * makes every later change fail.
+   */
+  private void syncInBackground() {
+    try {
+      this.sync();
+    } catch (IOException e) {
+      // Recorded in `failure`; see above
+    } // try/catch
+  } // syncInBackground()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Write the record of an appended block, without waiting for it to
+   * reach the disk (see settle).
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return the position just past the record.
+   *
+   * @throws IOException
+   *   If the block cannot be logged.
+   */
+  synchronized long log(Block blk) throws IOException {
+    return this.write(record(BLOCK_RECORD, this.encoder.encode(blk)), 1);
+  } // log(Block)
+
+  /**
+   * Write the records of several appended blocks with a single write,
+   * without waiting for them to reach the disk (see settle). If the
+   * write fails, none of the blocks are logged.
+   *
+   * @param blks
+   *   The blocks.
+   *
+   * @return the position just past the records.
+   *
+   * @throws IOException
+   *   If the blocks cannot be logged.
+   */
+  synchronized long logAll(List<Block> blks) throws IOException {
+    ByteBuffer[] recs = new ByteBuffer[blks.size()];
+    int length = 0;
+    for (int i = 0; i < recs.length; i++) {
+      recs[i] = record(BLOCK_RECORD, this.encoder.encode(blks.get(i)));
+      length += recs[i].remaining();
+    } // for
+    ByteBuffer all = ByteBuffer.allocate(length);
+    for (ByteBuffer rec : recs) {
+      all.put(rec);
+    } // for
+    return this.write(all.flip(), recs.length);
+  } // logAll(List<Block>)
+
+  /**
+   * Write the record of the removal of blocks from the end of the chain,
+   * without waiting for it to reach the disk (see settle).
+   *
+   * @param size
+   *   The number of blocks left in the chain.
+   *
+   * @return the position just past the record.
+   *
+   * @throws IOException
+   *   If the removal cannot be logged.
+   */
+  long logTruncate(int size) throws IOException {
+    return this.write(record(TRUNCATE_RECORD,
+        ByteBuffer.allocate(Integer.BYTES).putInt(size).flip()), 1);
+  } // logTruncate(int)
+
+  /**
+   * Wait, if the log is durable, until everything written before a
+   * position is on the disk. A lazy log syncs only if a full group of
+   * records is waiting, and otherwise returns at once. Call without
+   * holding a lock that other writers need, since this may fsync.
+   *
+   * @param position
+   *   The position, as returned by log, logAll, or logTruncate.
+   *
+   * @throws IOException
+   *   If the records cannot be synced.
+   */
+  void settle(long position) throws IOException {
+    boolean full;
+    synchronized (this) {
+      full = this.records - this.syncedRecords >= this.groupSize;
+    } // synchronized
+    if (this.durable || full) {
+      this.awaitSync(position);
+    } // if
+  } // settle(long)
+
+  /**
+   * Log an appended block. A durable log returns once the block is on
+   * the disk.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @throws IOException
+   *   If the block cannot be logged.
+   */
+  public void append(Block blk) throws IOException {
+    this.settle(this.log(blk));
+  } // append(Block)
+
+  /**
+   * Log several appended blocks with a single write. If the write fails,
+   * none of the blocks are logged. A durable log returns once the blocks
+   * are on the disk.
+   *
+   * @param blks
+   *   The blocks.
+   *
+   * @throws IOException
+   *   If the blocks cannot be logged.
+   */
+  public void appendAll(List<Block> blks) throws IOException {
+    this.settle(this.logAll(blks));
+  } // appendAll(List<Block>)
+
+  /**
+   * Log the removal of blocks from the end of the chain. A durable log
+   * returns once the removal is on the disk.
+   *
+   * @param size
+   *   The number of blocks left in the chain.
+   *
+   * @throws IOException
+   *   If the removal cannot be logged.
+   */
+  public void truncate(int size) throws IOException {
+    this.settle(this.logTruncate(size));
+  } // truncate(int)
+
+  /**
+   * Determine if the log has no records.
+   *
+   * @return true if the log is empty and false otherwise.
+   *
+   * @throws IOException
+   *   If the size of the log cannot be found.
+   */
+  public synchronized boolean isEmpty() throws IOException {
+    return this.channel.position() <= HEADER_BYTES;
+  } // isEmpty()
+
+  /**
+   * Get the number of bytes in the log, including the header.
+   *
+   * @return the length of the log.
+   *
+   * @throws IOException
+   *   If the length cannot be found.
+   */
+  public synchronized long length() throws IOException {
+    return this.channel.position();
+  } // length()
+
+  /**
+   * Force every record written so far to the disk. The records count as
+   * synced only once fsync succeeds.
+   *
+   * @throws IOException
+   *   If the records cannot be synced, now or earlier.
+   */
+  public void sync() throws IOException {
+    long position;
+    synchronized (this) {
+      position = this.channel.position();
+    } // synchronized
+    this.awaitSync(position);
+  } // sync()
+
+  /**
+   * Rebuild a chain from the log. The chain should hold only its initial
+   * block and use the same validator as the chain that wrote the log.
+   * Stops at the first torn or corrupt record, which can only be the
+   * result of a crash in the middle of a write, and cuts the log off
+   * there, so that later records follow the good ones.
+   *
+   * @param chain
+   *   The chain to rebuild.
+   *
+   * @return the number of records replayed.
+   *
+   * @throws IOException
+   *   If the log cannot be read or repaired, or if some record does not
+   *   fit the chain.
+   */
+  public int replay(BlockChain chain) throws IOException {
+    return this.replay(chain, null);
+  } // replay(BlockChain)
+
+  /**
+   * Rebuild a chain from the log, starting from a snapshot of the
+   * balances (see replay(BlockChain)). The blocks up to the snapshot are
+   * loaded without checking their hashes or applying their transactions;
+   * only the blocks after it are replayed in full. If the log never
+   * reaches the snapshot, replays every block in full instead.
+   *
+   * If the chain seals its older blocks into a MappedBlockFile of this
+   * log (directly or through a BlockCache), we skip the records that
+   * led to the blocks the log now holds. We take those blocks from the
+   * index of the mapped file instead, and read each one from the mapped
+   * log rather than keep it on the heap. Then we return the number of
+   * blocks replayed in full rather than the number of records.
+   *
+   * @param chain
+   *   The chain to rebuild.
+   * @param start
+   *   The snapshot (or null, to replay every block in full).
+   *
+   * @return the number of records replayed.
+   *
+   * @throws IOException
+   *   If the log cannot be read or repaired, or if some record does not
+   *   fit the chain.
+   */
+  public synchronized int replay(BlockChain chain, LedgerSnapshot start) throws IOException {
+    MappedBlockFile mapped = this.mappedLog(chain);
+    if (mapped != null) {
+      return this.replayMapped(chain, start, mapped);
+    } // if
+    long position = HEADER_BYTES;
+    int count = 0;
+    BlockDecoder decoder = new BlockDecoder();
+    // The blocks after the initial one that we have yet to give the chain
+    ArrayList<Block> pending = new ArrayList<Block>();
+    boolean restored = (start == null) || (start.getHeight() == 0
+        && start.getHash().equals(chain.getHash()));
+    if (start != null && restored) {
+      chain.restore(pending, start);
+    } // if
+    ByteBuffer rec;
+    while ((rec = readRecord(this.channel, position)) != null) {
+      try {
+        if (rec.get() == BLOCK_RECORD) {
+          Block blk = decoder.decode(rec);
+          if (blk.getNum() == 0) {
+            // The initial block, which the chain already has
+            if (!blk.getHash().equals(chain.getBlock(0).getHash())) {
+              throw new IllegalArgumentException();
+            } // if
+          } else if (!restored) {
+            if (blk.getNum() != pending.size() + 1) {
+              throw new IllegalArgumentException();
+            } // if
+            pending.add(blk);
+          } else if (!hasCorrectHash(blk) || !chain.checker.isValid(blk.getHash())) {
+            throw new IllegalArgumentException();
+          } else {
+            chain.commit(blk);
+          } // if/else
+        } else if (!restored) {
+          int size = rec.getInt();
+          if (size < 1) {
+            throw new IllegalArgumentException();
+          } // if
+          pending.subList(Math.min(size - 1, pending.size()), pending.size()).clear();
+        } else {
+          chain.rollbackTo(rec.getInt() - 1);
+        } // if/else
+        if (!restored && !pending.isEmpty() && pending.size() == start.getHeight()
+            && pending.get(pending.size() - 1).getHash().equals(start.getHash())) {
+          chain.restore(pending, start);
+          pending.clear();
+          restored = true;
+        } // if
+      } catch (IOException | IllegalArgumentException e) {
+        throw new IOException("record " + count + " of " + this.file + " does not fit the chain");
+      } // try/catch
+      position += RECORD_HEADER_BYTES + rec.limit() - 1;
+      count++;
+    } // while
+    if (!restored) {
+      // The snapshot does not match the log, so check every block
+      for (Block blk : pending) {
+        try {
+          if (!hasCorrectHash(blk) || !chain.checker.isValid(blk.getHash())) {
+            throw new IllegalArgumentException();
+          } // if
+          chain.commit(blk);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("block " + blk.getNum() + " of " + this.file + " is invalid");
+        } // try/catch
+      } // for
+    } // if
+    this.resume(position);
+    return count;
+  } // replay(BlockChain, LedgerSnapshot)
+
+  /**
+   * Find the mapped file of this log that a chain seals its older blocks
+   * into, if it does.
+   *
+   * @param chain
+   *   The chain.
+   *
+   * @return the mapped file, or null if the chain seals nowhere or
+   *   somewhere else.
+   *
+   * @throws IOException
+   *   If the files cannot be compared.
+   */
+  private MappedBlockFile mappedLog(BlockChain chain) throws IOException {
+    ColdStore store = chain.history.cold;
+    if (store instanceof BlockCache) {
+      store = ((BlockCache) store).store;
+    } // if
+    if (store instanceof MappedBlockFile
+        && Files.isSameFile(((MappedBlockFile) store).file, this.file)) {
+      return (MappedBlockFile) store;
+    } // if
+    return null;
+  } // mappedLog(BlockChain)
+
+  /**
+   * Rebuild a chain that seals into a mapped file of this log (see
+   * replay(BlockChain, LedgerSnapshot)). The index of the mapped file
+   * already says which blocks survived every removal in the log, so we
+   * restore the blocks up to the snapshot, if the index reaches it, and
+   * replay the blocks after it in full.
+   *
+   * @param chain
+   *   The chain to rebuild.
+   * @param start
+   *   The snapshot (or null, to replay every block in full).
+   * @param mapped
+   *   The mapped file.
+   *
+   * @return the number of blocks replayed in full.
+   *
+   * @throws IOException
+   *   If the log cannot be read or repaired, or if some block does not
+   *   fit the chain.
+   */
+  private int replayMapped(BlockChain chain, LedgerSnapshot start, MappedBlockFile mapped)
+      throws IOException {
+    mapped.refresh();
+    int size = mapped.getSize();
+    int height = 1;
+    int count = 0;
+    try {
+      if (size > 0 && !mapped.getBlock(0).getHash().equals(chain.getBlock(0).getHash())) {
+        throw new IllegalArgumentException();
+      } // if
+      if (start != null && start.getHeight() < size
+          && mapped.getBlock(start.getHeight()).getHash().equals(start.getHash())) {
+        chain.restore(mapped.blocks(1, start.getHeight() + 1), start);
+        height = start.getHeight() + 1;
+      } // if
+      for (; height < size; height++) {
+        Block blk = mapped.getBlock(height);
+        if (!hasCorrectHash(blk) || !chain.checker.isValid(blk.getHash())) {
+          throw new IllegalArgumentException();
+        } // if
+        chain.commit(blk);
+        count++;
+      } // for
+    } catch (UncheckedIOException | IllegalArgumentException e) {
+      throw new IOException("block " + height + " of " + this.file + " does not fit the chain");
+    } // try/catch
+    this.resume(mapped.length);
+    return count;
+  } // replayMapped(BlockChain, LedgerSnapshot, MappedBlockFile)
+
+  /**
+   * Get ready to log after the records we replayed, cutting off anything
+   * after them.
+   *
+   * @param position
+   *   The position just past the last good record.
+   *
+   * @throws IOException
+   *   If the log cannot be cut off there.
+   */
+  private void resume(long position) throws IOException {
+    if (position < this.channel.size()) {
+      this.channel.truncate(position);
+      this.channel.force(true);
+    } // if
+    this.channel.position(position);
+    this.syncedBytes = position;
+  } // resume(long)
+
+  /**
+   * Sync and close the log.
+   *
+   * @throws IOException
+   *   If the log cannot be synced or closed.
+   */
+  public void close() throws IOException {
+    if (this.syncer != null) {
+      // Interrupting a sync would close the channel, so let it finish
+      this.syncer.shutdown();
+      try {
+        this.syncer.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } // try/catch
+    } // if
+    try {
+      this.sync();
+    } finally {
+      this.channel.close();
+    } // try/finally
+  } // close()
+} // class BlockLog
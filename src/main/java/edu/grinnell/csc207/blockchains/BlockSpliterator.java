@@ -0,0 +1,131 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a range of heights in a frozen history. Since we
+ * know every height in the range, we split by halving the range, which
+ * costs nothing, and report exact sizes.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class BlockSpliterator implements Spliterator<Block> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The fewest blocks we split into two parts.
+   */
+  static final int MIN_SPLIT = 64;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The history we traverse, which must not change.
+   */
+  BlockHistory history;
+
+  /**
+   * The height of the next block.
+   */
+  int current;
+
+  /**
+   * The height just past the last block.
+   */
+  int end;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a spliterator over the blocks from one height (inclusive) to
+   * another (exclusive).
+   *
+   * @param blocks
+   *   The frozen history.
+   * @param from
+   *   The height of the first block.
+   * @param to
+   *   The height just past the last block.
+   */
+  BlockSpliterator(BlockHistory blocks, int from, int to) {
+    this.history = blocks;
+    this.current = from;
+    this.end = to;
+  } // BlockSpliterator(BlockHistory, int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Pass the next block to an action, if there is one.
+   *
+   * @param action
+   *   The action.
+   *
+   * @return true if there was a block and false otherwise.
+   */
+  public boolean tryAdvance(Consumer<? super Block> action) {
+    if (this.current >= this.end) {
+      return false;
+    } // if
+    action.accept(this.history.get(this.current++));
+    return true;
+  } // tryAdvance(Consumer)
+
+  /**
+   * Pass every remaining block to an action.
+   *
+   * @param action
+   *   The action.
+   */
+  public void forEachRemaining(Consumer<? super Block> action) {
+    int to = this.end;
+    for (int i = this.current; i < to; i++) {
+      action.accept(this.history.get(i));
+    } // for
+    this.current = to;
+  } // forEachRemaining(Consumer)
+
+  /**
+   * Split off the first half of the remaining blocks.
+   *
+   * @return a spliterator for the first half (or null, if there are too
+   *   few blocks to split).
+   */
+  public Spliterator<Block> trySplit() {
+    int remaining = this.end - this.current;
+    if (remaining < MIN_SPLIT) {
+      return null;
+    } // if
+    int middle = this.current + remaining / 2;
+    BlockSpliterator first = new BlockSpliterator(this.history, this.current, middle);
+    this.current = middle;
+    return first;
+  } // trySplit()
+
+  /**
+   * Get the number of remaining blocks.
+   *
+   * @return the number of blocks.
+   */
+  public long estimateSize() {
+    return this.end - this.current;
+  } // estimateSize()
+
+  /**
+   * Get the characteristics of the spliterator.
+   *
+   * @return the characteristics.
+   */
+  public int characteristics() {
+    return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+  } // characteristics()
+} // class BlockSpliterator
@@ -0,0 +1,405 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * A tree of competing blocks on top of a blockchain. The tree remembers
+ * every valid block it is given, including those on side branches, and
+ * keeps the chain on the branch with the most cumulative work. When a
+ * side branch overtakes the chain, the tree rolls the chain back to
+ * where the branches split and replays only the blocks of the new
+ * branch.
+ *
+ * Blocks more than a fixed depth below the tip, or that the chain has
+ * pruned, are final: the tree forgets them, along with any side branches
+ * that leave the chain below them, so its memory does not grow with the
+ * chain.
+ *
+ * Once a chain is in a tree, add blocks to it only through the tree.
+ *
+ * If the chain cannot log a change, the tree follows whatever blocks
+ * the chain holds afterwards, which may be part of either branch of an
+ * interrupted reorganization, and passes the UncheckedIOException on.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class BlockTree {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default number of blocks below the tip after which blocks are
+   * final.
+   */
+  static final int DEFAULT_FINALITY_DEPTH = 1000;
+
+  // +---------------+-----------------------------------------------
+  // | Local classes |
+  // +---------------+
+
+  /**
+   * A block in the tree.
+   */
+  static class TreeNode {
+    /**
+     * The block.
+     */
+    Block block;
+
+    /**
+     * The node of the previous block (or null, for the initial block).
+     */
+    TreeNode parent;
+
+    /**
+     * The total work of this block and all the blocks before it.
+     */
+    BigInteger work;
+
+    /**
+     * Create a new node.
+     *
+     * @param blk
+     *   The block.
+     * @param parentNode
+     *   The node of the previous block (or null).
+     */
+    TreeNode(Block blk, TreeNode parentNode) {
+      this.block = blk;
+      this.parent = parentNode;
+      this.work = BlockTree.work(blk.getHash());
+      if (parentNode != null) {
+        this.work = this.work.add(parentNode.work);
+      } // if
+    } // TreeNode(Block, TreeNode)
+  } // class TreeNode
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain, which always holds the heaviest branch.
+   */
+  BlockChain chain;
+
+  /**
+   * Every block we know of, indexed by hash.
+   */
+  HashMap<Hash, TreeNode> nodes;
+
+  /**
+   * The nodes at each height, so that we can forget them by height.
+   */
+  HashMap<Integer, ArrayList<TreeNode>> levels;
+
+  /**
+   * The node of the last block in the chain.
+   */
+  TreeNode tip;
+
+  /**
+   * The number of blocks below the tip after which blocks are final.
+   */
+  int finalityDepth;
+
+  /**
+   * The height of the lowest nodes we still have. Their parents are
+   * forgotten.
+   */
+  int floor;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new tree whose main branch is an existing chain.
+   *
+   * @param main
+   *   The chain.
+   */
+  public BlockTree(BlockChain main) {
+    this(main, DEFAULT_FINALITY_DEPTH);
+  } // BlockTree(BlockChain)
+
+  /**
+   * Create a new tree whose main branch is an existing chain, choosing
+   * how deep blocks must be before they are final.
+   *
+   * @param main
+   *   The chain.
+   * @param depth
+   *   The number of blocks below the tip after which blocks are final.
+   *   The chain never reorganizes more deeply than this.
+   */
+  public BlockTree(BlockChain main, int depth) {
+    this.chain = main;
+    this.nodes = new HashMap<Hash, TreeNode>();
+    this.levels = new HashMap<Integer, ArrayList<TreeNode>>();
+    this.finalityDepth = Math.max(0, depth);
+    int size = main.getSize();
+    this.floor = Math.max(main.firstWhole(), size - 1 - this.finalityDepth);
+    Iterator<Block> blocks = main.blocks(this.floor, size);
+    while (blocks.hasNext()) {
+      this.tip = new TreeNode(blocks.next(), this.tip);
+      this.remember(this.tip);
+    } // while
+  } // BlockTree(BlockChain, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Estimate the work that went into finding a hash: two to the power of
+   * the number of leading zero bits.
+   *
+   * @param hash
+   *   The hash.
+   *
+   * @return the estimated work.
+   */
+  static BigInteger work(Hash hash) {
+    int zeros = 0;
+    for (int i = 0; i < hash.length(); i++) {
+      if (hash.get(i) != 0) {
+        zeros += Integer.numberOfLeadingZeros(Byte.toUnsignedInt(hash.get(i))) - 24;
+        break;
+      } // if
+      zeros += Byte.SIZE;
+    } // for
+    return BigInteger.ONE.shiftLeft(zeros);
+  } // work(Hash)
+
+  /**
+   * Determine if a node's block is in the chain, even if the chain has
+   * pruned it.
+   *
+   * @param node
+   *   The node.
+   *
+   * @return true if the block is in the chain and false otherwise.
+   */
+  private boolean inChain(TreeNode node) {
+    int height = node.block.getNum();
+    return height < this.chain.getSize()
+        && this.chain.hashAt(height).equals(node.block.getHash());
+  } // inChain(TreeNode)
+
+  /**
+   * Add a node to the tree.
+   *
+   * @param node
+   *   The node.
+   */
+  private void remember(TreeNode node) {
+    this.nodes.put(node.block.getHash(), node);
+    this.levels.computeIfAbsent(node.block.getNum(), (h) -> new ArrayList<TreeNode>())
+        .add(node);
+  } // remember(TreeNode)
+
+  /**
+   * Forget a node and every node after it, on any branch.
+   *
+   * @param root
+   *   The first node to forget.
+   */
+  private void forget(TreeNode root) {
+    HashSet<TreeNode> gone = new HashSet<TreeNode>();
+    gone.add(root);
+    int top = Collections.max(this.levels.keySet());
+    for (int height = root.block.getNum(); height <= top; height++) {
+      ArrayList<TreeNode> level = this.levels.get(height);
+      if (level == null) {
+        continue;
+      } // if
+      Iterator<TreeNode> members = level.iterator();
+      while (members.hasNext()) {
+        TreeNode node = members.next();
+        if (gone.contains(node) || gone.contains(node.parent)) {
+          gone.add(node);
+          this.nodes.remove(node.block.getHash());
+          members.remove();
+        } // if
+      } // while
+      if (level.isEmpty()) {
+        this.levels.remove(height);
+      } // if
+    } // for
+  } // forget(TreeNode)
+
+  /**
+   * Forget the nodes below the lowest height that is not yet final.
+   */
+  private void evict() {
+    int newFloor = Math.max(this.chain.firstWhole(),
+        this.tip.block.getNum() - this.finalityDepth);
+    if (newFloor <= this.floor) {
+      return;
+    } // if
+    for (; this.floor < newFloor; this.floor++) {
+      ArrayList<TreeNode> level = this.levels.remove(this.floor);
+      if (level != null) {
+        for (TreeNode node : level) {
+          this.nodes.remove(node.block.getHash());
+        } // for
+      } // if
+    } // for
+    // Let the collector have the forgotten nodes
+    ArrayList<TreeNode> lowest = this.levels.get(this.floor);
+    if (lowest != null) {
+      for (TreeNode node : lowest) {
+        node.parent = null;
+      } // for
+    } // if
+  } // evict()
+
+  /**
+   * Move the chain to the branch that ends with a node. If some block on
+   * that branch turns out to be unacceptable to the chain, puts the chain
+   * back the way it was and forgets that block and the ones after it.
+   *
+   * @param newTip
+   *   The last node of the branch.
+   *
+   * @return true if the chain moved and false otherwise.
+   *
+   * @throws UncheckedIOException
+   *   If the chain cannot log a change. The tip is then whatever block
+   *   the chain ends with.
+   */
+  private boolean reorganize(TreeNode newTip) {
+    // Find the blocks of the new branch, back to where it leaves the chain
+    ArrayList<TreeNode> branch = new ArrayList<TreeNode>();
+    TreeNode fork = newTip;
+    while (!this.inChain(fork)) {
+      branch.add(fork);
+      fork = fork.parent;
+      if (fork == null) {
+        // The branch leaves the chain where it is final
+        this.forget(branch.get(branch.size() - 1));
+        return false;
+      } // if
+    } // while
+
+    // Remember the blocks we are about to remove
+    ArrayList<Block> removed = new ArrayList<Block>();
+    for (TreeNode node = this.tip; node != fork; node = node.parent) {
+      removed.add(node.block);
+    } // for
+
+    try {
+      this.chain.rollbackTo(fork.block.getNum());
+      for (int i = branch.size() - 1; i >= 0; i--) {
+        try {
+          this.chain.commit(branch.get(i).block);
+        } catch (IllegalArgumentException e) {
+          // Forget the bad block and those after it, and put the old branch back
+          this.forget(branch.get(i));
+          this.chain.rollbackTo(fork.block.getNum());
+          for (int j = removed.size() - 1; j >= 0; j--) {
+            this.chain.commit(removed.get(j));
+          } // for
+          this.chain.settleLog();
+          return false;
+        } // try/catch
+      } // for
+      this.tip = newTip;
+      this.chain.settleLog();
+    } catch (UncheckedIOException e) {
+      // The chain may hold part of either branch, so follow it
+      this.tip = this.nodes.get(this.chain.getHash());
+      throw e;
+    } // try/catch
+    this.evict();
+    return true;
+  } // reorganize(TreeNode)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Add a block to the tree. If the block extends the heaviest branch,
+   * it is appended to the chain, perhaps after switching the chain to
+   * that branch.
+   *
+   * @param blk
+   *   The block to add.
+   *
+   * @return true if the chain changed and false if the block is already
+   *   known or went onto a side branch.
+   *
+   * @throws IllegalArgumentException
+   *   If the block is invalid or does not follow a known block that is
+   *   not yet final.
+   * @throws UncheckedIOException
+   *   If the chain cannot log a change.
+   */
+  public synchronized boolean add(Block blk) throws IllegalArgumentException {
+    // The chain may have pruned since the last block
+    this.evict();
+    if (this.nodes.containsKey(blk.getHash())) {
+      return false;
+    } // if
+    TreeNode parent = this.nodes.get(blk.getPrevHash());
+    if (parent == null || blk.getNum() != parent.block.getNum() + 1) {
+      throw new IllegalArgumentException("block " + blk.getNum() + " follows no known block");
+    } // if
+    if (!this.chain.hasValidContents(blk)) {
+      throw new IllegalArgumentException("invalid block " + blk.getNum());
+    } // if
+
+    TreeNode node = new TreeNode(blk, parent);
+    if (parent == this.tip) {
+      this.chain.commit(blk);
+      this.remember(node);
+      this.tip = node;
+      this.evict();
+      this.chain.settleLog();
+      return true;
+    } // if
+    this.remember(node);
+    if (node.work.compareTo(this.tip.work) > 0) {
+      return this.reorganize(node);
+    } // if
+    return false;
+  } // add(Block)
+
+  /**
+   * Get the last block of the heaviest branch, which is also the last
+   * block in the chain.
+   *
+   * @return the last block.
+   */
+  public synchronized Block getTip() {
+    return this.tip.block;
+  } // getTip()
+
+  /**
+   * Get the cumulative work of the heaviest branch.
+   *
+   * @return the work.
+   */
+  public synchronized BigInteger getWork() {
+    return this.tip.work;
+  } // getWork()
+
+  /**
+   * Get the number of blocks the tree knows of, on all branches, that
+   * are not yet final.
+   *
+   * @return the number of blocks.
+   */
+  public synchronized int size() {
+    return this.nodes.size();
+  } // size()
+} // class BlockTree
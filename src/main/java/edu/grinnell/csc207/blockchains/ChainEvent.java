@@ -0,0 +1,93 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * A change to a blockchain: either a block was appended or a block was
+ * removed from the end. Each change to a chain has the next sequence
+ * number, so a subscriber that sees a gap in the numbers knows that it
+ * missed events and must catch up some other way, for example from a
+ * snapshot.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class ChainEvent {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The block that was appended or removed.
+   */
+  private Block block;
+
+  /**
+   * Whether the block was removed (true) or appended (false).
+   */
+  private boolean removal;
+
+  /**
+   * The number of changes to the chain before this one.
+   */
+  private long sequence;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new event.
+   *
+   * @param blk
+   *   The block that was appended or removed.
+   * @param removed
+   *   True if the block was removed and false if it was appended.
+   * @param seq
+   *   The number of changes to the chain before this one.
+   */
+  ChainEvent(Block blk, boolean removed, long seq) {
+    this.block = blk;
+    this.removal = removed;
+    this.sequence = seq;
+  } // ChainEvent(Block, boolean, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the block that was appended or removed.
+   *
+   * @return the block.
+   */
+  public Block getBlock() {
+    return this.block;
+  } // getBlock()
+
+  /**
+   * Determine if this event is a removal (rollback) of the last block.
+   *
+   * @return true if the block was removed and false if it was appended.
+   */
+  public boolean isRemoval() {
+    return this.removal;
+  } // isRemoval()
+
+  /**
+   * Get the sequence number of this event: the number of changes to the
+   * chain before it. Consecutive events a subscriber receives differ by
+   * one unless it missed some.
+   *
+   * @return the sequence number.
+   */
+  public long getSequence() {
+    return this.sequence;
+  } // getSequence()
+
+  /**
+   * Get a string representation of the event.
+   *
+   * @return a string representation of the event.
+   */
+  public String toString() {
+    return (this.removal ? "Removed " : "Appended ") + this.block.toString();
+  } // toString()
+} // class ChainEvent
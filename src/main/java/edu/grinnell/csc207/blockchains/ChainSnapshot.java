@@ -0,0 +1,172 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KeyNotFoundException;
+
+/**
+ * An immutable view of a blockchain and its balances at one height.
+ * Snapshots share storage with the chain they came from, so they are
+ * cheap to create, and they never change, even as the chain does.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class ChainSnapshot implements Iterable<Transaction> {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The blocks in the snapshot.
+   */
+  final BlockHistory history;
+
+  /**
+   * The balances of the users after the last block. Never updated.
+   */
+  final AssociativeArray<String, Integer> balances;
+
+  /**
+   * Validator for hash values, used to check the validity of blocks.
+   */
+  final HashValidator checker;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new snapshot.
+   *
+   * @param blocks
+   *   A read-only view of the blocks.
+   * @param ledger
+   *   The balances after the last block, which the caller promises not
+   *   to change.
+   * @param check
+   *   The validator used to check blocks.
+   */
+  ChainSnapshot(BlockHistory blocks, AssociativeArray<String, Integer> ledger,
+      HashValidator check) {
+    this.history = blocks;
+    this.balances = ledger;
+    this.checker = check;
+  } // ChainSnapshot(BlockHistory, AssociativeArray, HashValidator)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks in the snapshot.
+   *
+   * @return the number of blocks, including the initial block.
+   */
+  public int getSize() {
+    return this.history.size();
+  } // getSize()
+
+  /**
+   * Get the hash of the last block in the snapshot.
+   *
+   * @return the hash of the last block.
+   */
+  public Hash getHash() {
+    return this.history.lastHash();
+  } // getHash()
+
+  /**
+   * Get the block at a particular height.
+   *
+   * @param height
+   *   The number of the block.
+   *
+   * @return the block.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the snapshot has no block at that height.
+   * @throws IllegalStateException
+   *   If the block has been pruned.
+   */
+  public Block getBlock(int height) {
+    return this.history.get(height);
+  } // getBlock(int)
+
+  /**
+   * Find one user's balance as of the last block in the snapshot.
+   *
+   * @param user
+   *   The user whose balance we want to find.
+   *
+   * @return that user's balance (or 0, if the user is not in the system).
+   */
+  public int balance(String user) {
+    try {
+      return this.balances.get(user);
+    } catch (KeyNotFoundException e) {
+      return 0;
+    } // try/catch
+  } // balance(String)
+
+  /**
+   * Return an iterator of all the people who participated in the
+   * system as of the last block in the snapshot.
+   *
+   * @return an iterator of all the people in the system.
+   */
+  public Iterator<String> users() {
+    return this.balances.keyIterator();
+  } // users()
+
+  /**
+   * Determine if the blocks in the snapshot are correct. See
+   * BlockChain.isCorrect() for details.
+   *
+   * @return true if the snapshot is correct and false otherwise.
+   */
+  public boolean isCorrect() {
+    return BlockChain.isCorrect(this.history, this.checker);
+  } // isCorrect()
+
+  /**
+   * Get an interator for all the blocks in the snapshot that have not
+   * been pruned.
+   *
+   * @return an iterator for all the blocks.
+   */
+  public Iterator<Block> blocks() {
+    return this.history.iterator(this.history.first(), this.history.size());
+  } // blocks()
+
+  /**
+   * Get an interator for all the transactions in the snapshot that have
+   * not been pruned.
+   *
+   * @return an iterator for all the transactions.
+   */
+  public Iterator<Transaction> iterator() {
+    return this.history.transactions(this.history.first(), this.history.size());
+  } // iterator()
+
+  /**
+   * Get a stream of all the blocks in the snapshot that have not been
+   * pruned.
+   *
+   * @return a stream of the blocks.
+   */
+  public Stream<Block> blockStream() {
+    return this.history.stream();
+  } // blockStream()
+
+  /**
+   * Get a stream of all the transactions in the snapshot that have not
+   * been pruned.
+   *
+   * @return a stream of the transactions.
+   */
+  public Stream<Transaction> transactionStream() {
+    return this.history.stream().map(Block::getTransaction);
+  } // transactionStream()
+} // class ChainSnapshot
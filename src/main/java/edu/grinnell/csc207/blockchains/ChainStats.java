@@ -0,0 +1,202 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Totals over every transaction in a chain, kept up to date block by
+ * block so that asking for them never replays the chain: the supply of
+ * money deposited, how much each user has sent and received, and the
+ * users with money, kept in order of their balances so that the
+ * richest users can be read off the front.
+ *
+ * A user's balance is what they received less what they sent, so we
+ * keep no balances of our own beside the chain's ledger. Users whose
+ * balance is 0, such as those whose only block was removed, are not
+ * ranked.
+ *
+ * The totals cover every block added, including blocks since pruned.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class ChainStats {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The total of all deposits.
+   */
+  long supply;
+
+  /**
+   * The total each user has sent.
+   */
+  HashMap<String, Long> sent;
+
+  /**
+   * The total each user has received.
+   */
+  HashMap<String, Long> received;
+
+  /**
+   * The balance of each user with a balance other than 0, largest first
+   * (and by name among equal balances).
+   */
+  TreeSet<Map.Entry<String, Integer>> ranked;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create the totals of a chain with no transactions.
+   */
+  ChainStats() {
+    this.supply = 0;
+    this.sent = new HashMap<String, Long>();
+    this.received = new HashMap<String, Long>();
+    this.ranked = new TreeSet<Map.Entry<String, Integer>>((x, y) -> {
+      int order = Integer.compare(y.getValue(), x.getValue());
+      return (order != 0) ? order : x.getKey().compareTo(y.getKey());
+    });
+  } // ChainStats()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the balance of a user from the totals.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return what the user received less what they sent.
+   */
+  private int balance(String user) {
+    return (int) (this.received(user) - this.sent(user));
+  } // balance(String)
+
+  /**
+   * Add to one of the totals of a user, dropping the total once it is
+   * back to 0.
+   *
+   * @param totals
+   *   The totals (sent or received).
+   * @param user
+   *   The user.
+   * @param amount
+   *   The amount to add.
+   */
+  private static void add(HashMap<String, Long> totals, String user, long amount) {
+    totals.merge(user, amount, (x, y) -> (x + y == 0) ? null : x + y);
+  } // add(HashMap, String, long)
+
+  /**
+   * Move a user within `ranked` after their balance changed.
+   *
+   * @param user
+   *   The user.
+   * @param prev
+   *   Their balance before the change.
+   */
+  private void rerank(String user, int prev) {
+    int now = this.balance(user);
+    if (prev != 0) {
+      this.ranked.remove(new AbstractMap.SimpleImmutableEntry<String, Integer>(user, prev));
+    } // if
+    if (now != 0) {
+      this.ranked.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(user, now));
+    } // if
+  } // rerank(String, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Count a transaction, or stop counting it.
+   *
+   * @param tran
+   *   The transaction.
+   * @param sign
+   *   1, to count the transaction, or -1, to stop counting it.
+   */
+  void apply(Transaction tran, int sign) {
+    String source = tran.getSource();
+    String target = tran.getTarget();
+    int amount = sign * tran.getAmount();
+    if (source.equals("")) {
+      if (!target.equals("")) {
+        this.supply += amount;
+      } // if
+    } else {
+      int prev = this.balance(source);
+      add(this.sent, source, amount);
+      this.rerank(source, prev);
+    } // if/else
+    if (!target.equals("")) {
+      int prev = this.balance(target);
+      add(this.received, target, amount);
+      this.rerank(target, prev);
+    } // if
+  } // apply(Transaction, int)
+
+  /**
+   * Get the total of all deposits.
+   *
+   * @return the supply.
+   */
+  long supply() {
+    return this.supply;
+  } // supply()
+
+  /**
+   * Get the total a user has sent.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the total (or 0, if the user has sent nothing).
+   */
+  long sent(String user) {
+    return this.sent.getOrDefault(user, 0L);
+  } // sent(String)
+
+  /**
+   * Get the total a user has received.
+   *
+   * @param user
+   *   The user.
+   *
+   * @return the total (or 0, if the user has received nothing).
+   */
+  long received(String user) {
+    return this.received.getOrDefault(user, 0L);
+  } // received(String)
+
+  /**
+   * Get the users with the largest balances, leaving out users whose
+   * balance is 0. Takes time proportional to the number of users
+   * returned plus the log of the number of users.
+   *
+   * @param count
+   *   The most users to return.
+   *
+   * @return the users and their balances, largest first.
+   */
+  List<Map.Entry<String, Integer>> richest(int count) {
+    ArrayList<Map.Entry<String, Integer>> top = new ArrayList<Map.Entry<String, Integer>>();
+    Iterator<Map.Entry<String, Integer>> entries = this.ranked.iterator();
+    while (top.size() < count && entries.hasNext()) {
+      top.add(entries.next());
+    } // while
+    return top;
+  } // richest(int)
+} // class ChainStats
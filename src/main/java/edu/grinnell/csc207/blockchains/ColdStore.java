@@ -0,0 +1,55 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Storage for the older blocks of a chain, which the chain moves out of
+ * memory in fixed-size segments. Once sealed, a segment never changes
+ * until it is released, so it may be read from any thread.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public interface ColdStore {
+  /**
+   * Seal blocks into a new segment.
+   *
+   * @param blks
+   *   The blocks, in order.
+   *
+   * @return an identifier for the segment.
+   *
+   * @throws IOException
+   *   If the segment cannot be stored.
+   */
+  int seal(List<Block> blks) throws IOException;
+
+  /**
+   * Read a block back from a segment.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   * @param index
+   *   The position of the block within the segment.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the block cannot be read.
+   */
+  Block read(int segment, int index) throws IOException;
+
+  /**
+   * Release a segment that no chain or snapshot can see any more, so
+   * that the store can free the space it takes. The segment is never
+   * read again. Called from the thread that rolls the chain back or, for
+   * segments that frozen views shared, from a background thread.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   *
+   * @throws IOException
+   *   If the space cannot be freed.
+   */
+  void release(int segment) throws IOException;
+} // interface ColdStore
@@ -0,0 +1,175 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The first blocks of chains, mined once for each validator and reused
+ * by every chain created after that. Validators are identified by their
+ * descriptors (see HashValidator.descriptor); we mine afresh for
+ * validators without one. Only one thread mines for each descriptor, and
+ * threads that want the same block wait for it, but threads that want
+ * different blocks never wait for each other. Every caller gets its own
+ * copy of the block.
+ *
+ * Besides keeping first blocks in memory, the cache can save their
+ * nonces to a file, one line per descriptor, so that later runs can skip
+ * the mining too. Since the first block is always the same but for its
+ * nonce, a nonce from the file costs one hash to check.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class GenesisCache {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The first blocks we have mined or checked (or are mining), by
+   * descriptor.
+   */
+  static ConcurrentHashMap<String, CompletableFuture<Block>> mined =
+      new ConcurrentHashMap<String, CompletableFuture<Block>>();
+
+  /**
+   * The file we save nonces in (or null, if we keep them only in
+   * memory).
+   */
+  static Path file = null;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read the nonces saved in the file.
+   *
+   * @return the nonces, by descriptor.
+   */
+  static synchronized Properties load() {
+    Properties nonces = new Properties();
+    if (file != null) {
+      try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        nonces.load(in);
+      } catch (NoSuchFileException e) {
+        // Nothing saved yet
+      } catch (IOException | IllegalArgumentException e) {
+        // A damaged file only costs us the mining
+      } // try/catch
+    } // if
+    return nonces;
+  } // load()
+
+  /**
+   * Save a nonce to the file, keeping the others already there. The file
+   * is only a cache, so we ignore failures.
+   *
+   * @param descriptor
+   *   The descriptor of the validator.
+   * @param nonce
+   *   The nonce of its first block.
+   */
+  static synchronized void save(String descriptor, long nonce) {
+    if (file == null) {
+      return;
+    } // if
+    Properties nonces = load();
+    nonces.setProperty(descriptor, Long.toString(nonce));
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        nonces.store(out, "Nonces of first blocks, by validator");
+      } // try
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // We will mine again next run
+    } // try/catch
+  } // save(String, long)
+
+  /**
+   * Find the first block for a validator, from the file if it has a
+   * good nonce and by mining otherwise.
+   *
+   * @param descriptor
+   *   The descriptor of the validator.
+   * @param check
+   *   The validator.
+   *
+   * @return the first block.
+   */
+  static Block find(String descriptor, HashValidator check) {
+    Transaction empty = new Transaction("", "", 0);
+    Hash none = new Hash(new byte[] {});
+    String saved = load().getProperty(descriptor);
+    if (saved != null) {
+      try {
+        Block first = new Block(0, empty, none, Long.parseLong(saved.trim()));
+        if (check.isValid(first.getHash())) {
+          return first;
+        } // if
+      } catch (NumberFormatException e) {
+        // Mine it instead
+      } // try/catch
+    } // if
+    Block first = new Block(0, empty, none, check);
+    save(descriptor, first.getNonce());
+    return first;
+  } // find(String, HashValidator)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Save nonces to a file from now on, and use the ones already in it.
+   *
+   * @param nonces
+   *   The file (or null, to keep nonces only in memory).
+   */
+  public static synchronized void setFile(Path nonces) {
+    file = nonces;
+  } // setFile(Path)
+
+  /**
+   * Get the first block of a chain, mining it only if neither the
+   * memory nor the file has it.
+   *
+   * @param check
+   *   The validator the chain uses.
+   *
+   * @return a copy of the first block.
+   */
+  public static Block genesis(HashValidator check) {
+    String descriptor = check.descriptor();
+    if (descriptor == null) {
+      return new Block(0, new Transaction("", "", 0), new Hash(new byte[] {}), check);
+    } // if
+
+    CompletableFuture<Block> pending = new CompletableFuture<Block>();
+    CompletableFuture<Block> first = mined.putIfAbsent(descriptor, pending);
+    if (first == null) {
+      // Ours to mine, outside any lock
+      try {
+        pending.complete(find(descriptor, check));
+      } catch (RuntimeException e) {
+        mined.remove(descriptor, pending);
+        pending.completeExceptionally(e);
+        throw e;
+      } // try/catch
+      first = pending;
+    } // if
+    Block blk = first.join();
+    return new Block(blk.getNum(), blk.getTransaction(), blk.getPrevHash(), blk.getNonce(),
+        blk.getTimestamp(), blk.getHash());
+  } // genesis(HashValidator)
+} // class GenesisCache
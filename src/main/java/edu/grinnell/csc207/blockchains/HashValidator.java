@@ -16,4 +16,44 @@ public interface HashValidator {
    */
   boolean isValid(Hash hash);
 
+  /**
+   * Describe the criterion, so that work done for one validator (such as
+   * mining the first block of a chain) can be reused for another that
+   * accepts exactly the same hashes.
+   *
+   * @return a description that only validators with the same criterion
+   *   share (or null, if we cannot tell).
+   */
+  default String descriptor() {
+    return null;
+  } // descriptor()
+
+  /**
+   * Get a validator that accepts hashes starting with some number of
+   * zero bytes.
+   *
+   * @param zeros
+   *   The number of leading zero bytes.
+   *
+   * @return the validator.
+   */
+  static HashValidator leadingZeros(int zeros) {
+    return new HashValidator() {
+      public boolean isValid(Hash hash) {
+        if (hash.length() < zeros) {
+          return false;
+        } // if
+        for (int i = 0; i < zeros; i++) {
+          if (hash.get(i) != 0) {
+            return false;
+          } // if
+        } // for
+        return true;
+      } // isValid(Hash)
+
+      public String descriptor() {
+        return "leading-zero-bytes:" + zeros;
+      } // descriptor()
+    };
+  } // leadingZeros(int)
 } // interface HashValidator
@@ -0,0 +1,201 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Backs up a logged blockchain while it keeps running. A backup captures
+ * the chain's height and balances at one moment, copies the log up to
+ * that moment at a limited rate, so that the copy does not compete with
+ * appends for the disk, then copies whatever was logged in the meantime.
+ * Finally, it checks every record of the copy against its checksum.
+ *
+ * The backup directory ends up with a copy of the log and a ledger
+ * snapshot (see LedgerSnapshot) named after it, which are all a restart
+ * needs. Sealed segments are not copied, since they can be rebuilt from
+ * the log.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class HotBackup {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of bytes we copy at a time.
+   */
+  static final int CHUNK_BYTES = 64 * 1024;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The chain we back up.
+   */
+  BlockChain chain;
+
+  /**
+   * The log of that chain.
+   */
+  BlockLog log;
+
+  /**
+   * The most bytes per second we copy before the tail (or 0, for no
+   * limit).
+   */
+  long bytesPerSecond;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Prepare to back up a chain.
+   *
+   * @param source
+   *   The chain.
+   * @param changes
+   *   The log of the chain.
+   * @param rate
+   *   The most bytes per second to copy (or 0, for no limit).
+   */
+  public HotBackup(BlockChain source, BlockLog changes, long rate) {
+    this.chain = source;
+    this.log = changes;
+    this.bytesPerSecond = Math.max(0, rate);
+  } // HotBackup(BlockChain, BlockLog, long)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Copy part of a file.
+   *
+   * @param in
+   *   The file to copy from.
+   * @param out
+   *   The file to copy to.
+   * @param from
+   *   The position of the first byte to copy.
+   * @param to
+   *   The position just past the last byte to copy.
+   * @param rate
+   *   The most bytes per second to copy (or 0, for no limit).
+   *
+   * @throws IOException
+   *   If the copy fails or is interrupted.
+   */
+  static void copy(FileChannel in, FileChannel out, long from, long to, long rate)
+      throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+    long start = System.nanoTime();
+    long position = from;
+    while (position < to) {
+      chunk.clear().limit((int) Math.min(CHUNK_BYTES, to - position));
+      int count = in.read(chunk, position);
+      if (count < 0) {
+        throw new IOException("log ended early");
+      } // if
+      chunk.flip();
+      while (chunk.hasRemaining()) {
+        out.write(chunk, position + chunk.position());
+      } // while
+      position += count;
+      if (rate > 0) {
+        // Sleep until we are back under the rate
+        long ahead = (position - from) * 1_000_000_000L / rate - (System.nanoTime() - start);
+        if (ahead > 0) {
+          try {
+            Thread.sleep(ahead / 1_000_000L, (int) (ahead % 1_000_000L));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("backup interrupted");
+          } // try/catch
+        } // if
+      } // if
+    } // while
+  } // copy(FileChannel, FileChannel, long, long, long)
+
+  /**
+   * Check every record of a copied log against its checksum.
+   *
+   * @param in
+   *   The copy.
+   *
+   * @return the number of records.
+   *
+   * @throws IOException
+   *   If some record is damaged or the copy is not a log.
+   */
+  static int verify(FileChannel in) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(BlockLog.HEADER_BYTES);
+    in.read(header, 0);
+    header.flip();
+    if (header.remaining() < BlockLog.HEADER_BYTES || header.getInt() != BlockLog.MAGIC) {
+      throw new IOException("backup is not a block log");
+    } // if
+    int version = header.getInt();
+    if (version < BlockLog.OLDEST_VERSION || version > BlockLog.VERSION) {
+      throw new IOException("backup is not a block log");
+    } // if
+    long position = BlockLog.HEADER_BYTES;
+    int count = 0;
+    ByteBuffer rec;
+    while ((rec = BlockLog.readRecord(in, position)) != null) {
+      position += BlockLog.RECORD_HEADER_BYTES + rec.limit() - 1;
+      count++;
+    } // while
+    if (position != in.size()) {
+      throw new IOException("record " + count + " of backup is damaged");
+    } // if
+    return count;
+  } // verify(FileChannel)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Back up the chain. Appends may continue throughout.
+   *
+   * @param dir
+   *   The directory to put the backup in, which we create if necessary.
+   *
+   * @return the number of records in the backed-up log.
+   *
+   * @throws IOException
+   *   If the backup cannot be written or does not verify.
+   */
+  public int backup(Path dir) throws IOException {
+    Files.createDirectories(dir);
+    Path logCopy = dir.resolve(this.log.file.getFileName());
+    Path snapCopy = dir.resolve(this.log.file.getFileName() + ".snapshot");
+
+    // Capture the balances and the end of the log at the same moment
+    ChainSnapshot snap;
+    long captured;
+    synchronized (this.chain) {
+      snap = this.chain.snapshot();
+      captured = this.log.length();
+    } // synchronized
+
+    try (FileChannel in = FileChannel.open(this.log.file, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(logCopy, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      copy(in, out, 0, captured, this.bytesPerSecond);
+      LedgerSnapshot.save(snap, snapCopy);
+      // Then whatever was logged while we copied, at full speed
+      copy(in, out, captured, this.log.length(), 0);
+      out.force(true);
+      return verify(out);
+    } // try
+  } // backup(Path)
+} // class HotBackup
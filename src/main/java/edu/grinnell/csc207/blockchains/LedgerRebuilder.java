@@ -0,0 +1,205 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KeyNotFoundException;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * Rebuilds the balances of a chain from its blocks, using every core.
+ * A final balance is just the sum of the changes to one account, and
+ * sums do not depend on order, so we split the chain into ranges of
+ * blocks, sum the changes in each range on its own, and then merge the
+ * sums.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class LedgerRebuilder {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default number of blocks in each range.
+   */
+  static final int RANGE_BLOCKS = 4096;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The number of blocks in each range.
+   */
+  int rangeBlocks;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a rebuilder that uses ranges of the default size.
+   */
+  public LedgerRebuilder() {
+    this(RANGE_BLOCKS);
+  } // LedgerRebuilder()
+
+  /**
+   * Create a rebuilder that uses ranges of a particular size.
+   *
+   * @param blocksPerRange
+   *   The number of blocks in each range.
+   */
+  public LedgerRebuilder(int blocksPerRange) {
+    this.rangeBlocks = Math.max(1, blocksPerRange);
+  } // LedgerRebuilder(int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Sum the changes to each account in a range of blocks.
+   *
+   * @param blocks
+   *   The blocks.
+   * @param from
+   *   The height of the first block in the range.
+   * @param to
+   *   The height just past the last block in the range.
+   *
+   * @return the sums, by account.
+   */
+  static HashMap<String, Integer> deltas(BlockHistory blocks, int from, int to) {
+    HashMap<String, Integer> sums = new HashMap<String, Integer>();
+    for (int i = from; i < to; i++) {
+      Transaction tran = blocks.get(i).getTransaction();
+      String source = tran.getSource();
+      String target = tran.getTarget();
+      if (source != null && !source.equals("")) {
+        sums.merge(source, -tran.getAmount(), Integer::sum);
+      } // if
+      if (target != null && !target.equals("")) {
+        sums.merge(target, tran.getAmount(), Integer::sum);
+      } // if
+    } // for
+    return sums;
+  } // deltas(BlockHistory, int, int)
+
+  /**
+   * Add the sums of one range to those of another.
+   *
+   * @param into
+   *   The sums to add to, which we change.
+   * @param from
+   *   The sums to add.
+   *
+   * @return into.
+   */
+  static HashMap<String, Integer> merge(HashMap<String, Integer> into,
+      HashMap<String, Integer> from) {
+    if (into.size() < from.size()) {
+      return merge(from, into);
+    } // if
+    for (Map.Entry<String, Integer> entry : from.entrySet()) {
+      into.merge(entry.getKey(), entry.getValue(), Integer::sum);
+    } // for
+    return into;
+  } // merge(HashMap, HashMap)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Rebuild the balances after some blocks, starting from the balances
+   * before any pruned blocks.
+   *
+   * @param blocks
+   *   The blocks.
+   *
+   * @return the balances after the last block.
+   */
+  AssociativeArray<String, Integer> rebuild(BlockHistory blocks) {
+    int start = Math.max(1, blocks.first());
+    int end = blocks.size();
+    int ranges = (end - start + this.rangeBlocks - 1) / this.rangeBlocks;
+    HashMap<String, Integer> sums = IntStream.range(0, Math.max(0, ranges)).parallel()
+        .mapToObj((r) -> deltas(blocks, start + r * this.rangeBlocks,
+            Math.min(end, start + (r + 1) * this.rangeBlocks)))
+        .reduce(LedgerRebuilder::merge)
+        .orElse(new HashMap<String, Integer>());
+
+    AssociativeArray<String, Integer> ledger = blocks.baseline.clone();
+    try {
+      for (Map.Entry<String, Integer> entry : sums.entrySet()) {
+        String user = entry.getKey();
+        int before = ledger.hasKey(user) ? ledger.get(user) : 0;
+        ledger.set(user, before + entry.getValue());
+      } // for
+    } catch (KeyNotFoundException | NullKeyException e) {
+      // Cannot happen: we check for keys and skip null users
+    } // try/catch
+    return ledger;
+  } // rebuild(BlockHistory)
+
+  /**
+   * Determine if a ledger holds the balances that some blocks call for.
+   * Users missing from either side count as having a balance of 0.
+   *
+   * @param blocks
+   *   The blocks.
+   * @param ledger
+   *   The ledger.
+   *
+   * @return true if every balance matches and false otherwise.
+   */
+  boolean matches(BlockHistory blocks, AssociativeArray<String, Integer> ledger) {
+    AssociativeArray<String, Integer> rebuilt = this.rebuild(blocks);
+    return covers(rebuilt, ledger) && covers(ledger, rebuilt);
+  } // matches(BlockHistory, AssociativeArray)
+
+  /**
+   * Determine if every balance in one ledger is also in another.
+   *
+   * @param from
+   *   The ledger whose balances we check.
+   * @param into
+   *   The ledger we check them against.
+   *
+   * @return true if every balance matches and false otherwise.
+   */
+  static boolean covers(AssociativeArray<String, Integer> from,
+      AssociativeArray<String, Integer> into) {
+    Iterator<String> users = from.keyIterator();
+    try {
+      while (users.hasNext()) {
+        String user = users.next();
+        int expected = into.hasKey(user) ? into.get(user) : 0;
+        if (from.get(user) != expected) {
+          return false;
+        } // if
+      } // while
+    } catch (KeyNotFoundException e) {
+      // Cannot happen: we check for keys
+      return false;
+    } // try/catch
+    return true;
+  } // covers(AssociativeArray, AssociativeArray)
+
+  /**
+   * Rebuild the balances of a snapshot from its blocks.
+   *
+   * @param snap
+   *   The snapshot.
+   *
+   * @return the balances after the last block of the snapshot.
+   */
+  public AssociativeArray<String, Integer> rebuild(ChainSnapshot snap) {
+    return this.rebuild(snap.history);
+  } // rebuild(ChainSnapshot)
+} // class LedgerRebuilder
@@ -0,0 +1,239 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32C;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.KeyNotFoundException;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * The balances of a blockchain at one height, saved to a file so that a
+ * restart can skip replaying the transactions before that height (see
+ * BlockLog.replay). A snapshot file holds
+ *
+ * <pre>
+ *   magic     4 bytes ("LSNP")
+ *   version   int
+ *   height    int
+ *   hash      short length, then bytes
+ *   users     int count, then a UTF name and int balance for each
+ *   checksum  int, the CRC32C of everything before it
+ * </pre>
+ *
+ * and is replaced atomically, so a crash leaves either the old snapshot
+ * or the new one.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class LedgerSnapshot {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every snapshot file ("LSNP").
+   */
+  static final int MAGIC = 0x4C534E50;
+
+  /**
+   * The version of the file format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * Writes snapshots in the background, one at a time.
+   */
+  static final ExecutorService WRITER = Executors.newSingleThreadExecutor((task) -> {
+    Thread thread = new Thread(task, "ledger-snapshot");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The height of the last block the balances include.
+   */
+  int height;
+
+  /**
+   * The hash of that block.
+   */
+  Hash hash;
+
+  /**
+   * The balances after that block.
+   */
+  AssociativeArray<String, Integer> balances;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new snapshot.
+   *
+   * @param last
+   *   The height of the last block the balances include.
+   * @param lastHash
+   *   The hash of that block.
+   * @param ledger
+   *   The balances after that block.
+   */
+  LedgerSnapshot(int last, Hash lastHash, AssociativeArray<String, Integer> ledger) {
+    this.height = last;
+    this.hash = lastHash;
+    this.balances = ledger;
+  } // LedgerSnapshot(int, Hash, AssociativeArray)
+
+  // +----------------+----------------------------------------------
+  // | Static methods |
+  // +----------------+
+
+  /**
+   * Save the balances in a snapshot of a chain.
+   *
+   * @param snap
+   *   The snapshot of the chain.
+   * @param file
+   *   The file to save them in.
+   *
+   * @throws IOException
+   *   If the file cannot be written.
+   */
+  public static void save(ChainSnapshot snap, Path file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(snap.getSize() - 1);
+    byte[] hashBytes = snap.getHash().dataArr;
+    out.writeShort(hashBytes.length);
+    out.write(hashBytes);
+    out.writeInt(snap.balances.size());
+    Iterator<String> users = snap.balances.keyIterator();
+    try {
+      while (users.hasNext()) {
+        String user = users.next();
+        out.writeUTF(user);
+        out.writeInt(snap.balances.get(user));
+      } // while
+    } catch (KeyNotFoundException e) {
+      // Cannot happen: every key has a value
+    } // try/catch
+    CRC32C crc = new CRC32C();
+    crc.update(bytes.toByteArray());
+    out.writeInt((int) crc.getValue());
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(tmp, bytes.toByteArray());
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  } // save(ChainSnapshot, Path)
+
+  /**
+   * Save the balances of a chain as they stand right now, writing the
+   * file in the background. The chain can keep changing while we write.
+   *
+   * @param chain
+   *   The chain.
+   * @param file
+   *   The file to save them in.
+   *
+   * @return a future that completes once the file is written.
+   */
+  public static CompletableFuture<Void> saveInBackground(BlockChain chain, Path file) {
+    ChainSnapshot snap = chain.snapshot();
+    CompletableFuture<Void> done = new CompletableFuture<Void>();
+    WRITER.execute(() -> {
+      try {
+        save(snap, file);
+        done.complete(null);
+      } catch (IOException e) {
+        done.completeExceptionally(e);
+      } // try/catch
+    });
+    return done;
+  } // saveInBackground(BlockChain, Path)
+
+  /**
+   * Load a snapshot.
+   *
+   * @param file
+   *   The file that holds it.
+   *
+   * @return the snapshot, or null if there is none or it is damaged.
+   *
+   * @throws IOException
+   *   If the file exists but cannot be read.
+   */
+  public static LedgerSnapshot load(Path file) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      return null;
+    } // try/catch
+    if (bytes.length < 3 * Integer.BYTES) {
+      return null;
+    } // if
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, 0, bytes.length - Integer.BYTES);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        return null;
+      } // if
+      int last = in.readInt();
+      byte[] hashBytes = new byte[in.readUnsignedShort()];
+      in.readFully(hashBytes);
+      int count = in.readInt();
+      AssociativeArray<String, Integer> ledger = new AssociativeArray<String, Integer>();
+      for (int i = 0; i < count; i++) {
+        ledger.set(in.readUTF(), in.readInt());
+      } // for
+      if (in.readInt() != (int) crc.getValue() || last < 0) {
+        return null;
+      } // if
+      return new LedgerSnapshot(last, new Hash(hashBytes), ledger);
+    } catch (IOException | NullKeyException e) {
+      return null;
+    } // try/catch
+  } // load(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the height of the last block the balances include.
+   *
+   * @return the height.
+   */
+  public int getHeight() {
+    return this.height;
+  } // getHeight()
+
+  /**
+   * Get the hash of the last block the balances include.
+   *
+   * @return the hash.
+   */
+  public Hash getHash() {
+    return this.hash;
+  } // getHash()
+} // class LedgerSnapshot
@@ -0,0 +1,95 @@
+package edu.grinnell.csc207.blockchains;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+import edu.grinnell.csc207.util.NullKeyException;
+
+/**
+ * A record of the balances one block changed, so that we can put them
+ * back when the block is removed.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class LedgerUndo {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most balances a block can change (the source and the target).
+   */
+  static final int MAX_CHANGES = 2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The users whose balances changed, in the order they changed.
+   */
+  String[] users;
+
+  /**
+   * The balance each user had before the change, or null if the user
+   * was not yet in the ledger.
+   */
+  Integer[] previous;
+
+  /**
+   * The number of changes recorded.
+   */
+  int count;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty record.
+   */
+  LedgerUndo() {
+    this.users = new String[MAX_CHANGES];
+    this.previous = new Integer[MAX_CHANGES];
+    this.count = 0;
+  } // LedgerUndo()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Note that a user's balance is about to change.
+   *
+   * @param user
+   *   The user whose balance is changing.
+   * @param prev
+   *   The user's balance before the change, or null if the user is not
+   *   in the ledger.
+   */
+  void record(String user, Integer prev) {
+    this.users[this.count] = user;
+    this.previous[this.count] = prev;
+    this.count++;
+  } // record(String, Integer)
+
+  /**
+   * Put back the balances that the block changed.
+   *
+   * @param ledger
+   *   The ledger to restore, which must be the one the changes were
+   *   made to.
+   */
+  void undo(AssociativeArray<String, Integer> ledger) {
+    // Undo in reverse order, in case the source and target are the same
+    for (int i = this.count - 1; i >= 0; i--) {
+      if (this.previous[i] == null) {
+        ledger.remove(this.users[i]);
+      } else {
+        try {
+          ledger.set(this.users[i], this.previous[i]);
+        } catch (NullKeyException e) {
+          // Cannot happen: we never record null users
+        } // try/catch
+      } // if/else
+    } // for
+  } // undo(AssociativeArray)
+} // class LedgerUndo
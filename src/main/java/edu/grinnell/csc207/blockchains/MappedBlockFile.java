@@ -0,0 +1,599 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-only access to the blocks in a block log (see BlockLog) through
+ * memory-mapped segments of the file. Blocks are decoded straight from
+ * the mapped segments when asked for, rather than loaded onto the heap
+ * up front. An index of record offsets, kept in a file next to the log,
+ * gives random access by height; when opening a log, we read the index
+ * and scan only the records written since it was saved. The index notes
+ * the checksum of the last record it covers, so an index left over from
+ * some other log at the same path is ignored.
+ *
+ * A mapped file is also a cold store for the chain that logs to it.
+ * Sealing a segment writes nothing, since the blocks are already in the
+ * log; we keep only the offsets of their records. A chain that seals
+ * into a mapped file of its own log starts up from the index rather than
+ * from the records (see BlockLog.replay).
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class MappedBlockFile implements ColdStore, Iterable<Transaction>, AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The most bytes we map at once.
+   */
+  static final long SEGMENT_BYTES = 1L << 30;
+
+  /**
+   * The first four bytes of every index file ("BIDX").
+   */
+  static final int INDEX_MAGIC = 0x42494458;
+
+  /**
+   * The version of the index format.
+   */
+  static final int INDEX_VERSION = 2;
+
+  /**
+   * The number of bytes in the header of an index file: the magic
+   * number, the version, the length of the log it covers, the number of
+   * blocks, and the offset and checksum of the last record it covers.
+   */
+  static final int INDEX_HEADER_BYTES = 3 * Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The log file.
+   */
+  Path file;
+
+  /**
+   * The open log file.
+   */
+  FileChannel channel;
+
+  /**
+   * The mapped segments of the log. Segment i starts at byte
+   * i * SEGMENT_BYTES.
+   */
+  ArrayList<MappedByteBuffer> segments;
+
+  /**
+   * The number of bytes of the log that we have mapped and indexed.
+   */
+  long length;
+
+  /**
+   * The offset of the last record we indexed (or -1, if there is none).
+   */
+  long lastRecord;
+
+  /**
+   * The number of bytes of the log that the saved index covers.
+   */
+  long savedLength;
+
+  /**
+   * The offset of the record for each block, by height.
+   */
+  long[] offsets;
+
+  /**
+   * The number of blocks.
+   */
+  int size;
+
+  /**
+   * Decodes the blocks we read.
+   */
+  BlockDecoder decoder;
+
+  /**
+   * For each sealed segment, the offsets of the records for its blocks.
+   * Released segments are null.
+   */
+  ArrayList<long[]> sealed;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a block log for reading.
+   *
+   * @param logFile
+   *   The log.
+   *
+   * @throws IOException
+   *   If the log cannot be opened or is in an older format.
+   */
+  public MappedBlockFile(Path logFile) throws IOException {
+    this.file = logFile;
+    this.channel = FileChannel.open(logFile, StandardOpenOption.READ);
+    ByteBuffer header = ByteBuffer.allocate(BlockLog.HEADER_BYTES);
+    this.channel.read(header, 0);
+    header.flip();
+    if (header.remaining() < BlockLog.HEADER_BYTES || header.getInt() != BlockLog.MAGIC
+        || header.getInt() != BlockLog.VERSION) {
+      this.channel.close();
+      throw new IOException(logFile + " is not a current block log; open it with BlockLog "
+          + "to upgrade it");
+    } // if
+    this.segments = new ArrayList<MappedByteBuffer>();
+    this.offsets = new long[16];
+    this.size = 0;
+    this.decoder = new BlockDecoder();
+    this.sealed = new ArrayList<long[]>();
+    this.length = BlockLog.HEADER_BYTES;
+    this.lastRecord = -1;
+    this.loadIndex();
+    this.savedLength = this.length;
+    if (this.refresh()) {
+      this.saveIndex();
+    } // if
+  } // MappedBlockFile(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the file that holds the index for a log.
+   *
+   * @param logFile
+   *   The log.
+   *
+   * @return the index file.
+   */
+  static Path indexFile(Path logFile) {
+    return logFile.resolveSibling(logFile.getFileName() + ".idx");
+  } // indexFile(Path)
+
+  /**
+   * Load the saved index, if there is one and it fits the log: the log
+   * must still hold, at the same offset, the last record the index
+   * covers.
+   *
+   * @throws IOException
+   *   If the index cannot be read.
+   */
+  private void loadIndex() throws IOException {
+    Path idx = indexFile(this.file);
+    if (!Files.exists(idx)) {
+      return;
+    } // if
+    try (FileChannel in = FileChannel.open(idx, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES);
+      in.read(header, 0);
+      header.flip();
+      if (header.remaining() < INDEX_HEADER_BYTES || header.getInt() != INDEX_MAGIC
+          || header.getInt() != INDEX_VERSION) {
+        return;
+      } // if
+      long covered = header.getLong();
+      int count = header.getInt();
+      long last = header.getLong();
+      int checksum = header.getInt();
+      if (covered > this.channel.size() || count < 0
+          || in.size() != INDEX_HEADER_BYTES + (long) count * Long.BYTES
+          || !this.endsWith(last, checksum, covered)) {
+        return;
+      } // if
+      ByteBuffer entries = in.map(FileChannel.MapMode.READ_ONLY, INDEX_HEADER_BYTES,
+          (long) count * Long.BYTES);
+      long[] loaded = new long[Math.max(16, count)];
+      entries.asLongBuffer().get(loaded, 0, count);
+      this.offsets = loaded;
+      this.size = count;
+      this.length = covered;
+      this.lastRecord = last;
+    } // try
+  } // loadIndex()
+
+  /**
+   * Determine if the log holds an intact record with a particular
+   * checksum that ends where an index says.
+   *
+   * @param last
+   *   The offset of the record (or -1, if the index covers no records).
+   * @param checksum
+   *   The checksum of the record.
+   * @param covered
+   *   Where the record should end.
+   *
+   * @return true if it does and false otherwise.
+   *
+   * @throws IOException
+   *   If the log cannot be read.
+   */
+  private boolean endsWith(long last, int checksum, long covered) throws IOException {
+    if (last < 0) {
+      return covered == BlockLog.HEADER_BYTES;
+    } // if
+    ByteBuffer rec = BlockLog.readRecord(this.channel, last);
+    return (rec != null) && (last + BlockLog.RECORD_HEADER_BYTES + rec.limit() - 1 == covered)
+        && (this.checksum(last) == checksum);
+  } // endsWith(long, int, long)
+
+  /**
+   * Read the checksum from the header of a record, straight from the
+   * file.
+   *
+   * @param position
+   *   The position of the record.
+   *
+   * @return the checksum.
+   *
+   * @throws IOException
+   *   If the log cannot be read.
+   */
+  private int checksum(long position) throws IOException {
+    ByteBuffer field = ByteBuffer.allocate(Integer.BYTES);
+    this.channel.read(field, position + Integer.BYTES);
+    return field.flip().getInt();
+  } // checksum(long)
+
+  /**
+   * Copy bytes from the mapped segments.
+   *
+   * @param offset
+   *   The offset in the log of the first byte.
+   * @param dest
+   *   Where to put the bytes; we fill it.
+   */
+  private void read(long offset, byte[] dest) {
+    int done = 0;
+    while (done < dest.length) {
+      long position = offset + done;
+      MappedByteBuffer segment = this.segments.get((int) (position / SEGMENT_BYTES));
+      int start = (int) (position % SEGMENT_BYTES);
+      int count = Math.min(dest.length - done, segment.limit() - start);
+      segment.get(start, dest, done, count);
+      done += count;
+    } // while
+  } // read(long, byte[])
+
+  /**
+   * Map the log up to a particular length.
+   *
+   * @param newLength
+   *   The number of bytes to map.
+   *
+   * @throws IOException
+   *   If the log cannot be mapped.
+   */
+  private void map(long newLength) throws IOException {
+    int needed = (int) ((newLength + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+    // The last segment may have grown, so map it again
+    if (!this.segments.isEmpty()) {
+      this.segments.remove(this.segments.size() - 1);
+    } // if
+    for (int i = this.segments.size(); i < needed; i++) {
+      long start = i * SEGMENT_BYTES;
+      this.segments.add(this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(SEGMENT_BYTES, newLength - start)));
+    } // for
+  } // map(long)
+
+  /**
+   * Read the record at a position in the mapped log.
+   *
+   * @param position
+   *   The position of the record.
+   * @param end
+   *   The end of the mapped log.
+   *
+   * @return the type of the record followed by its body, or null if
+   *   there is no complete, correct record at that position.
+   */
+  private ByteBuffer readRecord(long position, long end) {
+    if (position + BlockLog.RECORD_HEADER_BYTES > end) {
+      return null;
+    } // if
+    byte[] header = new byte[BlockLog.RECORD_HEADER_BYTES];
+    this.read(position, header);
+    ByteBuffer fields = ByteBuffer.wrap(header);
+    int bodyLength = fields.getInt();
+    int checksum = fields.getInt();
+    if (bodyLength < 0 || bodyLength > BlockLog.MAX_RECORD_BYTES
+        || position + BlockLog.RECORD_HEADER_BYTES + bodyLength > end) {
+      return null;
+    } // if
+    byte[] rec = new byte[1 + bodyLength];
+    this.read(position + BlockLog.RECORD_HEADER_BYTES - 1, rec);
+    CRC32C crc = new CRC32C();
+    crc.update(rec);
+    return ((int) crc.getValue() == checksum) ? ByteBuffer.wrap(rec) : null;
+  } // readRecord(long, long)
+
+  /**
+   * Decode the block in the record at a position in the mapped log.
+   *
+   * @param position
+   *   The position of the record.
+   *
+   * @return the block, or null if the record is torn, short, or corrupt.
+   *
+   * @throws IOException
+   *   If the record does not hold a block.
+   */
+  private Block decode(long position) throws IOException {
+    ByteBuffer rec = this.readRecord(position, this.length);
+    if (rec == null) {
+      return null;
+    } // if
+    rec.get();
+    return this.decoder.decode(rec);
+  } // decode(long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Pick up any records written to the log since we last looked.
+   *
+   * @return true if we found new records and false otherwise.
+   *
+   * @throws IOException
+   *   If the log cannot be mapped.
+   */
+  public synchronized boolean refresh() throws IOException {
+    long end = this.channel.size();
+    this.map(end);
+    long position = this.length;
+    ByteBuffer rec;
+    while ((rec = this.readRecord(position, end)) != null) {
+      if (rec.get() == BlockLog.BLOCK_RECORD) {
+        int height = (int) BlockDecoder.getVarint(rec.position(2));
+        if (height >= this.offsets.length) {
+          this.offsets = Arrays.copyOf(this.offsets, Math.max(height + 1, this.offsets.length * 2));
+        } // if
+        this.offsets[height] = position;
+        this.size = height + 1;
+      } else {
+        this.size = Math.min(this.size, rec.getInt());
+      } // if/else
+      this.lastRecord = position;
+      position += BlockLog.RECORD_HEADER_BYTES + rec.limit() - 1;
+    } // while
+    boolean found = position > this.length;
+    this.length = position;
+    return found;
+  } // refresh()
+
+  /**
+   * Save the index next to the log, so that the next open can skip the
+   * records it covers.
+   *
+   * @throws IOException
+   *   If the index cannot be saved.
+   */
+  public synchronized void saveIndex() throws IOException {
+    Path idx = indexFile(this.file);
+    Path tmp = idx.resolveSibling(idx.getFileName() + ".tmp");
+    ByteBuffer out = ByteBuffer.allocate(INDEX_HEADER_BYTES + this.size * Long.BYTES);
+    out.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putLong(this.length).putInt(this.size);
+    out.putLong(this.lastRecord).putInt((this.lastRecord < 0) ? 0 : this.checksum(this.lastRecord));
+    out.asLongBuffer().put(this.offsets, 0, this.size);
+    out.rewind();
+    try (FileChannel channelOut = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (out.hasRemaining()) {
+        channelOut.write(out);
+      } // while
+    } // try
+    Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    this.savedLength = this.length;
+  } // saveIndex()
+
+  /**
+   * Get the number of blocks in the log.
+   *
+   * @return the number of blocks, including the initial block.
+   */
+  public synchronized int getSize() {
+    return this.size;
+  } // getSize()
+
+  /**
+   * Get the block at a particular height.
+   *
+   * @param height
+   *   The number of the block.
+   *
+   * @return the block.
+   *
+   * @throws IndexOutOfBoundsException
+   *   If the log has no block at that height.
+   * @throws UncheckedIOException
+   *   If the record for the block is torn, short, or corrupt, as when
+   *   the log was changed under us.
+   */
+  public synchronized Block getBlock(int height) {
+    if (height < 0 || height >= this.size) {
+      throw new IndexOutOfBoundsException(height);
+    } // if
+    Block blk;
+    try {
+      blk = this.decode(this.offsets[height]);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } // try/catch
+    if (blk == null) {
+      throw new UncheckedIOException(new IOException("Bad record for block " + height
+          + " at offset " + this.offsets[height] + " of " + this.file));
+    } // if
+    return blk;
+  } // getBlock(int)
+
+  /**
+   * Get the blocks from one height (inclusive) to another (exclusive).
+   * The list reads each block from the log whenever asked for it.
+   *
+   * @param from
+   *   The height of the first block.
+   * @param to
+   *   The height just past the last block.
+   *
+   * @return the blocks.
+   */
+  List<Block> blocks(int from, int to) {
+    return new AbstractList<Block>() {
+      public Block get(int index) {
+        return getBlock(from + index);
+      } // get(int)
+
+      public int size() {
+        return to - from;
+      } // size()
+    };
+  } // blocks(int, int)
+
+  /**
+   * Seal blocks into a new segment. The blocks must already be in the
+   * log, as they are once the chain that logs to it has added them, so
+   * we note only where they are.
+   *
+   * @param blks
+   *   The blocks, in order.
+   *
+   * @return an identifier for the segment.
+   *
+   * @throws IOException
+   *   If the log does not end with those blocks at their heights.
+   */
+  public synchronized int seal(List<Block> blks) throws IOException {
+    this.refresh();
+    int first = blks.get(0).getNum();
+    int last = first + blks.size() - 1;
+    // Each hash covers the one before it, so the last block vouches for the rest
+    Block found = (last < this.size) ? this.decode(this.offsets[last]) : null;
+    if (found == null || !found.getHash().equals(blks.get(blks.size() - 1).getHash())) {
+      throw new IOException("blocks " + first + " to " + last + " are not in " + this.file);
+    } // if
+    this.sealed.add(Arrays.copyOfRange(this.offsets, first, last + 1));
+    return this.sealed.size() - 1;
+  } // seal(List<Block>)
+
+  /**
+   * Read a block back from a segment. The log never changes the records
+   * we noted, so the segment still reads the same blocks after the
+   * chain rolls back past them and logs others at the same heights.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   * @param index
+   *   The position of the block within the segment.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the segment was released or the record cannot be read.
+   */
+  public synchronized Block read(int segment, int index) throws IOException {
+    long[] positions = this.sealed.get(segment);
+    if (positions == null) {
+      throw new IOException("segment " + segment + " was released");
+    } // if
+    Block blk = this.decode(positions[index]);
+    if (blk == null) {
+      throw new IOException("Bad record at offset " + positions[index] + " of " + this.file);
+    } // if
+    return blk;
+  } // read(int, int)
+
+  /**
+   * Release a segment. The blocks stay in the log; we forget only where
+   * they are.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   */
+  public synchronized void release(int segment) {
+    this.sealed.set(segment, null);
+  } // release(int)
+
+  /**
+   * Get an interator for all the blocks in the log.
+   *
+   * @return an iterator for all the blocks.
+   */
+  public Iterator<Block> blocks() {
+    int end = this.getSize();
+    return new Iterator<Block>() {
+      private int current = 0;
+
+      public boolean hasNext() {
+        return current < end;
+      } // hasNext()
+
+      public Block next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return getBlock(current++);
+      } // next()
+    };
+  } // blocks()
+
+  /**
+   * Get an interator for all the transactions in the log.
+   *
+   * @return an iterator for all the transactions.
+   */
+  public Iterator<Transaction> iterator() {
+    Iterator<Block> blocks = this.blocks();
+    return new Iterator<Transaction>() {
+      public boolean hasNext() {
+        return blocks.hasNext();
+      } // hasNext()
+
+      public Transaction next() {
+        return blocks.next().getTransaction();
+      } // next()
+    };
+  } // iterator()
+
+  /**
+   * Close the log, saving the index first if it covers more than the
+   * saved one, so that the next open starts from here.
+   *
+   * @throws IOException
+   *   If the index cannot be saved or the log cannot be closed.
+   */
+  public synchronized void close() throws IOException {
+    try {
+      if (this.channel.isOpen() && this.length != this.savedLength) {
+        this.saveIndex();
+      } // if
+    } finally {
+      this.segments.clear();
+      this.channel.close();
+    } // try/finally
+  } // close()
+} // class MappedBlockFile
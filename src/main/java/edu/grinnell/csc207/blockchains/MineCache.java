@@ -0,0 +1,139 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The nonces of recently mined blocks, keyed by what went into mining
+ * them: the number of the block, its transaction, its time, and the
+ * hash of the block before it. A block that matches an entry needs only
+ * one hash to check, rather than mining it again. The cache holds a
+ * fixed number of entries, evicting the least recently used first.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class MineCache {
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * What went into mining a block.
+   */
+  static class Key {
+    /**
+     * The number of the block.
+     */
+    int num;
+
+    /**
+     * The transaction of the block.
+     */
+    Transaction transaction;
+
+    /**
+     * The time of the block.
+     */
+    long timestamp;
+
+    /**
+     * The hash of the block before it.
+     */
+    Hash prevHash;
+
+    /**
+     * Get the key for a block.
+     *
+     * @param blk
+     *   The block.
+     */
+    Key(Block blk) {
+      this.num = blk.getNum();
+      this.transaction = blk.getTransaction();
+      this.timestamp = blk.getTimestamp();
+      this.prevHash = blk.getPrevHash();
+    } // Key(Block)
+
+    /**
+     * Determine if this key equals another object.
+     *
+     * @param other
+     *   The object to compare to.
+     *
+     * @return true if the other object is a key for the same block and
+     *   false otherwise.
+     */
+    public boolean equals(Object other) {
+      return (other instanceof Key)
+          && ((Key) other).num == this.num
+          && ((Key) other).timestamp == this.timestamp
+          && ((Key) other).transaction.equals(this.transaction)
+          && ((Key) other).prevHash.equals(this.prevHash);
+    } // equals(Object)
+
+    /**
+     * Get the hash code of this key.
+     *
+     * @return the hash code.
+     */
+    public int hashCode() {
+      return ((31 * this.num + this.transaction.hashCode()) * 31
+          + Long.hashCode(this.timestamp)) * 31 + this.prevHash.hashCode();
+    } // hashCode()
+  } // class Key
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The nonces, least recently used first.
+   */
+  LinkedHashMap<Key, Long> nonces;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty cache.
+   *
+   * @param capacity
+   *   The most nonces to keep.
+   */
+  MineCache(int capacity) {
+    this.nonces = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+        return this.size() > capacity;
+      } // removeEldestEntry(Map.Entry)
+    };
+  } // MineCache(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Remember the nonce of a block we just mined.
+   *
+   * @param blk
+   *   The block.
+   */
+  synchronized void add(Block blk) {
+    this.nonces.put(new Key(blk), blk.getNonce());
+  } // add(Block)
+
+  /**
+   * Determine if a block has the nonce we found when we mined it.
+   *
+   * @param blk
+   *   The block.
+   *
+   * @return true if we mined the block and it has the same nonce, and
+   *   false otherwise.
+   */
+  synchronized boolean wasMined(Block blk) {
+    Long nonce = this.nonces.get(new Key(blk));
+    return (nonce != null) && (nonce == blk.getNonce());
+  } // wasMined(Block)
+} // class MineCache
@@ -0,0 +1,246 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A cold store that keeps sealed blocks encoded (see BlockEncoder) in
+ * direct buffers, outside the garbage-collected heap. The heap holds only
+ * the buffers themselves and, for each segment, an array of offsets, so
+ * the collector has nothing more to scan as the chain grows. Blocks are
+ * decoded into objects only when read, and are not kept; put a
+ * BlockCache in front of the store to keep the blocks read most often.
+ *
+ * Once every segment with blocks in a buffer has been released, we keep
+ * the buffer to fill again (up to SPARE_SLABS of them) or drop it, so
+ * that the collector can free its memory.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class OffHeapStore implements ColdStore {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The default size of each direct buffer.
+   */
+  static final int DEFAULT_SLAB_BYTES = 16 * 1024 * 1024;
+
+  /**
+   * The most empty buffers we keep to fill again.
+   */
+  static final int SPARE_SLABS = 2;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The direct buffers that hold encoded blocks, or null for buffers we
+   * have given up. Only the last one has room for more.
+   */
+  ArrayList<ByteBuffer> slabs;
+
+  /**
+   * For each buffer, the number of segments with blocks in it that have
+   * not been released.
+   */
+  ArrayList<Integer> users;
+
+  /**
+   * Empty buffers, ready to fill again.
+   */
+  ArrayDeque<ByteBuffer> spares;
+
+  /**
+   * The number of bytes used in the last buffer.
+   */
+  int used;
+
+  /**
+   * The size of each buffer.
+   */
+  int slabBytes;
+
+  /**
+   * For each segment, where each of its blocks starts: the index of its
+   * buffer in the high 32 bits and its position in that buffer in the
+   * low 32 bits. Released segments are null.
+   */
+  ArrayList<long[]> segments;
+
+  /**
+   * The total number of bytes in the buffers.
+   */
+  long bytes;
+
+  /**
+   * Encodes the blocks we seal.
+   */
+  BlockEncoder encoder;
+
+  /**
+   * Decodes the blocks we read, one decoder for each thread, so that
+   * reads reuse their buffers.
+   */
+  ThreadLocal<BlockDecoder> decoders;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new, empty store.
+   */
+  public OffHeapStore() {
+    this(DEFAULT_SLAB_BYTES);
+  } // OffHeapStore()
+
+  /**
+   * Create a new, empty store that allocates buffers of a particular
+   * size.
+   *
+   * @param slabSize
+   *   The size of each buffer, in bytes.
+   */
+  public OffHeapStore(int slabSize) {
+    this.slabs = new ArrayList<ByteBuffer>();
+    this.users = new ArrayList<Integer>();
+    this.spares = new ArrayDeque<ByteBuffer>();
+    this.slabBytes = slabSize;
+    this.used = 0;
+    this.segments = new ArrayList<long[]>();
+    this.bytes = 0;
+    this.encoder = new BlockEncoder();
+    this.decoders = ThreadLocal.withInitial(BlockDecoder::new);
+  } // OffHeapStore(int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Start a new buffer, reusing a spare one if it is big enough.
+   *
+   * @param length
+   *   The length of the block that must fit in the buffer.
+   */
+  private void startSlab(int length) {
+    ByteBuffer slab = this.spares.poll();
+    if (slab == null || slab.capacity() < length) {
+      if (slab != null) {
+        this.bytes -= slab.capacity();
+      } // if
+      slab = ByteBuffer.allocateDirect(Math.max(this.slabBytes, length));
+      this.bytes += slab.capacity();
+    } // if
+    this.slabs.add(slab);
+    this.users.add(0);
+    this.used = 0;
+  } // startSlab(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Seal blocks into a new segment.
+   *
+   * @param blks
+   *   The blocks, in order.
+   *
+   * @return an identifier for the segment.
+   */
+  public synchronized int seal(List<Block> blks) {
+    long[] starts = new long[blks.size()];
+    for (int i = 0; i < starts.length; i++) {
+      ByteBuffer encoded = this.encoder.encode(blks.get(i));
+      int length = encoded.remaining();
+      if (this.slabs.isEmpty()
+          || this.used + length > this.slabs.get(this.slabs.size() - 1).capacity()) {
+        this.startSlab(length);
+      } // if
+      int slab = this.slabs.size() - 1;
+      if (i == 0 || (int) (starts[i - 1] >>> Integer.SIZE) != slab) {
+        this.users.set(slab, this.users.get(slab) + 1);
+      } // if
+      this.slabs.get(slab).put(this.used, encoded, encoded.position(), length);
+      starts[i] = ((long) slab << Integer.SIZE) | this.used;
+      this.used += length;
+    } // for
+    this.segments.add(starts);
+    return this.segments.size() - 1;
+  } // seal(List<Block>)
+
+  /**
+   * Decode a block from a segment.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   * @param index
+   *   The position of the block within the segment.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the block cannot be decoded.
+   */
+  public Block read(int segment, int index) throws IOException {
+    ByteBuffer src;
+    synchronized (this) {
+      long[] starts = this.segments.get(segment);
+      if (starts == null) {
+        throw new IOException("segment " + segment + " has been released");
+      } // if
+      long start = starts[index];
+      src = this.slabs.get((int) (start >>> Integer.SIZE)).duplicate();
+      src.position((int) start);
+    } // synchronized
+    return this.decoders.get().decode(src);
+  } // read(int, int)
+
+  /**
+   * Release a segment, giving up the buffers that only it used.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   */
+  public synchronized void release(int segment) {
+    long[] starts = this.segments.set(segment, null);
+    if (starts == null) {
+      return;
+    } // if
+    int last = -1;
+    for (long start : starts) {
+      int slab = (int) (start >>> Integer.SIZE);
+      if (slab == last) {
+        continue;
+      } // if
+      last = slab;
+      int remaining = this.users.get(slab) - 1;
+      this.users.set(slab, remaining);
+      // Leave the buffer we are filling, which later segments will use
+      if (remaining == 0 && slab != this.slabs.size() - 1) {
+        ByteBuffer empty = this.slabs.set(slab, null);
+        if (this.spares.size() < SPARE_SLABS) {
+          this.spares.add(empty);
+        } else {
+          this.bytes -= empty.capacity();
+        } // if/else
+      } // if
+    } // for
+  } // release(int)
+
+  /**
+   * Get the number of bytes the store has allocated outside the heap.
+   *
+   * @return the number of bytes.
+   */
+  public synchronized long bytes() {
+    return this.bytes;
+  } // bytes()
+} // class OffHeapStore
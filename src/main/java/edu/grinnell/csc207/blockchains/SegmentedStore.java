@@ -0,0 +1,501 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A cold store that keeps each segment in its own file in a directory.
+ * A segment file holds
+ *
+ * <pre>
+ *   magic       4 bytes ("BSEG")
+ *   count       int, the number of blocks
+ *   compressed  byte, 1 if the frames are compressed and 0 if not
+ *   frames      the blocks, in frames of up to `frameBlocks` blocks, each
+ *               frame written by BlockEncoder.write and, if compressed,
+ *               deflated on its own
+ * </pre>
+ *
+ * Uncompressed segments have one block per frame and compressed ones
+ * have FRAME_BLOCKS, so that reading a block reads and inflates only
+ * its own frame. Compressed frames share a preset dictionary of the
+ * user names that were most common in the first segment sealed, since
+ * names repeat from block to block. We keep only the last frame we
+ * decoded, so that reading the blocks of a frame in turn inflates it
+ * once; to keep more blocks in memory, put a BlockCache in front of the
+ * store.
+ *
+ * Segment files are derived from the chain (whose log holds every
+ * block), so each store keeps its segments in a new subdirectory of its
+ * own, which it deletes when closed, and never touches other files. For
+ * the same reason, the dictionary and the index of where each frame
+ * starts live only in memory.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class SegmentedStore implements ColdStore, AutoCloseable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every segment file ("BSEG").
+   */
+  static final int MAGIC = 0x42534547;
+
+  /**
+   * The suffix of segment files.
+   */
+  static final String SUFFIX = ".seg";
+
+  /**
+   * The most bytes of user names in the dictionary.
+   */
+  static final int DICTIONARY_BYTES = 4096;
+
+  /**
+   * The size of the buffer we compress and decompress through.
+   */
+  static final int BUFFER_BYTES = 8192;
+
+  /**
+   * The number of blocks in each compressed frame.
+   */
+  static final int FRAME_BLOCKS = 16;
+
+  /**
+   * The number of ints in the index for each frame: its position in the
+   * file, its length there, its length before compression, and the
+   * CRC32C of the bytes in the file.
+   */
+  static final int FRAME_FIELDS = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The directory that holds the segments, which belongs to this store.
+   */
+  Path dir;
+
+  /**
+   * The identifier of the next segment.
+   */
+  int next;
+
+  /**
+   * The number of blocks in each frame.
+   */
+  int frameBlocks;
+
+  /**
+   * For each segment we have not released, FRAME_FIELDS ints for each of
+   * its frames.
+   */
+  HashMap<Integer, int[]> frames;
+
+  /**
+   * The segment and frame of the last frame we decoded (see
+   * BlockCache.key), or -1 if there is none.
+   */
+  long lastKey;
+
+  /**
+   * The blocks of the last frame we decoded (or null, if there is none).
+   */
+  Block[] lastFrame;
+
+  /**
+   * Compresses frames (or null, if we do not compress them).
+   */
+  Deflater deflater;
+
+  /**
+   * Decompresses frames.
+   */
+  Inflater inflater;
+
+  /**
+   * The dictionary for compressed frames (or null, until we seal the
+   * first one).
+   */
+  byte[] dictionary;
+
+  /**
+   * The blocks of the frame we are sealing, before compression.
+   */
+  ByteArrayOutputStream encoded;
+
+  /**
+   * The blocks of the frame we are loading, after decompression.
+   */
+  byte[] decompressed;
+
+  /**
+   * A buffer for compressed bytes.
+   */
+  byte[] buffer;
+
+  /**
+   * Decodes the blocks we load.
+   */
+  BlockDecoder decoder;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a new store of uncompressed segments.
+   *
+   * @param parent
+   *   The directory in which to make the directory for the segments,
+   *   which we create if necessary.
+   *
+   * @throws IOException
+   *   If the directories cannot be created.
+   */
+  public SegmentedStore(Path parent) throws IOException {
+    this(parent, false);
+  } // SegmentedStore(Path)
+
+  /**
+   * Open a new store.
+   *
+   * @param parent
+   *   The directory in which to make the directory for the segments,
+   *   which we create if necessary.
+   * @param compress
+   *   Whether or not to compress the segments.
+   *
+   * @throws IOException
+   *   If the directories cannot be created.
+   */
+  public SegmentedStore(Path parent, boolean compress) throws IOException {
+    Files.createDirectories(parent);
+    this.dir = Files.createTempDirectory(parent, "segments-");
+    this.next = 0;
+    this.frameBlocks = compress ? FRAME_BLOCKS : 1;
+    this.frames = new HashMap<Integer, int[]>();
+    this.lastKey = -1;
+    this.lastFrame = null;
+    this.deflater = compress ? new Deflater() : null;
+    this.inflater = new Inflater();
+    this.encoded = new ByteArrayOutputStream();
+    this.decompressed = new byte[BUFFER_BYTES];
+    this.buffer = new byte[BUFFER_BYTES];
+    this.decoder = new BlockDecoder();
+  } // SegmentedStore(Path, boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the file that holds a segment.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   *
+   * @return the file.
+   */
+  Path segmentFile(int segment) {
+    return this.dir.resolve(segment + SUFFIX);
+  } // segmentFile(int)
+
+  /**
+   * Build a dictionary of the user names that appear most often in some
+   * blocks. Each name appears as BlockEncoder writes it, length first,
+   * and the most common names come last, where Deflater finds them most
+   * cheaply.
+   *
+   * @param blks
+   *   The blocks.
+   *
+   * @return the dictionary.
+   */
+  static byte[] dictionary(List<Block> blks) {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    for (Block blk : blks) {
+      counts.merge(blk.getTransaction().getSource(), 1, Integer::sum);
+      counts.merge(blk.getTransaction().getTarget(), 1, Integer::sum);
+    } // for
+    ArrayList<String> names = new ArrayList<String>(counts.keySet());
+    names.sort((x, y) -> counts.get(y) - counts.get(x));
+
+    ArrayList<byte[]> chosen = new ArrayList<byte[]>();
+    int total = 0;
+    for (String name : names) {
+      byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+      // Longer names would need a longer length prefix; leave them out
+      if (bytes.length > 0 && bytes.length < 0x80
+          && total + 1 + bytes.length <= DICTIONARY_BYTES) {
+        chosen.add(bytes);
+        total += 1 + bytes.length;
+      } // if
+    } // for
+    ByteBuffer dict = ByteBuffer.allocate(total);
+    for (int i = chosen.size() - 1; i >= 0; i--) {
+      dict.put((byte) chosen.get(i).length).put(chosen.get(i));
+    } // for
+    return dict.array();
+  } // dictionary(List<Block>)
+
+  /**
+   * Compress the encoded blocks of a frame.
+   *
+   * @param out
+   *   Where to write the compressed blocks.
+   *
+   * @throws IOException
+   *   If the blocks cannot be written.
+   */
+  private void compress(OutputStream out) throws IOException {
+    this.deflater.reset();
+    this.deflater.setDictionary(this.dictionary);
+    this.deflater.setInput(this.encoded.toByteArray());
+    this.deflater.finish();
+    while (!this.deflater.finished()) {
+      int count = this.deflater.deflate(this.buffer);
+      out.write(this.buffer, 0, count);
+    } // while
+  } // compress(OutputStream)
+
+  /**
+   * Decompress the blocks of a frame into `decompressed`.
+   *
+   * @param bytes
+   *   The compressed frame.
+   * @param length
+   *   The length of the blocks after decompression.
+   *
+   * @throws IOException
+   *   If the blocks cannot be decompressed.
+   */
+  private void decompress(byte[] bytes, int length) throws IOException {
+    if (this.decompressed.length < length) {
+      this.decompressed = new byte[Math.max(length, this.decompressed.length * 2)];
+    } // if
+    this.inflater.reset();
+    this.inflater.setInput(bytes);
+    int done = 0;
+    try {
+      while (done < length && !this.inflater.finished()) {
+        int count = this.inflater.inflate(this.decompressed, done, length - done);
+        if (count == 0 && this.inflater.needsDictionary() && this.dictionary != null) {
+          this.inflater.setDictionary(this.dictionary);
+        } else if (count == 0
+            && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+          break;
+        } // if/else
+        done += count;
+      } // while
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } // try/catch
+    if (done != length) {
+      throw new IOException("compressed blocks are damaged");
+    } // if
+  } // decompress(byte[], int)
+
+  /**
+   * Load a frame from its segment file.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   * @param frame
+   *   The number of the frame within the segment.
+   *
+   * @return the blocks in the frame.
+   *
+   * @throws IOException
+   *   If the frame cannot be read or is damaged.
+   */
+  private Block[] load(int segment, int frame) throws IOException {
+    int[] index = this.frames.get(segment);
+    if (index == null) {
+      throw new IOException("segment " + segment + " has been released");
+    } // if
+    int at = frame * FRAME_FIELDS;
+    byte[] bytes = new byte[index[at + 1]];
+    ByteBuffer into = ByteBuffer.wrap(bytes);
+    try (FileChannel in = FileChannel.open(this.segmentFile(segment),
+        StandardOpenOption.READ)) {
+      while (into.hasRemaining()) {
+        if (in.read(into, index[at] + into.position()) < 0) {
+          throw new IOException("segment " + segment + " is damaged");
+        } // if
+      } // while
+    } // try
+    CRC32C crc = new CRC32C();
+    crc.update(bytes);
+    if ((int) crc.getValue() != index[at + 3]) {
+      throw new IOException("segment " + segment + " is damaged");
+    } // if
+    ByteBuffer blocks;
+    if (this.deflater == null) {
+      blocks = ByteBuffer.wrap(bytes);
+    } else {
+      this.decompress(bytes, index[at + 2]);
+      blocks = ByteBuffer.wrap(this.decompressed, 0, index[at + 2]);
+    } // if/else
+    ArrayList<Block> blks = new ArrayList<Block>(this.frameBlocks);
+    try {
+      while (blocks.hasRemaining()) {
+        // Skip the length, which decode does not need
+        BlockDecoder.getVarint(blocks);
+        blks.add(this.decoder.decode(blocks));
+      } // while
+    } catch (BufferUnderflowException e) {
+      throw new IOException("segment " + segment + " is damaged");
+    } // try/catch
+    return blks.toArray(new Block[blks.size()]);
+  } // load(int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Seal blocks into a new segment file.
+   *
+   * @param blks
+   *   The blocks, in order.
+   *
+   * @return an identifier for the segment.
+   *
+   * @throws IOException
+   *   If the file cannot be written.
+   */
+  public synchronized int seal(List<Block> blks) throws IOException {
+    if (this.deflater != null && this.dictionary == null) {
+      this.dictionary = dictionary(blks);
+    } // if
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(blks.size());
+    out.writeByte((this.deflater == null) ? 0 : 1);
+
+    int frameCount = (blks.size() + this.frameBlocks - 1) / this.frameBlocks;
+    int[] index = new int[frameCount * FRAME_FIELDS];
+    BlockEncoder encoder = new BlockEncoder(this.encoded);
+    for (int frame = 0; frame < frameCount; frame++) {
+      this.encoded.reset();
+      int first = frame * this.frameBlocks;
+      for (Block blk : blks.subList(first, Math.min(first + this.frameBlocks, blks.size()))) {
+        encoder.write(blk);
+      } // for
+      int at = frame * FRAME_FIELDS;
+      index[at] = bytes.size();
+      if (this.deflater == null) {
+        this.encoded.writeTo(out);
+      } else {
+        this.compress(out);
+      } // if/else
+      index[at + 1] = bytes.size() - index[at];
+      index[at + 2] = this.encoded.size();
+    } // for
+    byte[] contents = bytes.toByteArray();
+    for (int at = 0; at < index.length; at += FRAME_FIELDS) {
+      CRC32C crc = new CRC32C();
+      crc.update(contents, index[at], index[at + 1]);
+      index[at + 3] = (int) crc.getValue();
+    } // for
+
+    int segment = this.next;
+    Files.write(this.segmentFile(segment), contents);
+    this.frames.put(segment, index);
+    this.next++;
+    return segment;
+  } // seal(List<Block>)
+
+  /**
+   * Read a block back from a segment.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   * @param index
+   *   The position of the block within the segment.
+   *
+   * @return the block.
+   *
+   * @throws IOException
+   *   If the segment cannot be read or is damaged.
+   */
+  public synchronized Block read(int segment, int index) throws IOException {
+    long key = BlockCache.key(segment, index / this.frameBlocks);
+    if (key != this.lastKey) {
+      this.lastFrame = this.load(segment, index / this.frameBlocks);
+      this.lastKey = key;
+    } // if
+    return this.lastFrame[index % this.frameBlocks];
+  } // read(int, int)
+
+  /**
+   * Release a segment, deleting its file.
+   *
+   * @param segment
+   *   The identifier of the segment.
+   *
+   * @throws IOException
+   *   If the file cannot be deleted.
+   */
+  public synchronized void release(int segment) throws IOException {
+    if (this.frames.remove(segment) == null) {
+      return;
+    } // if
+    if ((int) (this.lastKey >>> Integer.SIZE) == segment) {
+      this.lastKey = -1;
+      this.lastFrame = null;
+    } // if
+    Files.deleteIfExists(this.segmentFile(segment));
+  } // release(int)
+
+  /**
+   * Get the number of segments we have not released.
+   *
+   * @return the number of segments.
+   */
+  public synchronized int segments() {
+    return this.frames.size();
+  } // segments()
+
+  /**
+   * Delete every segment and the directory that held them. The store
+   * cannot be used afterwards.
+   *
+   * @throws IOException
+   *   If a file cannot be deleted.
+   */
+  public synchronized void close() throws IOException {
+    for (int segment : this.frames.keySet()) {
+      Files.deleteIfExists(this.segmentFile(segment));
+    } // for
+    this.frames.clear();
+    this.lastKey = -1;
+    this.lastFrame = null;
+    this.inflater.end();
+    if (this.deflater != null) {
+      this.deflater.end();
+    } // if
+    Files.deleteIfExists(this.dir);
+  } // close()
+} // class SegmentedStore
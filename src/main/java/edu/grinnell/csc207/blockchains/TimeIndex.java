@@ -0,0 +1,126 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+/**
+ * A sparse index from times to heights. Every `STRIDE` blocks, we note
+ * the latest time of any block so far. Times never go backwards along
+ * a chain (blocks without a time aside), so those notes are in order,
+ * and a binary search finds a height before which every block is too
+ * early for a query.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class TimeIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The number of blocks between notes.
+   */
+  static final int STRIDE = 64;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The latest time at or before each height that is a multiple of
+   * `STRIDE` (or 0, if no block so far has a time).
+   */
+  long[] marks;
+
+  /**
+   * The number of notes in `marks`.
+   */
+  int count;
+
+  /**
+   * The number of blocks indexed.
+   */
+  int size;
+
+  /**
+   * The latest time of any block indexed (or 0, if none has a time).
+   */
+  long latest;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an empty index.
+   */
+  TimeIndex() {
+    this.marks = new long[16];
+    this.count = 0;
+    this.size = 0;
+    this.latest = 0;
+  } // TimeIndex()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Index the next block.
+   *
+   * @param blk
+   *   The block, which must not be earlier than the latest time.
+   */
+  void add(Block blk) {
+    this.latest = Math.max(this.latest, blk.getTimestamp());
+    if (this.size % STRIDE == 0) {
+      if (this.count == this.marks.length) {
+        this.marks = Arrays.copyOf(this.marks, this.count * 2);
+      } // if
+      this.marks[this.count++] = this.latest;
+    } // if
+    this.size++;
+  } // add(Block)
+
+  /**
+   * Forget the blocks past some height, after the history has already
+   * removed them.
+   *
+   * @param blocks
+   *   The history.
+   * @param newSize
+   *   The number of blocks that remain.
+   */
+  void truncate(BlockHistory blocks, int newSize) {
+    this.count = (newSize + STRIDE - 1) / STRIDE;
+    this.size = newSize;
+    this.latest = (this.count > 0) ? this.marks[this.count - 1] : 0;
+    for (int h = Math.max(0, (this.count - 1) * STRIDE + 1); h < newSize; h++) {
+      long time = (h < blocks.first()) ? blocks.header(h).getTimestamp()
+          : blocks.get(h).getTimestamp();
+      this.latest = Math.max(this.latest, time);
+    } // for
+  } // truncate(BlockHistory, int)
+
+  /**
+   * Find a height before which every block is earlier than some time.
+   *
+   * @param time
+   *   The time, in milliseconds since the epoch.
+   *
+   * @return the height.
+   */
+  int start(long time) {
+    // Find the last note earlier than the time
+    int lo = 0;
+    int hi = this.count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.marks[mid] < time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      } // if/else
+    } // while
+    return (lo == 0) ? 0 : (lo - 1) * STRIDE;
+  } // start(long)
+} // class TimeIndex
@@ -1,13 +1,20 @@
 package edu.grinnell.csc207.main;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.Map;
 
 import edu.grinnell.csc207.blockchains.Block;
 import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.BlockLog;
+import edu.grinnell.csc207.blockchains.GenesisCache;
 import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.HotBackup;
+import edu.grinnell.csc207.blockchains.LedgerSnapshot;
 import edu.grinnell.csc207.blockchains.Transaction;
 import edu.grinnell.csc207.util.IOUtils;
 
@@ -27,6 +34,26 @@ public class BlockChainUI {
    */
   static final int VALIDATOR_BYTES = 0;
 
+  /**
+   * The file we log the chain to, unless told otherwise.
+   */
+  static final String DEFAULT_LOG = "blockchain.log";
+
+  /**
+   * The number of blocks between snapshots of the balances.
+   */
+  static final int SNAPSHOT_INTERVAL = 1000;
+
+  /**
+   * The most bytes per second a backup reads from the log.
+   */
+  static final long BACKUP_BYTES_PER_SECOND = 16L * 1024 * 1024;
+
+  /**
+   * The number of richest users the stats command prints.
+   */
+  static final int RICHEST_USERS = 5;
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
@@ -41,11 +68,14 @@ public class BlockChainUI {
     pen.println("""
       Valid commands:
         mine: discovers the nonce for a given transaction
+        mineappend: mines a block for a transaction and appends it
         append: appends a new block onto the end of the chain
+        backup: backs up the chain to a directory
         remove: removes the last block from the end of the chain
         check: checks that the block chain is valid
         users: prints a list of users
         balance: finds a user's balance
+        stats: prints the supply, the richest users, and a user's volume
         transactions: prints out the chain of transactions
         blocks: prints out the chain of blocks (for debugging only)
         help: prints this list of commands
@@ -60,18 +90,28 @@ public class BlockChainUI {
    * Run the UI.
    *
    * @param args
-   *   Command-line arguments (currently ignored).
+   *   Command-line arguments: optionally, the file to log the chain to.
    */
   public static void main(String[] args) throws Exception {
     PrintWriter pen = new PrintWriter(System.out, true);
     BufferedReader eyes = new BufferedReader(new InputStreamReader(System.in));
 
-    // Set up our blockchain.
-    HashValidator validator =
-        (hash) -> (hash.length() >= 3) && (hash.get(0) == 0)
-        && (hash.get(1) == 0) && (hash.get(2) == 0);
+    // Set up our blockchain, reusing the first block from earlier runs.
+    Path logFile = Path.of((args.length > 0) ? args[0] : DEFAULT_LOG);
+    Path snapshotFile = logFile.resolveSibling(logFile.getFileName() + ".snapshot");
+    GenesisCache.setFile(logFile.resolveSibling(logFile.getFileName() + ".genesis"));
+    HashValidator validator = HashValidator.leadingZeros(3);
     BlockChain chain = new BlockChain(validator);
 
+    // Pick up where we left off.
+    // A durable log, so that every change we report is on the disk.
+    BlockLog log = new BlockLog(logFile);
+    int replayed = log.replay(chain, LedgerSnapshot.load(snapshotFile));
+    if (replayed > 0) {
+      pen.printf("Replayed %d changes from %s.\n", replayed, logFile);
+    } // if
+    chain.setLog(log);
+
     instructions(pen);
 
     boolean done = false;
@@ -95,13 +135,33 @@ public class BlockChainUI {
           target = IOUtils.readLine(pen, eyes, "Target: ");
           amount = IOUtils.readInt(pen, eyes, "Amount: ");
           nonce = IOUtils.readInt(pen, eyes, "Nonce: ");
+          long time = IOUtils.readLong(pen, eyes, "Timestamp (0 for none): ");
           Block newb = new Block(chain.getSize(), new Transaction(source, target, amount),
-              chain.getHash(), nonce);
-          chain.append(newb);
+              chain.getHash(), nonce, time);
+          try {
+            chain.append(newb);
+          } catch (IllegalArgumentException e) {
+            pen.println("Rejected: the block is invalid or its source cannot afford it.");
+            break;
+          } // try/catch
+          if (chain.getSize() % SNAPSHOT_INTERVAL == 0) {
+            LedgerSnapshot.saveInBackground(chain, snapshotFile);
+          } // if
 
           pen.println("Appended: " + newb.toString());
           break;
 
+        case "backup":
+          String backupDir = IOUtils.readLine(pen, eyes, "Directory: ");
+          try {
+            int records = new HotBackup(chain, log, BACKUP_BYTES_PER_SECOND)
+                .backup(Path.of(backupDir));
+            pen.printf("Backed up and verified %d records.\n", records);
+          } catch (IOException e) {
+            pen.println("Backup failed: " + e.getMessage());
+          } // try/catch
+          break;
+
         case "balance":
           // Prompt for the user
           String user = IOUtils.readLine(pen, eyes, "User: ");
@@ -141,6 +201,25 @@ public class BlockChainUI {
           amount = IOUtils.readInt(pen, eyes, "Amount: ");
           Block b = chain.mine(new Transaction(source, target, amount));
           pen.println("Use nonce: " + b.getNonce());
+          pen.println("Use timestamp: " + b.getTimestamp());
+          break;
+
+        case "mineappend":
+          source = IOUtils.readLine(pen, eyes, "Source (return for deposit): ");
+          target = IOUtils.readLine(pen, eyes, "Target: ");
+          amount = IOUtils.readInt(pen, eyes, "Amount: ");
+          Block mined;
+          try {
+            mined = chain.mineAndAppend(new Transaction(source, target, amount));
+          } catch (IllegalArgumentException e) {
+            pen.println("Rejected: the source cannot afford the transaction.");
+            break;
+          } // try/catch
+          if (chain.getSize() % SNAPSHOT_INTERVAL == 0) {
+            LedgerSnapshot.saveInBackground(chain, snapshotFile);
+          } // if
+
+          pen.println("Appended: " + mined.toString());
           break;
 
         case "quit":
@@ -155,6 +234,19 @@ public class BlockChainUI {
           } // if/else
           break;
 
+        case "stats":
+          pen.println("Total supply: " + chain.supply());
+          pen.println("Richest users:");
+          for (Map.Entry<String, Integer> entry : chain.richest(RICHEST_USERS)) {
+            pen.printf("  %s: %d\n", entry.getKey(), entry.getValue());
+          } // for
+          String member = IOUtils.readLine(pen, eyes, "User (return for none): ");
+          if (!member.equals("")) {
+            pen.printf("%s has sent %d and received %d\n", member, chain.sent(member),
+                chain.received(member));
+          } // if
+          break;
+
         case "transactions":
           Iterator<Transaction> tranIterator = chain.iterator();
           Transaction curTransaction = tranIterator.next();
@@ -181,6 +273,8 @@ public class BlockChainUI {
       } // switch
     } // while
 
+    LedgerSnapshot.saveInBackground(chain, snapshotFile).join();
+    log.close();
     pen.printf("\nGoodbye\n");
     eyes.close();
     pen.close();
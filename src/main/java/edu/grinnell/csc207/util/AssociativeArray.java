@@ -1,7 +1,5 @@
 package edu.grinnell.csc207.util;
 
-import static java.lang.reflect.Array.newInstance;
-
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -10,6 +8,11 @@ import java.util.NoSuchElementException;
  * and values of type V. Associative Arrays store key/value pairs
  * and permit you to look up values by key.
  *
+ * The pairs live in a hash trie (see TrieNode) that copies share, so
+ * clone takes constant time. Afterwards, each array copies a node only
+ * the first time it changes it, which is at most one node per level of
+ * the trie for each change.
+ *
  * @param <K> the key type
  * @param <V> the value type
  *
@@ -22,9 +25,15 @@ public class AssociativeArray<K, V> {
   // +-----------+
 
   /**
-   * The default capacity of the initial array.
+   * The number of bits of the hash each level of the trie uses.
+   */
+  static final int BITS = 5;
+
+  /**
+   * The deepest a pair can be in the trie, counting the level below the
+   * hash for keys whose hashes are the same.
    */
-  static final int DEFAULT_CAPACITY = 16;
+  static final int MAX_DEPTH = Integer.SIZE / BITS + 2;
 
   // +--------+------------------------------------------------------
   // | Fields |
@@ -36,9 +45,15 @@ public class AssociativeArray<K, V> {
   int size;
 
   /**
-   * The array of key/value pairs.
+   * The root of the trie of key/value pairs.
+   */
+  TrieNode<K, V> root;
+
+  /**
+   * Identifies the changes of this array, so that we change in place
+   * only the nodes that no copy shares.
    */
-  KVPair<K, V>[] pairs;
+  Object edit;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -47,12 +62,10 @@ public class AssociativeArray<K, V> {
   /**
    * Create a new, empty associative array.
    */
-  @SuppressWarnings({ "unchecked" })
   public AssociativeArray() {
-    // Creating new arrays is sometimes a PITN.
-    this.pairs = (KVPair<K, V>[]) newInstance((new KVPair<K, V>()).getClass(),
-        DEFAULT_CAPACITY);
     this.size = 0;
+    this.edit = new Object();
+    this.root = new TrieNode<K, V>(this.edit, 0, new Object[0]);
   } // AssociativeArray()
 
   // +------------------+--------------------------------------------
@@ -60,25 +73,16 @@ public class AssociativeArray<K, V> {
   // +------------------+
 
   /**
-   * Create a copy of this AssociativeArray.
+   * Create a copy of this AssociativeArray. Takes constant time.
    *
    * @return a new copy of the array
    */
   public AssociativeArray<K, V> clone() {
     AssociativeArray<K, V> newArr = new AssociativeArray<K, V>();
-
-    // Expand the new array if necessary
-    while (this.size > newArr.pairs.length) {
-      newArr.expand();
-    } // while
-
-    // Clone each pair
-    for (int i = 0; i < this.size; i++) {
-      newArr.pairs[i] = this.pairs[i].clone();
-    } // for
-
-    // adjust size of new array
+    newArr.root = this.root;
     newArr.size = this.size;
+    // Neither array may change the shared nodes from now on
+    this.edit = new Object();
     return newArr;
   } // clone()
 
@@ -89,12 +93,13 @@ public class AssociativeArray<K, V> {
    */
   public String toString() {
     String toStr = "{";
-    for (int i = 0; i < (this.size - 1); i++) {
-      toStr += this.pairs[i].toString() + ", ";
-    } // for
-    if (this.size > 0) {
-      toStr += this.pairs[this.size - 1].toString();
-    } // if
+    Iterator<KVPair<K, V>> pairs = this.pairIterator();
+    while (pairs.hasNext()) {
+      toStr += pairs.next().toString();
+      if (pairs.hasNext()) {
+        toStr += ", ";
+      } // if
+    } // while
     toStr += "}";
     return toStr;
   } // toString()
@@ -115,20 +120,13 @@ public class AssociativeArray<K, V> {
    * @throws NullKeyException
    *   If the client provides a null key.
    */
+  @SuppressWarnings({ "unchecked" })
   public void set(K key, V value) throws NullKeyException {
-    if (this.size == this.pairs.length) {
-      this.expand();
-    } // if
     if (key == null) {
       throw new NullKeyException();
     } // if
-    try {
-      int index = find(key);
-      this.pairs[index].val = value;
-    } catch (Exception e) {
-      this.pairs[this.size] = new KVPair<K, V>(key, value);
-      this.size++;
-    } // try/catch
+    this.root = (TrieNode<K, V>) this.put(this.root, 0, key.hashCode(),
+        new KVPair<K, V>(key, value));
   } // set(K,V)
 
   /**
@@ -144,12 +142,7 @@ public class AssociativeArray<K, V> {
    *   when the key is null or does not appear in the associative array.
    */
   public V get(K key) throws KeyNotFoundException {
-    try {
-      int index = find(key);
-      return this.pairs[index].val;
-    } catch (Exception e) {
-      throw new KeyNotFoundException();
-    } // try/catch
+    return find(key).val;
   } // get(K)
 
   /**
@@ -165,7 +158,7 @@ public class AssociativeArray<K, V> {
     try {
       find(key);
       return true;
-    } catch (Exception e) {
+    } catch (KeyNotFoundException e) {
       return false;
     } // try/catch
   } // hasKey(K)
@@ -178,18 +171,22 @@ public class AssociativeArray<K, V> {
    * @param key
    *   The key to remove.
    */
+  @SuppressWarnings({ "unchecked" })
   public void remove(K key) {
-    try {
-      int index = find(key);
-      // Replace the removed entry with the last entry
-      this.pairs[index] = this.pairs[this.size - 1];
-      // Nullify the last entry
-      this.pairs[this.size - 1] = null;
-      // Decrement the size
-      this.size--;
-    } catch (KeyNotFoundException e) {
-      // If the key is not found, do nothing
-    } // try/catch
+    if (key == null) {
+      return;
+    } // if
+    Object after = this.delete(this.root, 0, key.hashCode(), key);
+    if (after == null) {
+      this.root = new TrieNode<K, V>(this.edit, 0, new Object[0]);
+    } else if (after instanceof KVPair) {
+      // The root must stay a node
+      KVPair<K, V> pair = (KVPair<K, V>) after;
+      this.root = new TrieNode<K, V>(this.edit, bit(pair.key.hashCode(), 0),
+          new Object[] {pair});
+    } else {
+      this.root = (TrieNode<K, V>) after;
+    } // if/else
   } // remove(K)
 
   /**
@@ -207,18 +204,14 @@ public class AssociativeArray<K, V> {
    * @return An iterator for the keys.
    */
   public Iterator<K> keyIterator() {
+    Iterator<KVPair<K, V>> pairs = this.pairIterator();
     return new Iterator<K>() {
-      private int currentIndex = 0;
-
       public boolean hasNext() {
-        return currentIndex < size;
+        return pairs.hasNext();
       } // hasNext
 
       public K next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        return pairs[currentIndex++].key;
+        return pairs.next().key;
       } // next
     };
   } // keyIterator()
@@ -229,18 +222,14 @@ public class AssociativeArray<K, V> {
    * @return An iterator for the values.
    */
   public Iterator<V> valueIterator() {
+    Iterator<KVPair<K, V>> pairs = this.pairIterator();
     return new Iterator<V>() {
-      private int currentIndex = 0;
-
       public boolean hasNext() {
-        return currentIndex < size;
+        return pairs.hasNext();
       } // hasNext
 
       public V next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        return pairs[currentIndex++].val;
+        return pairs.next().val;
       } // next
     };
   } // valueIterator()
@@ -249,32 +238,235 @@ public class AssociativeArray<K, V> {
   // +-----------------+
 
   /**
-   * Expand the underlying array.
+   * Get the bit for a hash at one level of the trie.
+   *
+   * @param hash
+   *   The hash.
+   * @param shift
+   *   The position in the hash of the bits for that level.
+   *
+   * @return the bit.
+   */
+  static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & ((1 << BITS) - 1));
+  } // bit(int, int)
+
+  /**
+   * Put a pair into part of the trie, replacing any pair with the same
+   * key.
+   *
+   * @param slot
+   *   The pair or node that holds that part of the trie.
+   * @param shift
+   *   The position in the hash of the bits for its level.
+   * @param hash
+   *   The hash of the key.
+   * @param pair
+   *   The pair.
+   *
+   * @return the pair or node that holds that part of the trie now.
+   */
+  @SuppressWarnings({ "unchecked" })
+  Object put(Object slot, int shift, int hash, KVPair<K, V> pair) {
+    if (slot instanceof KVPair) {
+      KVPair<K, V> old = (KVPair<K, V>) slot;
+      if (old.key.equals(pair.key)) {
+        return pair;
+      } // if
+      // Push the old pair down a level, then put the new one beside it
+      TrieNode<K, V> split = (shift >= Integer.SIZE)
+          ? new TrieNode<K, V>(this.edit, 0, new Object[] {old})
+          : new TrieNode<K, V>(this.edit, bit(old.key.hashCode(), shift), new Object[] {old});
+      return this.put(split, shift, hash, pair);
+    } // if
+
+    TrieNode<K, V> node = ((TrieNode<K, V>) slot).editable(this.edit);
+    if (shift >= Integer.SIZE) {
+      // Every key here has the same hash
+      for (int i = 0; i < node.slots.length; i++) {
+        if (((KVPair<K, V>) node.slots[i]).key.equals(pair.key)) {
+          node.slots[i] = pair;
+          return node;
+        } // if
+      } // for
+      node.insert(node.slots.length, pair);
+      this.size++;
+      return node;
+    } // if
+    int bit = bit(hash, shift);
+    int pos = Integer.bitCount(node.bitmap & (bit - 1));
+    if ((node.bitmap & bit) == 0) {
+      node.insert(pos, pair);
+      node.bitmap |= bit;
+      this.size++;
+    } else {
+      node.slots[pos] = this.put(node.slots[pos], shift + BITS, hash, pair);
+    } // if/else
+    return node;
+  } // put(Object, int, int, KVPair)
+
+  /**
+   * Delete a key from part of the trie.
+   *
+   * @param slot
+   *   The pair or node that holds that part of the trie.
+   * @param shift
+   *   The position in the hash of the bits for its level.
+   * @param hash
+   *   The hash of the key.
+   * @param key
+   *   The key.
+   *
+   * @return the pair or node that holds that part of the trie now (the
+   *   same one, if the key was not there), or null if nothing is left.
+   */
+  @SuppressWarnings({ "unchecked" })
+  Object delete(Object slot, int shift, int hash, K key) {
+    if (slot instanceof KVPair) {
+      if (((KVPair<K, V>) slot).key.equals(key)) {
+        this.size--;
+        return null;
+      } // if
+      return slot;
+    } // if
+
+    TrieNode<K, V> node = (TrieNode<K, V>) slot;
+    int pos;
+    Object after;
+    if (shift >= Integer.SIZE) {
+      for (pos = 0; pos < node.slots.length; pos++) {
+        if (((KVPair<K, V>) node.slots[pos]).key.equals(key)) {
+          break;
+        } // if
+      } // for
+      if (pos == node.slots.length) {
+        return node;
+      } // if
+      this.size--;
+      after = null;
+    } else {
+      int bit = bit(hash, shift);
+      if ((node.bitmap & bit) == 0) {
+        return node;
+      } // if
+      pos = Integer.bitCount(node.bitmap & (bit - 1));
+      after = this.delete(node.slots[pos], shift + BITS, hash, key);
+      if (after == node.slots[pos]) {
+        return node;
+      } // if
+    } // if/else
+
+    node = node.editable(this.edit);
+    if (after != null) {
+      node.slots[pos] = after;
+    } else {
+      node.delete(pos);
+      if (shift < Integer.SIZE) {
+        node.bitmap &= ~bit(hash, shift);
+      } // if
+    } // if/else
+    // A lone pair can move up to where its parent points at this node
+    if (node.slots.length == 0) {
+      return null;
+    } else if (node.slots.length == 1 && node.slots[0] instanceof KVPair) {
+      return node.slots[0];
+    } // if/else
+    return node;
+  } // delete(Object, int, int, K)
+
+  /**
+   * Provides an iterator over the key/value pairs, in the order of the
+   * trie.
+   *
+   * @return An iterator for the pairs.
    */
-  void expand() {
-    this.pairs = java.util.Arrays.copyOf(this.pairs, this.pairs.length * 2);
-  } // expand()
+  Iterator<KVPair<K, V>> pairIterator() {
+    TrieNode<K, V> start = this.root;
+    return new Iterator<KVPair<K, V>>() {
+      private Object[][] stack = new Object[MAX_DEPTH][];
+      private int[] positions = new int[MAX_DEPTH];
+      private int depth = 0;
+      private KVPair<K, V> upcoming = null;
+
+      {
+        this.stack[0] = start.slots;
+        this.advance();
+      }
+
+      @SuppressWarnings({ "unchecked" })
+      private void advance() {
+        this.upcoming = null;
+        while (this.upcoming == null && this.depth >= 0) {
+          if (this.positions[this.depth] == this.stack[this.depth].length) {
+            this.depth--;
+          } else {
+            Object slot = this.stack[this.depth][this.positions[this.depth]++];
+            if (slot instanceof TrieNode) {
+              this.depth++;
+              this.stack[this.depth] = ((TrieNode<K, V>) slot).slots;
+              this.positions[this.depth] = 0;
+            } else {
+              this.upcoming = (KVPair<K, V>) slot;
+            } // if/else
+          } // if/else
+        } // while
+      } // advance
+
+      public boolean hasNext() {
+        return this.upcoming != null;
+      } // hasNext
+
+      public KVPair<K, V> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        KVPair<K, V> result = this.upcoming;
+        this.advance();
+        return result;
+      } // next
+    };
+  } // pairIterator()
 
   /**
-   * Find the index of the first entry in `pairs` that contains key.
-   * If no such entry is found, throws an exception.
+   * Find the entry that contains key. If no such entry is found,
+   * throws an exception.
    *
    * @param key
    *   The key of the entry.
    *
    * @return
-   *   The index of the key, if found.
+   *   The entry, if found.
    *
    * @throws KeyNotFoundException
    *   If the key does not appear in the associative array.
    */
-  int find(K key) throws KeyNotFoundException {
-    // Return the index if the key is found
-    for (int i = 0; i < this.size; i++) {
-      if (this.pairs[i].key.equals(key)) {
-        return i;
+  @SuppressWarnings({ "unchecked" })
+  KVPair<K, V> find(K key) throws KeyNotFoundException {
+    if (key == null) {
+      throw new KeyNotFoundException();
+    } // if
+    int hash = key.hashCode();
+    Object slot = this.root;
+    for (int shift = 0; slot instanceof TrieNode; shift += BITS) {
+      TrieNode<K, V> node = (TrieNode<K, V>) slot;
+      if (shift >= Integer.SIZE) {
+        for (Object pair : node.slots) {
+          if (((KVPair<K, V>) pair).key.equals(key)) {
+            return (KVPair<K, V>) pair;
+          } // if
+        } // for
+        throw new KeyNotFoundException();
       } // if
+      int bit = bit(hash, shift);
+      if ((node.bitmap & bit) == 0) {
+        throw new KeyNotFoundException();
+      } // if
+      slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
     } // for
-    throw new KeyNotFoundException();
+    KVPair<K, V> pair = (KVPair<K, V>) slot;
+    if (!pair.key.equals(key)) {
+      throw new KeyNotFoundException();
+    } // if
+    return pair;
   } // find(K)
 } // class AssociativeArray
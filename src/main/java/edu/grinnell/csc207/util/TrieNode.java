@@ -0,0 +1,102 @@
+package edu.grinnell.csc207.util;
+
+/**
+ * Nodes of the hash trie behind AssociativeArray. Each slot holds either
+ * a KVPair or a child node. Below the last level of the hash, a node
+ * holds only pairs whose keys have the same hash, in no particular
+ * order, and its bitmap is unused.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+class TrieNode<K, V> {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /**
+   * The edit that may change this node in place. Every other edit must
+   * copy it first.
+   */
+  Object owner;
+
+  /**
+   * Which of the 32 possible slots are present, one bit each.
+   */
+  int bitmap;
+
+  /**
+   * The present slots, in bit order.
+   */
+  Object[] slots;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new node.
+   *
+   * @param edit
+   *   The edit that owns the node.
+   * @param map
+   *   Which slots are present.
+   * @param contents
+   *   The present slots.
+   */
+  TrieNode(Object edit, int map, Object[] contents) {
+    this.owner = edit;
+    this.bitmap = map;
+    this.slots = contents;
+  } // TrieNode(Object, int, Object[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get a version of this node that an edit may change in place.
+   *
+   * @param edit
+   *   The edit.
+   *
+   * @return this node, if the edit owns it, or a copy that it owns.
+   */
+  TrieNode<K, V> editable(Object edit) {
+    if (this.owner == edit) {
+      return this;
+    } // if
+    return new TrieNode<K, V>(edit, this.bitmap, this.slots.clone());
+  } // editable(Object)
+
+  /**
+   * Insert a slot.
+   *
+   * @param pos
+   *   Where to insert it.
+   * @param slot
+   *   The slot.
+   */
+  void insert(int pos, Object slot) {
+    Object[] grown = new Object[this.slots.length + 1];
+    System.arraycopy(this.slots, 0, grown, 0, pos);
+    grown[pos] = slot;
+    System.arraycopy(this.slots, pos, grown, pos + 1, this.slots.length - pos);
+    this.slots = grown;
+  } // insert(int, Object)
+
+  /**
+   * Delete a slot.
+   *
+   * @param pos
+   *   Where it is.
+   */
+  void delete(int pos) {
+    Object[] shrunk = new Object[this.slots.length - 1];
+    System.arraycopy(this.slots, 0, shrunk, 0, pos);
+    System.arraycopy(this.slots, pos + 1, shrunk, pos, shrunk.length - pos);
+    this.slots = shrunk;
+  } // delete(int)
+} // class TrieNode
@@ -0,0 +1,64 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our BalanceVerifier class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestBalanceVerifier {
+  /**
+   * Make sure that a legal chain has no illegal blocks, however many
+   * shards we use.
+   */
+  @Test
+  public void testLegal() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 50; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + i, 10)));
+      if (i > 0) {
+        chain.append(chain.mine(new Transaction("U" + i, "U" + (i - 1), 10)));
+      } // if
+    } // for
+    assertEquals(-1, chain.firstIllegalHeight(), "legal chain");
+    for (int shards = 1; shards <= 16; shards *= 2) {
+      assertEquals(-1, new BalanceVerifier(shards).firstIllegal(chain.snapshot()),
+          "legal chain with " + shards + " shards");
+    } // for
+  } // testLegal()
+
+  /**
+   * Make sure that we find the first illegal block, even when a later
+   * block in another shard is also illegal.
+   */
+  @Test
+  public void testFirstIllegal() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.setPermissive(true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 100)));
+    chain.append(chain.mine(new Transaction("A", "C", 60)));
+    chain.append(chain.mine(new Transaction("A", "C", 60)));
+    chain.append(chain.mine(new Transaction("B", "D", 200)));
+    chain.append(chain.mine(new Transaction("C", "A", -5)));
+    for (int shards = 1; shards <= 16; shards *= 2) {
+      assertEquals(4, new BalanceVerifier(shards).firstIllegal(chain.snapshot()),
+          "A overdraws at 4 with " + shards + " shards");
+    } // for
+    assertFalse(chain.isCorrect(), "chain is incorrect");
+
+    chain.rollbackTo(3);
+    chain.append(chain.mine(new Transaction("C", "A", -5)));
+    chain.append(chain.mine(new Transaction("B", "D", 200)));
+    assertEquals(4, chain.firstIllegalHeight(), "negative transfer at 4");
+
+    chain.rollbackTo(3);
+    assertEquals(-1, chain.firstIllegalHeight(), "legal after rolling back");
+    assertTrue(chain.isCorrect(), "chain is correct after rolling back");
+  } // testFirstIllegal()
+} // class TestBalanceVerifier
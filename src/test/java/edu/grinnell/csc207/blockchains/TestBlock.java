@@ -7,6 +7,8 @@ import java.security.NoSuchAlgorithmException;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -84,6 +86,9 @@ public class TestBlock {
     md.update(intToBytes(block.getTransaction().getAmount()));
     md.update(block.getPrevHash().getBytes());
     md.update(longToBytes(block.getNonce()));
+    if (block.getTimestamp() != 0) {
+      md.update(longToBytes(block.getTimestamp()));
+    } // if
     return md.digest();
   } // expectedHash()
 
@@ -137,6 +142,24 @@ public class TestBlock {
     assertEquals(5555, b.getNonce(), "nonce for deposit");
   } // depositTest()
 
+  /**
+   * Make sure that the time of a block goes into its hash.
+   */
+  @Test
+  public void timedBlockTest() {
+    Transaction t = new Transaction("Here", "There", 12);
+    Hash ph = new Hash(new byte[] {3, 4, 5});
+    Block timed = new Block(10, t, ph, 67, 1_700_000_000_000L);
+    Block untimed = new Block(10, t, ph, 67);
+
+    assertEquals(1_700_000_000_000L, timed.getTimestamp(), "time of block");
+    assertEquals(0, untimed.getTimestamp(), "no time");
+    assertArrayEquals(expectedHash(timed), timed.getHash().getBytes(), "hash of timed block");
+    assertArrayEquals(expectedHash(untimed), untimed.getHash().getBytes(),
+        "hash of untimed block");
+    assertFalse(timed.getHash().equals(untimed.getHash()), "time changes the hash");
+  } // timedBlockTest()
+
   /**
    * Simple block stuff with a simple validator.
    */
@@ -259,4 +282,18 @@ public class TestBlock {
   public void toStringDepositTest() {
   } // toStringDepositTest()
 
+  /**
+   * Test that toString shows the time of a block, if it has one.
+   */
+  @Test
+  public void toStringTimeTest() {
+    Transaction t = new Transaction("Sam", "Sam", 50);
+    Hash ph = new Hash(new byte[] {10, 20, 30, 40, 50});
+    Block timed = new Block(5, t, ph, 100, 1700000000000L);
+    assertTrue(timed.toString().contains("Time: 1700000000000 (2023-11-14T22:13:20Z)"),
+        "time of a timed block");
+    Block untimed = new Block(5, t, ph, 100);
+    assertFalse(untimed.toString().contains("Time"), "no time for an untimed block");
+  } // toStringTimeTest()
+
 } // class TestBlock
@@ -0,0 +1,44 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our BlockCache class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestBlockCache {
+  /**
+   * Make sure that repeated reads hit the cache and that the cache stays
+   * within its budget.
+   */
+  @Test
+  public void testCounters(@TempDir Path dir) throws Exception {
+    BlockCache cache = new BlockCache(new SegmentedStore(dir), 3 * BlockCache.BLOCK_OVERHEAD);
+    BlockChain chain = new BlockChain(TestSegmentedStore.VALIDATOR, cache, 2);
+    chain.append(chain.mine(new Transaction("", "A", 10)));
+    for (int i = 2; i < 12; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+
+    Hash hash1 = chain.getBlock(1).getHash();
+    assertEquals(0, cache.hits(), "no hits yet");
+    assertEquals(1, cache.misses(), "one miss");
+    assertEquals(hash1, chain.getBlock(1).getHash(), "cached block");
+    assertEquals(1, cache.hits(), "one hit");
+
+    for (int i = 0; i < 6; i++) {
+      chain.getBlock(i);
+    } // for
+    assertTrue(cache.evictions() > 0, "blocks were evicted");
+    assertTrue(cache.bytes() <= 3 * BlockCache.BLOCK_OVERHEAD, "cache stays within budget");
+    assertEquals(8, cache.hits() + cache.misses(), "every read counted");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testCounters(Path)
+} // class TestBlockCache
@@ -3,6 +3,12 @@ package edu.grinnell.csc207.blockchains;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -383,6 +389,7 @@ public class TestBlockChain {
         (hash) -> 
             (hash.length() >= 2) && (hash.get(0) == 10) && (hash.get(1) == 10);
     BlockChain chain = new BlockChain(v);
+    chain.setPermissive(true);
 
     // Set up a valid chain of transactions
     chain.append(chain.mine(new Transaction("", "A", 100)));
@@ -437,6 +444,39 @@ public class TestBlockChain {
     chain.check();
   } // testInvalidTransactions()
 
+  /**
+   * Make sure that a chain that is not permissive rejects illegal
+   * transactions as they are appended.
+   */
+  @Test
+  public void testRejectIllegal() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 40)));
+    assertAppendFails(chain, chain.mine(new Transaction("B", "A", 50)), "B overdraws");
+    assertAppendFails(chain, chain.mine(new Transaction("D", "A", 1)), "D has no money");
+    assertAppendFails(chain, chain.mine(new Transaction("A", "B", -10)), "negative transfer");
+    assertAppendFails(chain, chain.mine(new Transaction("", "B", -10)), "negative deposit");
+    assertEquals(3, chain.getSize(), "illegal blocks are not added");
+
+    // All or nothing, counting earlier blocks of the same batch
+    long now = System.currentTimeMillis();
+    Block first = new Block(3, new Transaction("B", "C", 40), chain.getHash(), 0, now);
+    Block second = new Block(4, new Transaction("C", "A", 41), first.getHash(), 0, now);
+    assertThrows(IllegalArgumentException.class, () -> chain.appendAll(List.of(first, second)),
+        "C overdraws within a batch");
+    assertEquals(3, chain.getSize(), "no block of the batch is added");
+    assertEquals(0, chain.balance("C"), "C's balance is unchanged");
+    chain.appendAll(List.of(first,
+        new Block(4, new Transaction("C", "A", 40), first.getHash(), 0, now)));
+    assertEquals(100, chain.balance("A"), "A's balance after the batch");
+    assertTrue(chain.isCorrect(), "chain is correct");
+
+    chain.setPermissive(true);
+    chain.append(chain.mine(new Transaction("B", "A", 50)));
+    assertFalse(chain.isCorrect(), "permissive chain accepts an overdraft");
+  } // testRejectIllegal()
+
   /**
    * Test modifying a valid chain.
    */
@@ -461,4 +501,361 @@ public class TestBlockChain {
     assertFalse(chain.isCorrect(), "modified chain is incorrect");
     assertCheckFails(chain, "modified chain is incorrect");
   } // testModifiedChain()
+
+  /**
+   * Make sure that snapshots do not change when the chain does.
+   */
+  @Test
+  public void testSnapshot() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Block block1 = chain.mine(new Transaction("", "A", 100));
+    chain.append(block1);
+    Block block2 = chain.mine(new Transaction("A", "B", 30));
+    chain.append(block2);
+
+    ChainSnapshot snap = chain.snapshot();
+    Iterator<Block> blocks = snap.blocks();
+    assertTrue(chain.removeLast(), "removing after snapshot");
+    chain.append(chain.mine(new Transaction("A", "C", 60)));
+    chain.append(chain.mine(new Transaction("", "D", 5)));
+
+    assertEquals(3, snap.getSize(), "size of snapshot");
+    assertEquals(block2.getHash(), snap.getHash(), "hash of snapshot");
+    assertEquals(70, snap.balance("A"), "A's balance in snapshot");
+    assertEquals(30, snap.balance("B"), "B's balance in snapshot");
+    assertEquals(0, snap.balance("C"), "C's balance in snapshot");
+    assertEquals(40, chain.balance("A"), "A's balance in chain");
+    assertArrayEquals(new String[] {"A", "C", "D"}, users(chain), "users in chain");
+    blocks.next();
+    assertEquals(block1, blocks.next(), "block 1 of snapshot");
+    assertEquals(block2, blocks.next(), "block 2 of snapshot");
+    assertFalse(blocks.hasNext(), "end of snapshot");
+    assertTrue(snap.isCorrect(), "snapshot is correct");
+    assertEquals(4, chain.getSize(), "size of chain");
+  } // testSnapshot()
+
+  /**
+   * Make sure that subscribers hear about appends and removals.
+   */
+  @Test
+  public void testEvents() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    List<ChainEvent> events = new CopyOnWriteArrayList<ChainEvent>();
+    CountDownLatch done = new CountDownLatch(3);
+    chain.events().subscribe(new Flow.Subscriber<ChainEvent>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      } // onSubscribe(Flow.Subscription)
+
+      public void onNext(ChainEvent event) {
+        events.add(event);
+        done.countDown();
+      } // onNext(ChainEvent)
+
+      public void onError(Throwable error) {
+      } // onError(Throwable)
+
+      public void onComplete() {
+      } // onComplete()
+    });
+
+    Block block1 = chain.mine(new Transaction("", "A", 100));
+    chain.append(block1);
+    Block block2 = chain.mine(new Transaction("A", "B", 30));
+    chain.append(block2);
+    chain.removeLast();
+
+    assertTrue(done.await(10, TimeUnit.SECONDS), "received three events");
+    assertEquals(block1, events.get(0).getBlock(), "first event");
+    assertFalse(events.get(0).isRemoval(), "first event is an append");
+    assertEquals(block2, events.get(1).getBlock(), "second event");
+    assertEquals(block2, events.get(2).getBlock(), "third event");
+    assertTrue(events.get(2).isRemoval(), "third event is a removal");
+    assertEquals(2, events.get(2).getSequence(), "sequence of third event");
+  } // testEvents()
+
+  /**
+   * Make sure that a subscriber that falls behind can tell that it
+   * missed events.
+   */
+  @Test
+  public void testSlowSubscriber() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    List<Long> seen = new CopyOnWriteArrayList<Long>();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch last = new CountDownLatch(1);
+    int count = 2 * BlockChain.EVENT_BUFFER + 10;
+    chain.events().subscribe(new Flow.Subscriber<ChainEvent>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      } // onSubscribe(Flow.Subscription)
+
+      public void onNext(ChainEvent event) {
+        seen.add(event.getSequence());
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } // try/catch
+        if (event.getSequence() >= count) {
+          last.countDown();
+        } // if
+      } // onNext(ChainEvent)
+
+      public void onError(Throwable error) {
+      } // onError(Throwable)
+
+      public void onComplete() {
+      } // onComplete()
+    });
+
+    for (int i = 0; i < count; i++) {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+    } // for
+    release.countDown();
+    // The buffer may still be full just after the release, so keep
+    // appending until an event after the blocked ones gets through
+    int appended = count;
+    do {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+      appended++;
+    } while (!last.await(100, TimeUnit.MILLISECONDS) && appended < count + 100);
+    assertTrue(last.await(10, TimeUnit.SECONDS), "received a later event");
+
+    assertTrue(seen.size() < appended, "some events were dropped");
+    boolean gap = false;
+    for (int i = 1; i < seen.size(); i++) {
+      assertTrue(seen.get(i) > seen.get(i - 1), "sequence increases at " + i);
+      gap |= seen.get(i) > seen.get(i - 1) + 1;
+    } // for
+    assertTrue(gap, "the subscriber sees a gap");
+  } // testSlowSubscriber()
+
+  /**
+   * Make sure that appendAll adds all of the blocks or none of them.
+   */
+  @Test
+  public void testAppendAll() {
+    BlockChain source = new BlockChain((hash) -> true);
+    source.append(source.mine(new Transaction("", "A", 100)));
+    source.append(source.mine(new Transaction("A", "B", 30)));
+    source.append(source.mine(new Transaction("B", "C", 10)));
+    ArrayList<Block> blocks = new ArrayList<Block>();
+    source.blocks().forEachRemaining(blocks::add);
+    blocks.remove(0);
+
+    BlockChain chain = new BlockChain((hash) -> true);
+    ArrayList<Block> bad = new ArrayList<Block>(blocks);
+    bad.remove(1);
+    assertThrows(IllegalArgumentException.class, () -> chain.appendAll(bad),
+        "appending blocks with a gap");
+    assertEquals(1, chain.getSize(), "no blocks added after failure");
+    assertArrayEquals(new String[] {}, users(chain), "no users after failure");
+
+    chain.appendAll(blocks);
+    assertEquals(4, chain.getSize(), "all blocks added");
+    assertEquals(source.getHash(), chain.getHash(), "hash after appendAll");
+    assertEquals(70, chain.snapshot().balance("A"), "A's balance after appendAll");
+    assertEquals(20, chain.snapshot().balance("B"), "B's balance after appendAll");
+    assertEquals(10, chain.snapshot().balance("C"), "C's balance after appendAll");
+    assertTrue(chain.isCorrect(), "chain is correct after appendAll");
+  } // testAppendAll()
+
+  /**
+   * Make sure that we can roll back several blocks at once.
+   */
+  @Test
+  public void testRollbackTo() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    Hash hash2 = chain.getHash();
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    chain.append(chain.mine(new Transaction("", "D", 5)));
+    chain.append(chain.mine(new Transaction("A", "A", 20)));
+
+    assertEquals(0, chain.rollbackTo(5), "rolling back past the end");
+    assertEquals(3, chain.rollbackTo(2), "rolling back three blocks");
+    assertEquals(3, chain.getSize(), "size after rollback");
+    assertEquals(hash2, chain.getHash(), "hash after rollback");
+    assertEquals(70, chain.snapshot().balance("A"), "A's balance after rollback");
+    assertEquals(30, chain.snapshot().balance("B"), "B's balance after rollback");
+    assertArrayEquals(new String[] {"A", "B"}, users(chain), "users after rollback");
+    assertThrows(IllegalArgumentException.class, () -> chain.rollbackTo(-1),
+        "rolling back to a negative height");
+
+    chain.append(chain.mine(new Transaction("B", "E", 5)));
+    assertEquals(25, chain.balance("B"), "B's balance after appending");
+    assertEquals(3, chain.rollbackTo(0), "rolling back to the initial block");
+    assertArrayEquals(new String[] {}, users(chain), "no users at the initial block");
+  } // testRollbackTo()
+
+  /**
+   * Make sure that a pruned chain still checks out and knows its
+   * balances.
+   */
+  @Test
+  public void testPrune() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    Block pruned = chain.getBlock(2);
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    chain.append(chain.mine(new Transaction("", "D", 5)));
+    chain.prune(3);
+
+    assertThrows(IllegalStateException.class, () -> chain.getBlock(2), "pruned block");
+    assertEquals(pruned.getHash(), chain.getHeader(2).getHash(), "header of pruned block");
+    assertTrue(chain.getHeader(2).matches(pruned.getTransaction()), "digest of pruned block");
+    assertTrue(chain.getHeader(2).isPruned(), "header of pruned block says so");
+    assertFalse(chain.getHeader(3).isPruned(), "header of kept block says so");
+    assertTrue(chain.getHeader(2).toString().startsWith("Block 2 (pruned, "),
+        "string of pruned header");
+    assertEquals(chain.getHeader(2).getHash(), chain.getHeader(3).getPrevHash(),
+        "headers link across the prune point");
+    assertEquals(70, chain.balance("A"), "A's balance after pruning");
+    assertEquals(20, chain.balance("B"), "B's balance after pruning");
+    assertEquals(10, chain.balance("C"), "C's balance after pruning");
+    assertTrue(chain.isCorrect(), "chain is correct after pruning");
+    assertEquals(new Transaction("B", "C", 10), chain.iterator().next(), "first transaction kept");
+    assertThrows(IllegalArgumentException.class, () -> chain.rollbackTo(1),
+        "rolling back into pruned blocks");
+    assertEquals(2, chain.rollbackTo(2), "rolling back to the prune point");
+    assertEquals(30, chain.snapshot().balance("B"), "B's balance at the prune point");
+    assertFalse(chain.removeLast(), "removing a pruned block");
+    assertEquals(3, chain.getSize(), "size after trying to remove a pruned block");
+    assertEquals(30, chain.balance("B"), "B's balance after trying to remove a pruned block");
+
+    // Prune automatically as the chain grows
+    chain.setPruneDepth(10);
+    for (int i = 0; i < 2 * BlockChain.PRUNE_BATCH; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 0)));
+    } // for
+    assertTrue(chain.getSize() - chain.history.first() >= 10, "recent blocks kept whole");
+    assertTrue(chain.history.first() > 3, "older blocks pruned");
+    assertTrue(chain.isCorrect(), "chain is correct after pruning automatically");
+    assertEquals(30, chain.balance("B"), "B's balance after pruning automatically");
+  } // testPrune()
+
+  /**
+   * Make sure that appending a block we just mined uses the nonce we
+   * found, and that other nonces are still rejected.
+   */
+  @Test
+  public void testMineAndAppend() {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 3);
+    BlockChain chain = new BlockChain(v);
+    Block blk = chain.mineAndAppend(new Transaction("", "A", 100));
+    assertEquals(2, chain.getSize(), "block appended");
+    assertEquals(blk.getHash(), chain.getHash(), "hash of appended block");
+    assertTrue(v.isValid(blk.getHash()), "hash of appended block is valid");
+
+    Block mined = chain.mine(new Transaction("A", "B", 10));
+    assertTrue(chain.mined.wasMined(mined), "nonce is remembered");
+    assertAppendFails(chain, new Block(2, mined.getTransaction(), chain.getHash(),
+        mined.getNonce() + 1, mined.getTimestamp()), "appending with another nonce");
+    chain.append(new Block(2, mined.getTransaction(), chain.getHash(), mined.getNonce(),
+        mined.getTimestamp()));
+    assertEquals(90, chain.balance("A"), "A's balance");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testMineAndAppend()
+
+  /**
+   * Make sure that streams see the same blocks as the iterators, in
+   * order, even in parallel.
+   */
+  @Test
+  public void testStreams() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 1; i <= 500; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + (i % 10), i)));
+    } // for
+    ChainSnapshot snap = chain.snapshot();
+    chain.append(chain.mine(new Transaction("", "Late", 1000)));
+
+    assertEquals(501, snap.blockStream().count(), "size of snapshot stream");
+    assertEquals(502, chain.blockStream().parallel().count(), "size of chain stream");
+    Spliterator<Block> blocks = snap.blockStream().spliterator();
+    assertTrue(blocks.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED
+        | Spliterator.IMMUTABLE), "characteristics");
+    assertEquals(501, blocks.getExactSizeIfKnown(), "exact size");
+    assertTrue(blocks.trySplit() != null, "splits");
+
+    assertEquals(500 * 501 / 2,
+        snap.transactionStream().parallel().mapToInt(Transaction::getAmount).sum(),
+        "sum of amounts in parallel");
+    List<Integer> heights = chain.blockStream().parallel().map(Block::getNum).toList();
+    for (int i = 0; i < heights.size(); i++) {
+      assertEquals(i, heights.get(i), "block " + i + " in order");
+    } // for
+    Iterator<Transaction> trans = chain.iterator();
+    chain.transactionStream().forEach((t) -> assertEquals(trans.next(), t, "same transaction"));
+  } // testStreams()
+
+  /**
+   * Make sure that ranges hold exactly the blocks asked for.
+   */
+  @Test
+  public void testRanges() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 1; i <= 30; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + i, i)));
+    } // for
+    Iterator<Block> blocks = chain.blocks(10, 15);
+    for (int i = 10; i < 15; i++) {
+      assertEquals(i, blocks.next().getNum(), "block " + i + " of the range");
+    } // for
+    assertFalse(blocks.hasNext(), "range ends before its end height");
+    Iterator<Transaction> trans = chain.transactions(29, 31);
+    assertEquals(new Transaction("", "U29", 29), trans.next(), "first transaction");
+    assertEquals(new Transaction("", "U30", 30), trans.next(), "last transaction");
+    assertFalse(trans.hasNext(), "no more transactions");
+    assertFalse(chain.blocks(5, 5).hasNext(), "empty range");
+
+    assertThrows(IndexOutOfBoundsException.class, () -> chain.blocks(20, 32), "past the end");
+    assertThrows(IndexOutOfBoundsException.class, () -> chain.blocks(6, 5), "backwards");
+    chain.prune(10);
+    assertThrows(IllegalStateException.class, () -> chain.transactions(5, 12), "pruned");
+    assertEquals(10, chain.blocks(10, 12).next().getNum(), "range after pruning");
+  } // testRanges()
+
+  /**
+   * Make sure that times go forward and that we find blocks by time.
+   */
+  @Test
+  public void testTimes() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    long base = 1_700_000_000_000L;
+    for (int i = 1; i <= 200; i++) {
+      // The first blocks have no time
+      long time = (i <= 20) ? 0 : base + 1000L * i;
+      chain.append(new Block(i, new Transaction("", "U", 1), chain.getHash(), 0, time));
+    } // for
+    assertTrue(chain.isCorrect(), "chain with times is correct");
+    assertAppendFails(chain, new Block(201, new Transaction("", "U", 1), chain.getHash(), 0,
+        base), "block earlier than the last");
+    assertAppendFails(chain, new Block(201, new Transaction("", "U", 1), chain.getHash(), 0, 0),
+        "block without a time after timed blocks");
+    long future = System.currentTimeMillis() + 2 * BlockChain.MAX_DRIFT_MILLIS;
+    assertAppendFails(chain, new Block(201, new Transaction("", "U", 1), chain.getHash(), 0,
+        future), "block too far in the future");
+
+    List<Block> found = chain.blocksBetween(base + 151_000L, base + 165_000L);
+    assertEquals(14, found.size(), "blocks from 151 to 164");
+    assertEquals(151, found.get(0).getNum(), "first block in the window");
+    assertEquals(164, found.get(found.size() - 1).getNum(), "last block in the window");
+    assertEquals(180, chain.transactionsBetween(0, Long.MAX_VALUE).size(), "every timed block");
+    assertTrue(chain.blocksBetween(base + 500_000L, base + 600_000L).isEmpty(), "too late");
+
+    chain.rollbackTo(140);
+    assertTrue(chain.blocksBetween(base + 151_000L, base + 165_000L).isEmpty(),
+        "window after rolling back");
+    chain.append(new Block(141, new Transaction("", "U", 1), chain.getHash(), 0,
+        base + 140_500L));
+    assertEquals(141, chain.blocksBetween(base + 140_200L, base + 141_000L).get(0).getNum(),
+        "block after rolling back");
+
+    Block mined = chain.mine(new Transaction("", "V", 1));
+    assertTrue(mined.getTimestamp() >= base + 140_500L, "mining stamps the time");
+  } // testTimes()
 }
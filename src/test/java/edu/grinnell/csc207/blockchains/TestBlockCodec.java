@@ -0,0 +1,124 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our BlockEncoder and BlockDecoder classes.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestBlockCodec {
+  /**
+   * Make sure that two blocks are the same.
+   *
+   * @param expected
+   *   The block we encoded.
+   * @param actual
+   *   The block we decoded.
+   */
+  static void assertSameBlock(Block expected, Block actual) {
+    assertEquals(expected.getNum(), actual.getNum(), "number of block");
+    assertEquals(expected.getTransaction(), actual.getTransaction(), "transaction of block");
+    assertEquals(expected.getNonce(), actual.getNonce(), "nonce of block");
+    assertEquals(expected.getTimestamp(), actual.getTimestamp(), "time of block");
+    assertEquals(expected.getPrevHash(), actual.getPrevHash(), "previous hash of block");
+    assertEquals(expected.getHash(), actual.getHash(), "hash of block");
+  } // assertSameBlock(Block, Block)
+
+  /**
+   * Make sure that blocks survive encoding and decoding.
+   */
+  @Test
+  public void testRoundTrip() throws Exception {
+    BlockEncoder encoder = new BlockEncoder();
+    BlockDecoder decoder = new BlockDecoder();
+    Block first = new Block(1, new Transaction("Alice", "Bob", 25), new Hash(new byte[] {7}),
+        123456789L);
+    Block second = new Block(300, new Transaction("", "Ç", -17), first.getHash(), -5);
+    Block third = new Block(301, new Transaction("Bob", "Alice", Integer.MIN_VALUE),
+        second.getHash(), Long.MAX_VALUE);
+    Block fourth = new Block(302, new Transaction("Alice", "Bob", 1), third.getHash(), 8,
+        1_700_000_000_000L);
+    for (Block blk : new Block[] {first, second, third, fourth}) {
+      ByteBuffer encoded = encoder.encode(blk);
+      assertTrue(encoded.remaining() < blk.toString().length(), "encoding is compact");
+      assertSameBlock(blk, decoder.decode(encoded));
+      assertEquals(0, encoded.remaining(), "decoded the whole encoding");
+    } // for
+  } // testRoundTrip()
+
+  /**
+   * Make sure that we still read blocks encoded before blocks had times.
+   */
+  @Test
+  public void testVersionOne() throws Exception {
+    Block blk = new Block(4, new Transaction("A", "B", 5), new Hash(new byte[] {3}), 11);
+    ByteBuffer encoded = new BlockEncoder().encode(blk);
+    // Version 1 is the same, less the time, which is one zero byte here
+    ByteBuffer old = ByteBuffer.allocate(encoded.remaining() - 1);
+    int timeAt = encoded.remaining() - 1 - (1 + 1) - (1 + blk.getHash().length());
+    old.put((byte) 1).put(encoded.duplicate().position(1).limit(timeAt));
+    old.put(encoded.duplicate().position(timeAt + 1)).flip();
+    Block decoded = new BlockDecoder().decode(old);
+    assertSameBlock(blk, decoded);
+    assertTrue(BlockLog.hasCorrectHash(decoded), "hash without a time");
+  } // testVersionOne()
+
+  /**
+   * Make sure that we can write and read a stream of blocks.
+   */
+  @Test
+  public void testStream() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BlockEncoder encoder = new BlockEncoder(bytes);
+    Block[] blocks = new Block[5];
+    Hash prev = new Hash(new byte[] {});
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = new Block(i, new Transaction("A", "B", i * 1000), prev, i);
+      prev = blocks[i].getHash();
+      encoder.write(blocks[i]);
+    } // for
+    encoder.flush();
+
+    BlockDecoder decoder = new BlockDecoder(new ByteArrayInputStream(bytes.toByteArray()));
+    for (Block blk : blocks) {
+      assertSameBlock(blk, decoder.read());
+    } // for
+    assertNull(decoder.read(), "end of stream");
+  } // testStream()
+
+  /**
+   * Make sure that we reject things that are not blocks.
+   */
+  @Test
+  public void testMalformed() {
+    BlockDecoder decoder = new BlockDecoder();
+    Block blk = new Block(2, new Transaction("A", "B", 5), new Hash(new byte[] {1, 2}), 9);
+    ByteBuffer encoded = new BlockEncoder().encode(blk);
+    ByteBuffer truncated = encoded.duplicate().limit(encoded.limit() - 1);
+    assertThrows(IOException.class, () -> decoder.decode(truncated), "truncated block");
+    ByteBuffer wrongVersion = ByteBuffer.allocate(encoded.remaining()).put(encoded).flip();
+    wrongVersion.put(0, (byte) 99);
+    assertThrows(IOException.class, () -> decoder.decode(wrongVersion), "unknown version");
+
+    // A varint of 2^63, which is negative as a long
+    byte[] huge = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+        (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1};
+    ByteBuffer hugeLength = ByteBuffer.allocate(32).put(BlockEncoder.VERSION).put((byte) 1)
+        .put(huge).flip().limit(32);
+    assertThrows(IOException.class, () -> decoder.decode(hugeLength), "negative length");
+    ByteBuffer hugeNum = ByteBuffer.allocate(32).put(BlockEncoder.VERSION).put(huge).flip()
+        .limit(32);
+    assertThrows(IOException.class, () -> decoder.decode(hugeNum), "negative block number");
+  } // testMalformed()
+} // class TestBlockCodec
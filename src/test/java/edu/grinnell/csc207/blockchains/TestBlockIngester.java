@@ -0,0 +1,83 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our BlockIngester class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestBlockIngester {
+  // +-----------+---------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * A validator that takes a little work to satisfy.
+   */
+  static final HashValidator VALIDATOR = HashValidator.leadingZeros(1);
+
+  /**
+   * Mine a few blocks on a chain and return them (other than the first).
+   */
+  static List<Block> mined(int count) {
+    BlockChain source = new BlockChain(VALIDATOR);
+    source.append(source.mine(new Transaction("", "A", 1000)));
+    for (int i = 1; i < count; i++) {
+      source.append(source.mine(new Transaction("A", "B" + i, i)));
+    } // for
+    List<Block> blocks = new ArrayList<Block>();
+    source.blocks().forEachRemaining(blocks::add);
+    blocks.remove(0);
+    return blocks;
+  } // mined(int)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Make sure that we can ingest a batch of valid blocks.
+   */
+  @Test
+  public void testIngest() {
+    List<Block> blocks = mined(40);
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockIngester ingester = new BlockIngester(chain, 4);
+    assertEquals(40, ingester.ingest(blocks), "number of blocks ingested");
+    ingester.shutdown();
+    assertEquals(41, chain.getSize(), "size after ingesting");
+    assertEquals(blocks.get(39).getHash(), chain.getHash(), "hash after ingesting");
+    assertEquals(1000 - 780, chain.balance("A"), "A's balance after ingesting");
+    assertTrue(chain.isCorrect(), "chain is correct after ingesting");
+  } // testIngest()
+
+  /**
+   * Make sure that ingestion stops at an invalid block, and that the
+   * blocks before it are on the disk.
+   */
+  @Test
+  public void testIngestInvalid(@TempDir Path dir) throws Exception {
+    List<Block> blocks = mined(10);
+    blocks.get(6).transaction = new Transaction("A", "C", 1);
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(dir.resolve("chain.log"));
+    chain.setLog(log);
+    BlockIngester ingester = new BlockIngester(chain, 3);
+    assertThrows(IllegalArgumentException.class, () -> ingester.ingest(blocks),
+        "ingesting modified block");
+    ingester.shutdown();
+    assertEquals(7, chain.getSize(), "blocks before the invalid one are kept");
+    assertEquals(log.length(), log.syncedBytes, "blocks before the invalid one are synced");
+    log.close();
+  } // testIngestInvalid(Path)
+} // class TestBlockIngester
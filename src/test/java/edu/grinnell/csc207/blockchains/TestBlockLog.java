@@ -0,0 +1,262 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our BlockLog class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestBlockLog {
+  // +-----------+---------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * A validator that takes a little work to satisfy.
+   */
+  static final HashValidator VALIDATOR = HashValidator.leadingZeros(1);
+
+  /**
+   * Build a logged chain with a few changes in it.
+   */
+  static BlockChain logged(Path file) throws Exception {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(file, 4, 10);
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("", "D", 5)));
+    log.close();
+    return chain;
+  } // logged(Path)
+
+  /**
+   * Build the record for a block in a version 1 log.
+   */
+  static ByteBuffer versionOneRecord(Block blk) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(blk.getNum());
+    out.writeUTF(blk.getTransaction().getSource());
+    out.writeUTF(blk.getTransaction().getTarget());
+    out.writeInt(blk.getTransaction().getAmount());
+    out.writeLong(blk.getNonce());
+    out.writeShort(blk.getPrevHash().length());
+    out.write(blk.getPrevHash().getBytes());
+    out.writeShort(blk.getHash().length());
+    out.write(blk.getHash().getBytes());
+    return BlockLog.record(BlockLog.BLOCK_RECORD, ByteBuffer.wrap(bytes.toByteArray()));
+  } // versionOneRecord(Block)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Make sure that we can rebuild a chain from its log.
+   */
+  @Test
+  public void testReplay(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockChain original = logged(file);
+
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(file, 4, 0);
+    assertEquals(6, log.replay(chain), "number of records replayed");
+    assertEquals(original.getSize(), chain.getSize(), "size after replay");
+    assertEquals(original.getHash(), chain.getHash(), "hash after replay");
+    assertEquals(70, chain.balance("A"), "A's balance after replay");
+    assertEquals(0, chain.balance("C"), "C's balance after replay");
+    assertTrue(chain.isCorrect(), "chain is correct after replay");
+
+    // Keep logging after the replay
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("A", "C", 1)));
+    log.close();
+    BlockChain again = new BlockChain(VALIDATOR);
+    BlockLog log2 = new BlockLog(file, 4, 0);
+    assertEquals(7, log2.replay(again), "number of records replayed the second time");
+    assertEquals(chain.getHash(), again.getHash(), "hash after second replay");
+    log2.close();
+  } // testReplay(Path)
+
+  /**
+   * Make sure that a torn record at the end of the log is cut off.
+   */
+  @Test
+  public void testTornTail(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockChain original = logged(file);
+    long goodSize = Files.size(file);
+    try (FileChannel out = FileChannel.open(file, StandardOpenOption.APPEND)) {
+      out.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 1, 9, 9}));
+    } // try
+
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    assertEquals(6, log.replay(chain), "torn record is not replayed");
+    assertEquals(original.getHash(), chain.getHash(), "hash after replay");
+    assertEquals(goodSize, Files.size(file), "torn record is cut off");
+    log.close();
+  } // testTornTail(Path)
+
+  /**
+   * Make sure that trying to remove a pruned block leaves the log alone.
+   */
+  @Test
+  public void testPruned(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    chain.prune(3);
+    chain.rollbackTo(2);
+    long length = log.length();
+    assertFalse(chain.removeLast(), "removing a pruned block");
+    assertEquals(length, log.length(), "log after trying to remove a pruned block");
+    log.close();
+
+    BlockChain again = new BlockChain(VALIDATOR);
+    BlockLog log2 = new BlockLog(file, 1, 0);
+    log2.replay(again);
+    assertEquals(chain.getHash(), again.getHash(), "hash after replay");
+    assertEquals(chain.getSize(), again.getSize(), "size after replay");
+    log2.close();
+  } // testPruned(Path)
+
+  /**
+   * Make sure that we upgrade and replay a log written in version 1 of
+   * the format.
+   */
+  @Test
+  public void testVersionOne(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockChain original = new BlockChain(VALIDATOR);
+    Block block1 = new Block(1, new Transaction("", "A", 100), original.getHash(), VALIDATOR);
+    Block block2 = new Block(2, new Transaction("A", "B", 30), block1.getHash(), VALIDATOR);
+    Block other2 = new Block(2, new Transaction("A", "C", 20), block1.getHash(), VALIDATOR);
+    try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE)) {
+      out.write(ByteBuffer.allocate(BlockLog.HEADER_BYTES).putInt(BlockLog.MAGIC).putInt(1)
+          .flip());
+      out.write(versionOneRecord(original.getBlock(0)));
+      out.write(versionOneRecord(block1));
+      out.write(versionOneRecord(block2));
+      out.write(BlockLog.record(BlockLog.TRUNCATE_RECORD,
+          ByteBuffer.allocate(Integer.BYTES).putInt(2).flip()));
+      out.write(versionOneRecord(other2));
+    } // try
+
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    assertEquals(5, log.replay(chain), "records replayed from an old log");
+    assertEquals(other2.getHash(), chain.getHash(), "hash after replay");
+    assertEquals(80, chain.balance("A"), "A's balance after replay");
+    assertEquals(0, chain.balance("B"), "B's balance after replay");
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("C", "B", 5)));
+    log.close();
+
+    try (MappedBlockFile mapped = new MappedBlockFile(file)) {
+      assertEquals(4, mapped.getSize(), "upgraded log can be mapped");
+    } // try
+    BlockChain again = new BlockChain(VALIDATOR);
+    BlockLog log2 = new BlockLog(file, 1, 0);
+    assertEquals(6, log2.replay(again), "records replayed after the upgrade");
+    assertEquals(chain.getHash(), again.getHash(), "hash after the upgrade");
+    log2.close();
+  } // testVersionOne(Path)
+
+  /**
+   * Make sure that a durable log syncs each change before it returns,
+   * and that threads that log at the same time can share syncs.
+   */
+  @Test
+  public void testDurable(@TempDir Path dir) throws Exception {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockLog log = new BlockLog(dir.resolve("chain.log"));
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    assertEquals(log.length(), log.syncedBytes, "synced after append");
+    chain.removeLast();
+    assertEquals(log.length(), log.syncedBytes, "synced after remove");
+
+    Block blk = chain.getBlock(0);
+    List<Long> unsynced = new CopyOnWriteArrayList<Long>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        try {
+          for (int i = 0; i < 25; i++) {
+            long end = log.log(blk);
+            log.settle(end);
+            if (log.syncedBytes < end) {
+              unsynced.add(end);
+            } // if
+          } // for
+        } catch (IOException e) {
+          unsynced.add(-1L);
+        } // try/catch
+      });
+      threads[t].start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    assertTrue(unsynced.isEmpty(), "every record synced before settle returned");
+    assertTrue(log.syncs <= 3 + 100, "at most one sync per record");
+    log.close();
+  } // testDurable(Path)
+
+  /**
+   * Make sure that a lazy log syncs once per group and counts records as
+   * synced only after the sync.
+   */
+  @Test
+  public void testLazy(@TempDir Path dir) throws Exception {
+    BlockLog log = new BlockLog(dir.resolve("chain.log"), 3, 0);
+    Block blk = new BlockChain(VALIDATOR).getBlock(0);
+    log.append(blk);
+    log.append(blk);
+    assertEquals(0, log.syncs, "no sync before the group fills");
+    assertEquals(0, log.syncedRecords, "nothing synced before the group fills");
+    log.append(blk);
+    assertEquals(1, log.syncs, "one sync once the group fills");
+    assertEquals(3, log.syncedRecords, "the group is synced");
+    log.sync();
+    assertEquals(1, log.syncs, "no sync when nothing is waiting");
+
+    // Writing alone never syncs, even once the group fills
+    long end = 0;
+    for (int i = 0; i < 4; i++) {
+      end = log.log(blk);
+    } // for
+    assertEquals(1, log.syncs, "no sync while writing");
+    log.settle(end);
+    assertEquals(2, log.syncs, "settling syncs the full group");
+    assertEquals(7, log.syncedRecords, "the full group is synced");
+    log.close();
+  } // testLazy(Path)
+} // class TestBlockLog
@@ -0,0 +1,189 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our BlockTree class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestBlockTree {
+  // +-----------+---------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * A validator that takes a little work to satisfy.
+   */
+  static final HashValidator VALIDATOR = HashValidator.leadingZeros(1);
+
+  /**
+   * Mine a block that follows another block.
+   */
+  static Block mineAfter(Block prev, Transaction t) {
+    return new Block(prev.getNum() + 1, t, prev.getHash(), VALIDATOR);
+  } // mineAfter(Block, Transaction)
+
+  /**
+   * Make sure that the nodes of a tree, by hash and by height, agree.
+   */
+  static void assertLevels(BlockTree tree) {
+    int count = 0;
+    for (ArrayList<BlockTree.TreeNode> level : tree.levels.values()) {
+      for (BlockTree.TreeNode node : level) {
+        assertSame(node, tree.nodes.get(node.block.getHash()),
+            "node at height " + node.block.getNum() + " is known by hash");
+        count++;
+      } // for
+    } // for
+    assertEquals(tree.size(), count, "nodes by height");
+  } // assertLevels(BlockTree)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Make sure that blocks that extend the chain are appended.
+   */
+  @Test
+  public void testExtend() {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockTree tree = new BlockTree(chain);
+    Block block1 = chain.mine(new Transaction("", "A", 100));
+    assertTrue(tree.add(block1), "adding block that extends the chain");
+    assertFalse(tree.add(block1), "adding block a second time");
+    assertEquals(2, chain.getSize(), "size after extending");
+    assertEquals(block1, tree.getTip(), "tip after extending");
+    assertThrows(IllegalArgumentException.class,
+        () -> tree.add(new Block(5, new Transaction("", "B", 1), block1.getHash(), VALIDATOR)),
+        "adding block with the wrong number");
+  } // testExtend()
+
+  /**
+   * Make sure that the chain switches to a heavier branch.
+   */
+  @Test
+  public void testReorganize() {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockTree tree = new BlockTree(chain);
+    // Mine without a time, so that the hashes (and their work) never change
+    Block base = mineAfter(chain.getBlock(0), new Transaction("", "A", 100));
+    tree.add(base);
+    Block main = mineAfter(base, new Transaction("A", "B", 10));
+    tree.add(main);
+
+    // A competing branch
+    Block side1 = mineAfter(base, new Transaction("A", "C", 20));
+    Block side2 = mineAfter(side1, new Transaction("C", "D", 5));
+    Block side3 = mineAfter(side2, new Transaction("", "E", 7));
+    assertTrue(BlockTree.work(side1.getHash()).add(BlockTree.work(side2.getHash()))
+        .add(BlockTree.work(side3.getHash())).compareTo(BlockTree.work(main.getHash())) > 0,
+        "side branch has more work");
+    boolean heavier = BlockTree.work(side1.getHash()).compareTo(BlockTree.work(main.getHash())) > 0;
+    assertEquals(heavier, tree.add(side1), "chain moves only to a heavier branch");
+    assertEquals(heavier ? side1 : main, tree.getTip(), "tip after first side block");
+    tree.add(side2);
+    tree.add(side3);
+
+    assertEquals(6, tree.size(), "blocks in tree");
+    assertEquals(side3, tree.getTip(), "tip after reorganizing");
+    assertEquals(5, chain.getSize(), "size after reorganizing");
+    assertEquals(side3.getHash(), chain.getHash(), "hash after reorganizing");
+    assertEquals(80, chain.snapshot().balance("A"), "A's balance after reorganizing");
+    assertEquals(0, chain.snapshot().balance("B"), "B's balance after reorganizing");
+    assertEquals(15, chain.snapshot().balance("C"), "C's balance after reorganizing");
+    assertTrue(chain.isCorrect(), "chain is correct after reorganizing");
+  } // testReorganize()
+
+  /**
+   * Make sure that the tree forgets blocks once they are final.
+   */
+  @Test
+  public void testFinal() {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockTree tree = new BlockTree(chain, 2);
+    Block base = mineAfter(chain.getBlock(0), new Transaction("", "A", 100));
+    tree.add(base);
+    Block main = mineAfter(base, new Transaction("A", "B", 10));
+    Block side = mineAfter(base, new Transaction("A", "C", 20));
+    tree.add(main);
+    tree.add(side);
+    Block loser = (tree.getTip() == main) ? side : main;
+    for (int i = 0; i < 4; i++) {
+      tree.add(mineAfter(tree.getTip(), new Transaction("", "D", i)));
+    } // for
+
+    assertEquals(6, chain.getSize() - 1, "height of chain");
+    assertEquals(3, tree.size(), "blocks in tree");
+    assertThrows(IllegalArgumentException.class,
+        () -> tree.add(mineAfter(loser, new Transaction("", "E", 1))),
+        "adding block after a forgotten side branch");
+    assertLevels(tree);
+  } // testFinal()
+
+  /**
+   * Make sure that the tree forgets a branch the chain rejects, along
+   * with every block after the rejected one.
+   */
+  @Test
+  public void testRejected() {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockTree tree = new BlockTree(chain);
+    Block base = mineAfter(chain.getBlock(0), new Transaction("", "A", 100));
+    tree.add(base);
+    Block main = mineAfter(base, new Transaction("A", "B", 10));
+    tree.add(main);
+
+    // A side branch whose first block overdraws A
+    Block bad = mineAfter(base, new Transaction("A", "C", 500));
+    tree.add(bad);
+    if (tree.nodes.containsKey(bad.getHash())) {
+      // Another branch after the bad block, which must go with it
+      tree.add(mineAfter(bad, new Transaction("", "E", 1)));
+    } // if
+    Block next = bad;
+    for (int i = 0; i < 1000 && tree.nodes.containsKey(bad.getHash()); i++) {
+      next = mineAfter(next, new Transaction("", "D", i));
+      tree.add(next);
+    } // for
+
+    assertFalse(tree.nodes.containsKey(bad.getHash()), "rejected block is forgotten");
+    assertEquals(main, tree.getTip(), "tip after rejecting the branch");
+    assertEquals(main.getHash(), chain.getHash(), "chain after rejecting the branch");
+    assertEquals(3, tree.size(), "only the main branch is left");
+    assertLevels(tree);
+  } // testRejected()
+
+  /**
+   * Make sure that the tree forgets blocks that the chain has pruned.
+   */
+  @Test
+  public void testPruned() {
+    BlockChain chain = new BlockChain(VALIDATOR);
+    BlockTree tree = new BlockTree(chain);
+    Block block1 = mineAfter(chain.getBlock(0), new Transaction("", "A", 100));
+    tree.add(block1);
+    Block block2 = mineAfter(block1, new Transaction("A", "B", 10));
+    tree.add(block2);
+    Block block3 = mineAfter(block2, new Transaction("A", "C", 10));
+    tree.add(block3);
+    chain.prune(3);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> tree.add(mineAfter(block2, new Transaction("", "E", 1))),
+        "adding block after a pruned block");
+    assertEquals(1, tree.size(), "blocks in tree after pruning");
+    assertTrue(tree.add(mineAfter(block3, new Transaction("", "F", 1))),
+        "extending the pruned chain");
+    assertEquals(5, chain.getSize(), "size after extending");
+  } // testPruned()
+} // class TestBlockTree
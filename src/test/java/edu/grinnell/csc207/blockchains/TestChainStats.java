@@ -0,0 +1,110 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of the totals our BlockChain class keeps (see
+ * ChainStats).
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestChainStats {
+  /**
+   * Make sure that appends and removals keep the totals up to date.
+   */
+  @Test
+  public void testAppendRemove() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 50)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    assertEquals(150, chain.supply(), "supply");
+    assertEquals(30, chain.sent("A"), "A's sent");
+    assertEquals(80, chain.received("B"), "B's received");
+    assertEquals(10, chain.sent("B"), "B's sent");
+    assertEquals(0, chain.sent("D"), "unknown user's sent");
+
+    List<Map.Entry<String, Integer>> top = chain.richest(2);
+    assertEquals(2, top.size(), "number of richest");
+    assertEquals(Map.entry("A", 70), top.get(0), "richest");
+    assertEquals(Map.entry("B", 70), top.get(1), "second richest");
+    assertEquals(3, chain.richest(10).size(), "more than there are");
+
+    chain.removeLast();
+    chain.removeLast();
+    assertEquals(150, chain.supply(), "supply after removals");
+    assertEquals(0, chain.sent("A"), "A's sent after removals");
+    assertEquals(Map.entry("A", 100), chain.richest(1).get(0), "richest after removals");
+    chain.removeLast();
+    assertEquals(100, chain.supply(), "supply after removing a deposit");
+  } // testAppendRemove()
+
+  /**
+   * Make sure that the ranking matches the balances of a larger chain,
+   * however its blocks were added.
+   */
+  @Test
+  public void testRanking() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 30; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + (i % 7), 10 * i)));
+      chain.append(chain.mine(new Transaction("U" + (i % 7), "U" + (i % 4), i)));
+    } // for
+    BlockChain copy = new BlockChain((hash) -> true);
+    copy.appendAll(chain.snapshot().blockStream().skip(1).toList());
+    ChainSnapshot snap = chain.snapshot();
+
+    for (BlockChain c : List.of(chain, copy)) {
+      List<Map.Entry<String, Integer>> top = c.richest(7);
+      assertEquals(7, top.size(), "number of users");
+      for (int i = 0; i < top.size(); i++) {
+        assertEquals(snap.balance(top.get(i).getKey()), top.get(i).getValue(),
+            "balance of " + top.get(i).getKey());
+        if (i > 0) {
+          assertEquals(true, top.get(i - 1).getValue() >= top.get(i).getValue(),
+              "order at " + i);
+        } // if
+      } // for
+      assertEquals(10 * 29 * 30 / 2, c.supply(), "supply");
+    } // for
+  } // testRanking()
+
+  /**
+   * Make sure that a user whose deposit is removed leaves the ranking,
+   * as they leave the chain's users.
+   */
+  @Test
+  public void testRemovedDeposit() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("", "B", 50)));
+    chain.removeLast();
+    assertEquals(List.of(Map.entry("A", 100)), chain.richest(10), "richest after removal");
+    assertArrayEquals(new String[] {"A"}, TestBlockChain.users(chain), "users after removal");
+    assertEquals(0, chain.received("B"), "B's received after removal");
+
+    chain.append(chain.mine(new Transaction("A", "C", 100)));
+    assertEquals(List.of(Map.entry("C", 100)), chain.richest(10), "no one with nothing");
+  } // testRemovedDeposit()
+
+  /**
+   * Make sure that the totals survive pruning.
+   */
+  @Test
+  public void testPruned() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.prune(2);
+    assertEquals(100, chain.supply(), "supply");
+    assertEquals(30, chain.received("B"), "B's received");
+    assertEquals(Map.entry("B", 30), chain.richest(2).get(1), "second richest");
+  } // testPruned()
+} // class TestChainStats
@@ -0,0 +1,125 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our GenesisCache class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestGenesisCache {
+  /**
+   * Stop saving nonces once each test is done.
+   */
+  @AfterEach
+  public void reset() {
+    GenesisCache.setFile(null);
+  } // reset()
+
+  /**
+   * Make sure that chains with the same kind of validator share their
+   * first block.
+   */
+  @Test
+  public void testShared() {
+    BlockChain first = new BlockChain(HashValidator.leadingZeros(2));
+    BlockChain second = new BlockChain(HashValidator.leadingZeros(2));
+    assertEquals(first.getHash(), second.getHash(), "first block is reused");
+    assertNotSame(first.getBlock(0), second.getBlock(0), "each chain has its own copy");
+    assertTrue(second.isCorrect(), "chain is correct");
+    BlockChain other = new BlockChain(HashValidator.leadingZeros(1));
+    assertTrue(other.isCorrect(), "chain with a different validator is correct");
+  } // testShared()
+
+  /**
+   * Make sure that validators without descriptors still mine.
+   */
+  @Test
+  public void testNoDescriptor() {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 7);
+    BlockChain first = new BlockChain(v);
+    BlockChain second = new BlockChain(v);
+    assertNotSame(first.getBlock(0), second.getBlock(0), "first block is mined again");
+    assertTrue(v.isValid(second.getHash()), "first block is valid");
+  } // testNoDescriptor()
+
+  /**
+   * Make sure that nonces survive in the file, and that bad ones are
+   * mined again.
+   */
+  @Test
+  public void testFile(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("genesis");
+    GenesisCache.setFile(file);
+    HashValidator v = new HashValidator() {
+      public boolean isValid(Hash hash) {
+        return (hash.length() >= 1) && (hash.get(0) == 5);
+      } // isValid(Hash)
+
+      public String descriptor() {
+        return "first-byte-five";
+      } // descriptor()
+    };
+    long nonce = new BlockChain(v).getBlock(0).getNonce();
+    assertTrue(Files.readString(file).contains("first-byte-five=" + nonce), "nonce is saved");
+
+    // Forget what is in memory, as a new run would
+    GenesisCache.mined.clear();
+    assertEquals(nonce, new BlockChain(v).getBlock(0).getNonce(), "nonce is reused");
+
+    GenesisCache.mined.clear();
+    Files.writeString(file, "first-byte-five=" + (nonce + 1) + "\n");
+    BlockChain chain = new BlockChain(v);
+    assertEquals(nonce, chain.getBlock(0).getNonce(), "bad nonce is mined again");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testFile(Path)
+
+  /**
+   * Make sure that mining for one validator does not hold up chains
+   * with other validators.
+   */
+  @Test
+  public void testConcurrent() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicBoolean waited = new AtomicBoolean(false);
+    HashValidator slow = new HashValidator() {
+      public boolean isValid(Hash hash) {
+        started.countDown();
+        try {
+          if (!release.await(5, TimeUnit.SECONDS)) {
+            waited.set(true);
+          } // if
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } // try/catch
+        return (hash.length() >= 1) && (hash.get(0) == 9);
+      } // isValid(Hash)
+
+      public String descriptor() {
+        return "slow-first-byte-nine";
+      } // descriptor()
+    };
+    Thread miner = new Thread(() -> new BlockChain(slow));
+    miner.start();
+    started.await();
+    BlockChain other = new BlockChain(HashValidator.leadingZeros(1));
+    release.countDown();
+    miner.join();
+    assertFalse(waited.get(), "other chain did not wait for the slow miner");
+    assertTrue(other.isCorrect(), "other chain is correct");
+  } // testConcurrent()
+} // class TestGenesisCache
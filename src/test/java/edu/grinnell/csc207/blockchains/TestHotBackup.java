@@ -0,0 +1,77 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our HotBackup class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestHotBackup {
+  /**
+   * Make sure that a backup taken during appends restores to a prefix of
+   * the chain.
+   */
+  @Test
+  public void testBackup(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog log = new BlockLog(file, 4, 0);
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    for (int i = 0; i < 10; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+
+    Thread appender = new Thread(() -> {
+      for (int i = 0; i < 10; i++) {
+        chain.append(chain.mine(new Transaction("A", "C", 1)));
+      } // for
+    });
+    appender.start();
+    Path backupDir = dir.resolve("backup");
+    int records = new HotBackup(chain, log, 2000).backup(backupDir);
+    appender.join();
+    log.close();
+    assertTrue(records >= 12, "backup has the blocks from before it started");
+
+    BlockChain restored = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog copy = new BlockLog(backupDir.resolve("chain.log"), 1, 0);
+    LedgerSnapshot snap = LedgerSnapshot.load(backupDir.resolve("chain.log.snapshot"));
+    assertNotNull(snap, "backup has a snapshot");
+    assertEquals(records, copy.replay(restored, snap), "records replayed");
+    copy.close();
+    int height = restored.getSize() - 1;
+    assertEquals(chain.getBlock(height).getHash(), restored.getHash(), "restored a prefix");
+    assertEquals(90 - (height - 11), restored.snapshot().balance("A"), "A's balance");
+    assertEquals(restored.balance("C"), restored.snapshot().balance("C"), "C's balance");
+    assertTrue(restored.isCorrect(), "restored chain is correct");
+  } // testBackup(Path)
+
+  /**
+   * Make sure that damage to a backup is caught.
+   */
+  @Test
+  public void testVerify(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    TestBlockLog.logged(file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      assertEquals(6, HotBackup.verify(channel), "records in an undamaged log");
+      channel.write(ByteBuffer.wrap(new byte[] {42}), channel.size() - 3);
+      assertThrows(IOException.class, () -> HotBackup.verify(channel), "damaged log");
+    } // try
+  } // testVerify(Path)
+} // class TestHotBackup
@@ -0,0 +1,74 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import edu.grinnell.csc207.util.AssociativeArray;
+
+/**
+ * Some simple tests of our LedgerRebuilder class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestLedgerRebuilder {
+  /**
+   * Make sure that ranges of any size rebuild the live balances.
+   */
+  @Test
+  public void testRebuild() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 20; i++) {
+      chain.append(chain.mine(new Transaction("", "U" + (i % 7), 100)));
+      chain.append(chain.mine(new Transaction("U" + (i % 7), "U" + (i % 3), 30 + i)));
+    } // for
+    ChainSnapshot snap = chain.snapshot();
+    for (int range = 1; range <= 64; range *= 4) {
+      AssociativeArray<String, Integer> ledger = new LedgerRebuilder(range).rebuild(snap);
+      assertEquals(7, ledger.size(), "users with ranges of " + range);
+      for (int u = 0; u < 7; u++) {
+        assertEquals(snap.balance("U" + u), ledger.get("U" + u),
+            "balance of U" + u + " with ranges of " + range);
+      } // for
+    } // for
+  } // testRebuild()
+
+  /**
+   * Make sure that a pruned chain rebuilds from its baseline.
+   */
+  @Test
+  public void testPruned() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    chain.append(chain.mine(new Transaction("A", "B", 30)));
+    chain.append(chain.mine(new Transaction("B", "C", 10)));
+    chain.prune(3);
+    AssociativeArray<String, Integer> ledger = new LedgerRebuilder(1).rebuild(chain.snapshot());
+    assertEquals(70, ledger.get("A"), "A's balance");
+    assertEquals(20, ledger.get("B"), "B's balance");
+    assertEquals(10, ledger.get("C"), "C's balance");
+  } // testPruned()
+
+  /**
+   * Make sure that balances are summed from the blocks, even when older
+   * blocks are sealed, and that isCorrect checks the live ledger against
+   * the blocks.
+   */
+  @Test
+  public void testLive() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true, new OffHeapStore(), 4);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    for (int i = 2; i < 30; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    assertEquals(28, chain.balance("B"), "B's balance");
+    assertEquals(0, chain.balance("Z"), "balance of an unknown user");
+    assertTrue(chain.isCorrect(), "chain is correct");
+
+    chain.balances.set("B", 27);
+    assertEquals(28, chain.balance("B"), "balance from the blocks");
+    assertFalse(chain.isCorrect(), "ledger that does not match the blocks");
+  } // testLive()
+} // class TestLedgerRebuilder
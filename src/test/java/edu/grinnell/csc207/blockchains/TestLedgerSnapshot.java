@@ -0,0 +1,97 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our LedgerSnapshot class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestLedgerSnapshot {
+  /**
+   * Make sure that a restart from a snapshot taken partway through the
+   * log ends up with the same chain and balances.
+   */
+  @Test
+  public void testRestart(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    Path snapFile = dir.resolve("chain.snapshot");
+    BlockChain original = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    original.setLog(log);
+    original.append(original.mine(new Transaction("", "A", 100)));
+    original.append(original.mine(new Transaction("A", "B", 30)));
+    LedgerSnapshot.saveInBackground(original, snapFile).join();
+    original.append(original.mine(new Transaction("B", "C", 10)));
+    original.removeLast();
+    original.removeLast();
+    original.append(original.mine(new Transaction("A", "D", 5)));
+    log.close();
+
+    LedgerSnapshot snap = LedgerSnapshot.load(snapFile);
+    assertEquals(2, snap.getHeight(), "height of snapshot");
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog log2 = new BlockLog(file, 1, 0);
+    assertEquals(7, log2.replay(chain, snap), "number of records replayed");
+    log2.close();
+    assertEquals(original.getHash(), chain.getHash(), "hash after restart");
+    assertEquals(95, chain.snapshot().balance("A"), "A's balance after restart");
+    assertEquals(5, chain.snapshot().balance("D"), "D's balance after restart");
+    assertEquals(0, chain.snapshot().balance("B"), "B's balance after restart");
+    assertTrue(chain.isCorrect(), "chain is correct after restart");
+
+    // Blocks covered by the snapshot can still be removed, and drop the
+    // users they added just as blocks with undo records do
+    chain.rollbackTo(1);
+    assertArrayEquals(new String[] {"A"}, TestBlockChain.users(chain), "users after rollback");
+    chain.rollbackTo(0);
+    assertEquals(0, chain.snapshot().balance("A"), "A's balance after rollback");
+    assertArrayEquals(new String[] {}, TestBlockChain.users(chain), "no users at the start");
+  } // testRestart(Path)
+
+  /**
+   * Make sure that a snapshot that does not match the log is ignored.
+   */
+  @Test
+  public void testMismatch(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    Path snapFile = dir.resolve("chain.snapshot");
+    BlockChain other = new BlockChain(TestBlockLog.VALIDATOR);
+    other.append(other.mine(new Transaction("", "Z", 1000)));
+    LedgerSnapshot.save(other.snapshot(), snapFile);
+    BlockChain original = TestBlockLog.logged(file);
+
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    assertEquals(6, log.replay(chain, LedgerSnapshot.load(snapFile)), "records replayed");
+    log.close();
+    assertEquals(original.getHash(), chain.getHash(), "hash after replay");
+    assertEquals(70, chain.snapshot().balance("A"), "A's balance after replay");
+    assertEquals(0, chain.snapshot().balance("Z"), "Z's balance after replay");
+  } // testMismatch(Path)
+
+  /**
+   * Make sure that damaged snapshots are not loaded.
+   */
+  @Test
+  public void testDamaged(@TempDir Path dir) throws Exception {
+    Path snapFile = dir.resolve("chain.snapshot");
+    assertNull(LedgerSnapshot.load(snapFile), "missing snapshot");
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR);
+    chain.append(chain.mine(new Transaction("", "A", 10)));
+    LedgerSnapshot.save(chain.snapshot(), snapFile);
+    byte[] bytes = Files.readAllBytes(snapFile);
+    bytes[bytes.length - 6] ^= 1;
+    Files.write(snapFile, bytes);
+    assertNull(LedgerSnapshot.load(snapFile), "damaged snapshot");
+  } // testDamaged(Path)
+} // class TestLedgerSnapshot
@@ -0,0 +1,214 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our MappedBlockFile class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestMappedBlockFile {
+  /**
+   * Make sure that we read the same blocks that the chain holds.
+   */
+  @Test
+  public void testRead(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockChain chain = TestBlockLog.logged(file);
+
+    try (MappedBlockFile mapped = new MappedBlockFile(file)) {
+      assertEquals(chain.getSize(), mapped.getSize(), "size of mapped file");
+      Iterator<Block> expected = chain.blocks();
+      Iterator<Block> actual = mapped.blocks();
+      while (expected.hasNext()) {
+        Block blk = expected.next();
+        Block read = actual.next();
+        assertEquals(blk.getNum(), read.getNum(), "number of block");
+        assertEquals(blk.getTransaction(), read.getTransaction(), "transaction of block");
+        assertEquals(blk.getHash(), read.getHash(), "hash of block");
+        assertEquals(blk.getPrevHash(), read.getPrevHash(), "previous hash of block");
+      } // while
+      assertFalse(actual.hasNext(), "no extra blocks");
+      assertEquals(new Transaction("", "D", 5), mapped.getBlock(3).getTransaction(),
+          "block after a removal");
+    } // try
+    assertTrue(Files.exists(MappedBlockFile.indexFile(file)), "index was saved");
+    try (MappedBlockFile reopened = new MappedBlockFile(file)) {
+      assertEquals(Files.size(file), reopened.savedLength, "index was loaded");
+      assertEquals(new Transaction("", "D", 5), reopened.getBlock(3).getTransaction(),
+          "block from the index");
+    } // try
+  } // testRead(Path)
+
+  /**
+   * Make sure that we pick up records written after the index was saved.
+   */
+  @Test
+  public void testRefresh(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    TestBlockLog.logged(file);
+    new MappedBlockFile(file).close();
+
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    log.replay(chain);
+    chain.setLog(log);
+    try (MappedBlockFile mapped = new MappedBlockFile(file)) {
+      assertFalse(mapped.refresh(), "nothing new to read");
+      chain.removeLast();
+      chain.append(chain.mine(new Transaction("A", "E", 3)));
+      chain.append(chain.mine(new Transaction("E", "F", 1)));
+      assertTrue(mapped.refresh(), "new records to read");
+      assertEquals(chain.getSize(), mapped.getSize(), "size after refresh");
+      assertEquals(chain.getHash(), mapped.getBlock(mapped.getSize() - 1).getHash(),
+          "last block after refresh");
+    } // try
+    log.close();
+  } // testRefresh(Path)
+
+  /**
+   * Make sure that a record damaged after we indexed it gives a
+   * descriptive error.
+   */
+  @Test
+  public void testDamaged(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    TestBlockLog.logged(file);
+    try (MappedBlockFile mapped = new MappedBlockFile(file)) {
+      int last = mapped.getSize() - 1;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xff}), channel.size() - 1);
+      } // try
+      UncheckedIOException e = assertThrows(UncheckedIOException.class,
+          () -> mapped.getBlock(last), "reading a damaged record");
+      assertTrue(e.getCause().getMessage().contains("block " + last), "message names the block");
+    } // try
+  } // testDamaged(Path)
+
+  /**
+   * Make sure that we ignore an index left over from another log at the
+   * same path.
+   */
+  @Test
+  public void testStaleIndex(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    TestBlockLog.logged(file);
+    new MappedBlockFile(file).close();
+    Files.delete(file);
+
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR);
+    BlockLog log = new BlockLog(file, 1, 0);
+    chain.setLog(log);
+    for (int i = 1; i <= 6; i++) {
+      chain.append(chain.mine(new Transaction("", "E", i)));
+    } // for
+    log.close();
+    try (MappedBlockFile mapped = new MappedBlockFile(file)) {
+      assertEquals(chain.getSize(), mapped.getSize(), "size despite the stale index");
+      for (int i = 0; i < chain.getSize(); i++) {
+        assertEquals(chain.getBlock(i).getHash(), mapped.getBlock(i).getHash(),
+            "block " + i + " despite the stale index");
+      } // for
+    } // try
+  } // testStaleIndex(Path)
+
+  /**
+   * Make sure that a chain can seal its older blocks into a mapped file
+   * of its own log, and that snapshots keep the blocks they saw.
+   */
+  @Test
+  public void testColdStore(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file, 1, 0);
+    try (MappedBlockFile mapped = new MappedBlockFile(file)) {
+      BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR, mapped, 2);
+      chain.setLog(log);
+      chain.append(chain.mine(new Transaction("", "A", 100)));
+      for (int i = 1; i <= 5; i++) {
+        chain.append(chain.mine(new Transaction("A", "B", i)));
+      } // for
+      assertEquals(2, mapped.sealed.size(), "segments sealed");
+      assertEquals(4, chain.history.offset, "older blocks out of memory");
+      assertEquals(new Transaction("A", "B", 1), chain.getBlock(2).getTransaction(),
+          "sealed block read from the log");
+      assertEquals(85, chain.balance("A"), "A's balance");
+      assertTrue(chain.isCorrect(), "chain is correct");
+
+      ChainSnapshot snap = chain.snapshot();
+      Hash old = chain.getBlock(2).getHash();
+      chain.rollbackTo(1);
+      chain.append(chain.mine(new Transaction("A", "C", 7)));
+      chain.append(chain.mine(new Transaction("A", "C", 8)));
+      chain.append(chain.mine(new Transaction("A", "C", 9)));
+      assertEquals(new Transaction("A", "C", 7), chain.getBlock(2).getTransaction(),
+          "block sealed again after the rollback");
+      assertEquals(old, snap.getBlock(2).getHash(), "snapshot keeps the old block");
+      assertEquals(76, chain.balance("A"), "A's balance after the rollback");
+    } // try
+    log.close();
+  } // testColdStore(Path)
+
+  /**
+   * Make sure that a chain that seals into a mapped file of its log
+   * starts up from the index and a ledger snapshot.
+   */
+  @Test
+  public void testStartup(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    Path snapFile = dir.resolve("chain.snap");
+    BlockLog log = new BlockLog(file, 1, 0);
+    MappedBlockFile mapped = new MappedBlockFile(file);
+    BlockChain chain = new BlockChain(TestBlockLog.VALIDATOR, mapped, 2);
+    chain.setLog(log);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    for (int i = 1; i <= 6; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", i)));
+    } // for
+    LedgerSnapshot.save(chain.snapshot(), snapFile);
+    chain.append(chain.mine(new Transaction("B", "C", 4)));
+    chain.append(chain.mine(new Transaction("B", "C", 5)));
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("B", "D", 6)));
+    log.close();
+    mapped.close();
+    // A torn record at the end, as after a crash
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 9, 1}), channel.size());
+    } // try
+
+    BlockLog log2 = new BlockLog(file, 1, 0);
+    try (MappedBlockFile mapped2 = new MappedBlockFile(file)) {
+      BlockChain again = new BlockChain(TestBlockLog.VALIDATOR, mapped2, 2);
+      assertEquals(2, log2.replay(again, LedgerSnapshot.load(snapFile)),
+          "blocks replayed in full");
+      assertEquals(chain.getSize(), again.getSize(), "size after startup");
+      assertEquals(chain.getHash(), again.getHash(), "hash after startup");
+      assertEquals(79, again.balance("A"), "A's balance after startup");
+      assertEquals(11, again.balance("B"), "B's balance after startup");
+      assertEquals(6, again.balance("D"), "D's balance after startup");
+      assertTrue(again.history.size() - again.history.offset <= 4, "few blocks in memory");
+      assertTrue(again.isCorrect(), "chain is correct after startup");
+      assertEquals(mapped2.length, Files.size(file), "torn record cut off");
+
+      again.setLog(log2);
+      again.append(again.mine(new Transaction("D", "E", 1)));
+      assertTrue(mapped2.refresh(), "new block in the log");
+      assertEquals(again.getSize(), mapped2.getSize(), "mapped file follows the chain");
+    } // try
+    log2.close();
+  } // testStartup(Path)
+} // class TestMappedBlockFile
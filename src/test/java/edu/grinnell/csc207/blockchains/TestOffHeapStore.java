@@ -0,0 +1,92 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our OffHeapStore class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestOffHeapStore {
+  /**
+   * Make sure that blocks read back the same, even across buffers.
+   */
+  @Test
+  public void testReadBack() throws Exception {
+    OffHeapStore store = new OffHeapStore(256);
+    ArrayList<Block> blks = new ArrayList<Block>();
+    Hash prev = new Hash(new byte[] {});
+    for (int i = 0; i < 20; i++) {
+      Block blk = new Block(i, new Transaction("Source" + i, "Target", i - 10), prev, i);
+      blks.add(blk);
+      prev = blk.getHash();
+    } // for
+    int first = store.seal(blks.subList(0, 10));
+    int second = store.seal(blks.subList(10, 20));
+    assertTrue(store.bytes() > 256, "several buffers");
+    for (int i = 0; i < 20; i++) {
+      Block blk = store.read((i < 10) ? first : second, i % 10);
+      assertEquals(blks.get(i).getHash(), blk.getHash(), "hash of block " + i);
+      assertEquals(blks.get(i).getTransaction(), blk.getTransaction(), "transaction " + i);
+      assertEquals(blks.get(i).getNonce(), blk.getNonce(), "nonce of block " + i);
+    } // for
+  } // testReadBack()
+
+  /**
+   * Make sure that released segments give up their buffers, so that a
+   * store whose segments come and go stays the same size.
+   */
+  @Test
+  public void testRelease() throws Exception {
+    OffHeapStore store = new OffHeapStore(256);
+    ArrayList<Block> blks = new ArrayList<Block>();
+    Hash prev = new Hash(new byte[] {});
+    for (int i = 0; i < 10; i++) {
+      Block blk = new Block(i, new Transaction("Source" + i, "Target", i), prev, i);
+      blks.add(blk);
+      prev = blk.getHash();
+    } // for
+    int kept = store.seal(blks);
+    int previous = store.seal(blks);
+    long bytes = 0;
+    for (int round = 0; round < 50; round++) {
+      int current = store.seal(blks);
+      store.release(previous);
+      previous = current;
+      if (round == 5) {
+        bytes = store.bytes();
+      } // if
+    } // for
+    assertEquals(bytes, store.bytes(), "bytes after many segments come and go");
+    int released = previous - 1;
+    assertThrows(IOException.class, () -> store.read(released, 0), "reading a released segment");
+    for (int i = 0; i < blks.size(); i++) {
+      assertEquals(blks.get(i).getHash(), store.read(kept, i).getHash(), "kept block " + i);
+      assertEquals(blks.get(i).getHash(), store.read(previous, i).getHash(), "last block " + i);
+    } // for
+  } // testRelease()
+
+  /**
+   * Make sure that a chain works with its older blocks off the heap.
+   */
+  @Test
+  public void testChain() {
+    BlockChain chain = new BlockChain(TestSegmentedStore.VALIDATOR, new OffHeapStore(), 4);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    for (int i = 2; i < 30; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    assertTrue(chain.history.offset > 0, "older blocks are off the heap");
+    assertEquals(28, chain.balance("B"), "B's balance");
+    assertEquals(new Transaction("", "A", 1000), chain.getBlock(1).getTransaction(),
+        "first deposit");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testChain()
+} // class TestOffHeapStore
@@ -0,0 +1,212 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Some simple tests of our SegmentedStore class and of chains that seal
+ * their older blocks into it.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestSegmentedStore {
+  /**
+   * A validator that takes a little work to satisfy.
+   */
+  static final HashValidator VALIDATOR = HashValidator.leadingZeros(1);
+
+  /**
+   * The number of recent blocks the chains keep in memory.
+   */
+  static final int HOT = 4;
+
+  /**
+   * A store that cannot seal anything, like one on a full disk.
+   */
+  static class FullStore implements ColdStore {
+    public int seal(List<Block> blks) throws IOException {
+      throw new IOException("disk full");
+    } // seal(List<Block>)
+
+    public Block read(int segment, int index) throws IOException {
+      throw new IOException("nothing sealed");
+    } // read(int, int)
+
+    public void release(int segment) {
+    } // release(int)
+  } // class FullStore
+
+  /**
+   * Make sure that sealed blocks read back the same.
+   */
+  @Test
+  public void testSealed(@TempDir Path dir) throws Exception {
+    SegmentedStore store = new SegmentedStore(dir);
+    BlockChain chain = new BlockChain(VALIDATOR, store, HOT);
+    ArrayList<Block> appended = new ArrayList<Block>();
+    appended.add(chain.getBlock(0));
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    appended.add(chain.getBlock(1));
+    for (int i = 2; i < 30; i++) {
+      Block blk = chain.mine(new Transaction("A", "B", 1));
+      chain.append(blk);
+      appended.add(blk);
+      assertTrue(chain.history.size() - chain.history.offset < 2 * HOT,
+          "blocks in memory after " + i + " blocks");
+    } // for
+    assertTrue(Files.exists(store.segmentFile(0)), "first segment");
+
+    Iterator<Block> blocks = chain.blocks();
+    for (Block expected : appended) {
+      Block actual = blocks.next();
+      assertEquals(expected.getHash(), actual.getHash(), "hash of block " + expected.getNum());
+      assertEquals(expected.getTransaction(), actual.getTransaction(),
+          "transaction of block " + expected.getNum());
+    } // for
+    assertEquals(appended.get(3).getHash(), chain.getBlock(3).getHash(), "random read");
+    assertEquals(28, chain.balance("B"), "B's balance");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testSealed(Path)
+
+  /**
+   * Make sure that we can roll back into the sealed blocks.
+   */
+  @Test
+  public void testRollback(@TempDir Path dir) throws Exception {
+    BlockChain chain = new BlockChain(VALIDATOR, new SegmentedStore(dir), HOT);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    for (int i = 2; i < 20; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    ChainSnapshot before = chain.snapshot();
+    Hash hash5 = chain.getBlock(5).getHash();
+
+    assertEquals(14, chain.rollbackTo(5), "blocks removed");
+    assertEquals(hash5, chain.getHash(), "hash after rollback");
+    assertEquals(4, chain.snapshot().balance("B"), "B's balance after rollback");
+    for (int i = 6; i < 20; i++) {
+      chain.append(chain.mine(new Transaction("A", "C", 2)));
+    } // for
+    assertEquals(28, chain.balance("C"), "C's balance after appending again");
+    assertTrue(chain.isCorrect(), "chain is correct");
+
+    // The earlier snapshot still sees the old blocks
+    assertEquals(20, before.getSize(), "size of snapshot");
+    assertEquals(new Transaction("A", "B", 1), before.getBlock(12).getTransaction(),
+        "old block in snapshot");
+  } // testRollback(Path)
+
+  /**
+   * Make sure that compressed segments read back the same and are
+   * smaller than uncompressed ones.
+   */
+  @Test
+  public void testCompressed(@TempDir Path dir) throws Exception {
+    SegmentedStore plain = new SegmentedStore(dir.resolve("plain"));
+    SegmentedStore packed = new SegmentedStore(dir.resolve("packed"), true);
+    ArrayList<Block> blks = new ArrayList<Block>();
+    Hash prev = new Hash(new byte[] {});
+    for (int i = 0; i < 64; i++) {
+      Block blk = new Block(i, new Transaction("Alexander", "Beatrice", i), prev, i);
+      blks.add(blk);
+      prev = blk.getHash();
+    } // for
+    int plainId = plain.seal(blks);
+    int packedId = packed.seal(blks);
+    assertTrue(Files.size(packed.segmentFile(packedId)) < Files.size(plain.segmentFile(plainId)),
+        "compressed segment is smaller");
+    for (int i = 0; i < blks.size(); i++) {
+      Block blk = packed.read(packedId, i);
+      assertEquals(blks.get(i).getHash(), blk.getHash(), "hash of block " + i);
+      assertEquals(blks.get(i).getTransaction(), blk.getTransaction(), "transaction " + i);
+    } // for
+
+    BlockChain chain = new BlockChain(VALIDATOR, new SegmentedStore(dir, true), HOT);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    for (int i = 2; i < 20; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    assertEquals(18, chain.balance("B"), "B's balance");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testCompressed(Path)
+
+  /**
+   * Make sure that a rollback deletes the segments it drops, unless a
+   * snapshot may still read them, and that a store touches only its own
+   * files.
+   */
+  @Test
+  public void testRelease(@TempDir Path dir) throws Exception {
+    Path other = Files.createFile(dir.resolve("other" + SegmentedStore.SUFFIX));
+    SegmentedStore store = new SegmentedStore(dir);
+    BlockChain chain = new BlockChain(VALIDATOR, store, HOT);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    for (int i = 2; i < 30; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    chain.rollbackTo(5);
+    for (int i = 6; i < 12; i++) {
+      chain.append(chain.mine(new Transaction("A", "C", 2)));
+    } // for
+    int live = chain.history.segments.length;
+    assertEquals(live, store.segments(), "segments left after the rollback");
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(store.dir)) {
+      int count = 0;
+      for (Path file : files) {
+        count++;
+      } // for
+      assertEquals(live, count, "segment files left after the rollback");
+    } // try
+    assertEquals(12, chain.balance("C"), "C's balance");
+    assertTrue(chain.isCorrect(), "chain is correct");
+
+    // Segments that a snapshot shares outlive a rollback
+    for (int i = 12; i < 30; i++) {
+      chain.append(chain.mine(new Transaction("A", "D", 1)));
+    } // for
+    ChainSnapshot before = chain.snapshot();
+    int shared = store.segments();
+    chain.rollbackTo(5);
+    assertEquals(shared, store.segments(), "segments kept for the snapshot");
+    assertEquals(new Transaction("A", "D", 1), before.getBlock(20).getTransaction(),
+        "sealed block read through the snapshot");
+
+    store.close();
+    assertFalse(Files.exists(store.dir), "directory deleted on close");
+    assertTrue(Files.exists(other), "other files left alone");
+  } // testRelease(Path)
+
+  /**
+   * Make sure that a store that cannot seal stops the chain from growing
+   * rather than failing silently.
+   */
+  @Test
+  public void testFull() {
+    BlockChain chain = new BlockChain(VALIDATOR, new FullStore(), HOT);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    for (int i = 2; i < 2 * HOT; i++) {
+      chain.append(chain.mine(new Transaction("A", "B", 1)));
+    } // for
+    assertEquals(2 * HOT, chain.getSize(), "size when the store fails");
+    Block next = chain.mine(new Transaction("A", "B", 1));
+    assertThrows(UncheckedIOException.class, () -> chain.append(next),
+        "appending after the store fails");
+    assertEquals(2 * HOT, chain.getSize(), "size after the failed append");
+    assertEquals(2 * HOT - 2, chain.balance("B"), "B's balance after the failed append");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testFull()
+} // class TestSegmentedStore
@@ -0,0 +1,107 @@
+package edu.grinnell.csc207.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Some simple tests of our AssociativeArray class.
+ *
+ * @author Richard Lin, Maral Bat-Erdene
+ */
+public class TestAssociativeArray {
+  // +-----------+---------------------------------------------------
+  // | Utilities |
+  // +-----------+
+
+  /**
+   * A key whose hash we choose, so that keys can collide.
+   */
+  record Key(String name, int hash) {
+    public int hashCode() {
+      return this.hash;
+    } // hashCode()
+  } // record Key
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /**
+   * Make sure that many keys can be set, found, and removed.
+   */
+  @Test
+  public void testMany() throws Exception {
+    AssociativeArray<Integer, Integer> arr = new AssociativeArray<Integer, Integer>();
+    for (int i = 0; i < 5000; i++) {
+      arr.set(i * 7919, i);
+    } // for
+    arr.set(0, -1);
+    assertEquals(5000, arr.size(), "size after sets");
+    assertEquals(-1, arr.get(0), "replaced value");
+    assertEquals(4999, arr.get(4999 * 7919), "last value");
+    for (int i = 0; i < 5000; i += 2) {
+      arr.remove(i * 7919);
+    } // for
+    arr.remove(1);
+    assertEquals(2500, arr.size(), "size after removes");
+    assertFalse(arr.hasKey(2 * 7919), "removed key");
+    assertEquals(3, arr.get(3 * 7919), "kept key");
+
+    HashSet<Integer> keys = new HashSet<Integer>();
+    Iterator<Integer> it = arr.keyIterator();
+    while (it.hasNext()) {
+      keys.add(it.next());
+    } // while
+    assertEquals(2500, keys.size(), "keys iterated");
+  } // testMany()
+
+  /**
+   * Make sure that keys with the same hash stay apart.
+   */
+  @Test
+  public void testCollisions() throws Exception {
+    AssociativeArray<Key, String> arr = new AssociativeArray<Key, String>();
+    for (int i = 0; i < 10; i++) {
+      arr.set(new Key("k" + i, -42), "v" + i);
+    } // for
+    arr.set(new Key("other", 42), "other");
+    assertEquals(11, arr.size(), "size");
+    assertEquals("v7", arr.get(new Key("k7", -42)), "colliding key");
+    for (int i = 0; i < 9; i++) {
+      arr.remove(new Key("k" + i, -42));
+    } // for
+    assertEquals(2, arr.size(), "size after removes");
+    assertEquals("v9", arr.get(new Key("k9", -42)), "last colliding key");
+    assertEquals("other", arr.get(new Key("other", 42)), "other key");
+  } // testCollisions()
+
+  /**
+   * Make sure that a clone and its original do not see each other's
+   * changes.
+   */
+  @Test
+  public void testClone() throws Exception {
+    AssociativeArray<String, Integer> arr = new AssociativeArray<String, Integer>();
+    for (int i = 0; i < 100; i++) {
+      arr.set("u" + i, i);
+    } // for
+    AssociativeArray<String, Integer> copy = arr.clone();
+    arr.set("u5", 500);
+    arr.remove("u6");
+    arr.set("new", 1);
+    copy.set("u7", 700);
+    assertEquals(5, copy.get("u5"), "copy after original's set");
+    assertTrue(copy.hasKey("u6"), "copy after original's remove");
+    assertFalse(copy.hasKey("new"), "copy after original's insert");
+    assertEquals(7, arr.get("u7"), "original after copy's set");
+    assertEquals(500, arr.get("u5"), "original's set");
+    assertEquals(100, arr.size(), "size of original");
+    assertEquals(100, copy.size(), "size of copy");
+  } // testClone()
+} // class TestAssociativeArray